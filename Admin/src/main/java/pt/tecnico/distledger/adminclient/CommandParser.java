@@ -3,7 +3,10 @@ package pt.tecnico.distledger.adminclient;
 import pt.tecnico.distledger.server.exception.NoSuchQualifierException;
 
 import pt.tecnico.distledger.adminclient.grpc.AdminService;
+import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions.OperationType;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
 public class CommandParser {
@@ -12,7 +15,10 @@ public class CommandParser {
     private static final String ACTIVATE = "activate";
     private static final String DEACTIVATE = "deactivate";
     private static final String GET_LEDGER_STATE = "getLedgerState";
+    private static final String GET_METRICS = "getMetrics";
     private static final String GOSSIP = "gossip";
+    private static final String CREATE_ACCOUNT = "createAccount";
+    private static final String TRANSFER_TO = "transferTo";
     private static final String HELP = "help";
     private static final String EXIT = "exit";
 
@@ -47,6 +53,10 @@ public class CommandParser {
                         this.getLedgerState(line);
                         break;
 
+                    case GET_METRICS:
+                        this.getMetrics(line);
+                        break;
+
                     case GOSSIP:
                         this.gossip(line);
                         break;
@@ -74,7 +84,7 @@ public class CommandParser {
     }
 
     private boolean serverIsValid(String server) {
-        return server.equals("A") || server.equals("B") || server.equals("C");
+        return adminService.hasServer(server);
     }
 
     private void activate(String line) throws NoSuchQualifierException {
@@ -106,6 +116,39 @@ public class CommandParser {
     private void getLedgerState(String line) throws NoSuchQualifierException {
         String[] split = line.split(SPACE);
 
+        if (split.length < 2 || split.length > 4) {
+            this.printUsage();
+            return;
+        }
+        String server = split[1];
+        if (!serverIsValid(server)) { throw new NoSuchQualifierException(); }
+
+        // optional filters: an operation type and the TS of the operations already seen, e.g. 2,0,1
+        OperationType type = OperationType.OP_UNSPECIFIED;
+        List<Integer> fromTS = new ArrayList<>();
+        for (int i = 2; i < split.length; i++) {
+            if (split[i].equals(CREATE_ACCOUNT)) {
+                type = OperationType.OP_CREATE_ACCOUNT;
+            } else if (split[i].equals(TRANSFER_TO)) {
+                type = OperationType.OP_TRANSFER_TO;
+            } else {
+                try {
+                    for (String entry : split[i].split(",")) {
+                        fromTS.add(Integer.parseInt(entry));
+                    }
+                } catch (NumberFormatException e) {
+                    this.printUsage();
+                    return;
+                }
+            }
+        }
+
+        adminService.getLedgerState(server, type, fromTS);
+    }
+
+    private void getMetrics(String line) throws NoSuchQualifierException {
+        String[] split = line.split(SPACE);
+
         if (split.length != 2) {
             this.printUsage();
             return;
@@ -113,7 +156,7 @@ public class CommandParser {
         String server = split[1];
         if (!serverIsValid(server)) { throw new NoSuchQualifierException(); }
 
-        adminService.getLedgerState(server);   
+        adminService.getMetrics(server);
     }
 
     private void gossip(String line) throws NoSuchQualifierException {
@@ -142,8 +185,10 @@ public class CommandParser {
         System.out.println("Usage:\n" +
                 "- activate <server>\n" +
                 "- deactivate <server>\n" +
-                "- getLedgerState <server>\n" +
+                "- getLedgerState <server> [createAccount|transferTo] [<fromTS>]\n" +
+                "- getMetrics <server>\n" +
                 "- gossip <server>\n" +
-                "- exit\n");
+                "- exit\n" +
+                "<server> names a replica of the first shard, <server>@<shard> one of another shard\n");
     }
 }
@@ -4,12 +4,15 @@ import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
 import io.grpc.StatusRuntimeException;
 
-import java.util.Scanner;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
 
 import pt.tecnico.distledger.namingserver.grpc.NamingServerService;
 import pt.tecnico.distledger.namingserver.other.NamingServerUtilities;
-import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions.LedgerState;
+import pt.tecnico.distledger.namingserver.other.ShardMap;
 import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions.Operation;
 import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions.OperationType;
 
@@ -24,58 +27,60 @@ public class AdminService implements AutoCloseable {
 	private static void debug(String debugMessage) { if (DEBUG_FLAG) System.err.println("AdminService: " + debugMessage); }
     
     private final NamingServerService namingServerService;
-    
-    private ManagedChannel primaryServerChannel;
-    private AdminServiceGrpc.AdminServiceBlockingStub primaryServerStub;
-
-    private ManagedChannel secondaryServerChannel;
-    private AdminServiceGrpc.AdminServiceBlockingStub secondaryServerStub;
 
-    private ManagedChannel terciaryChannel;
-
-    private AdminServiceGrpc.AdminServiceBlockingStub terciaryServerStub;
+    // servers of other shards than the first are named with the shard, e.g. "B@1"
+    private final ShardMap shards = ShardMap.fromProperties();
+    
+    // channels and stubs by qualifier, opened the first time each server is used
+    private final Map<String, ManagedChannel> channels = new HashMap<>();
+    private final Map<String, AdminServiceGrpc.AdminServiceBlockingStub> stubs = new HashMap<>();
 
     Scanner scanner = new Scanner(System.in);
 
     public AdminService(NamingServerService namingServerService) {
 		this.namingServerService = namingServerService;
-        swapServerOfType("A");
-        swapServerOfType("B");
-        swapServerOfType("C");
 	}
 
-    private void swapServerOfType(String qualifier) {
-        List<String> lookupList = namingServerService.lookup(NamingServerUtilities.DISTLEDGER_SERVICE, qualifier);
+    public boolean hasServer(String qualifier) {
+        return !lookup(qualifier).isEmpty();
+    }
+
+    private List<String> lookup(String qualifier) {
+        int shard;
+        try {
+            shard = ShardMap.parseShard(qualifier);
+        } catch (NumberFormatException e) {
+            return List.of();
+        }
+        if (shard < 0 || shard >= shards.getCount()) {
+            return List.of();
+        }
+        return namingServerService.lookup(shards.service(shard), ShardMap.parseReplica(qualifier));
+    }
+
+    private AdminServiceGrpc.AdminServiceBlockingStub swapServerOfType(String qualifier) {
+        List<String> lookupList = lookup(qualifier);
 
         if(lookupList.size() == 0) {
-            return;
+            return null;
         }
         String address = lookupList.get(0);
         String host = NamingServerUtilities.parseServerHost(address);
         int port = NamingServerUtilities.parseServerPort(address);
-        if (qualifier.equals("A")) {
-            this.primaryServerChannel = ManagedChannelBuilder.forAddress(host, port).usePlaintext().build();
-            this.primaryServerStub = AdminServiceGrpc.newBlockingStub(primaryServerChannel);
-            debug("admin swapped it's primary server with address: " + address);
-        } else if (qualifier.equals("B")) {
-            this.secondaryServerChannel = ManagedChannelBuilder.forAddress(host, port).usePlaintext().build();
-            this.secondaryServerStub = AdminServiceGrpc.newBlockingStub(secondaryServerChannel);
-            debug("admin swapped it's secondary server with address: " + address);
-        } else if (qualifier.equals("C")) {
-            this.terciaryChannel = ManagedChannelBuilder.forAddress(host, port).usePlaintext().build();
-            this.terciaryServerStub = AdminServiceGrpc.newBlockingStub(terciaryChannel);
-            debug("admin swapped it's terciary server with address: " + address);
+        ManagedChannel channel = ManagedChannelBuilder.forAddress(host, port).usePlaintext().build();
+        ManagedChannel previousChannel = channels.put(qualifier, channel);
+        if (previousChannel != null) {
+            previousChannel.shutdown();
         }
+        AdminServiceGrpc.AdminServiceBlockingStub stub = AdminServiceGrpc.newBlockingStub(channel);
+        stubs.put(qualifier, stub);
+        debug("admin swapped it's server '" + qualifier + "' with address: " + address);
+        return stub;
     }
 
     private AdminServiceGrpc.AdminServiceBlockingStub selectStub(String qualifier) {
-        if (qualifier.equals("A")) { 
-            return primaryServerStub;
-        } else if (qualifier.equals("B")) {
-            return secondaryServerStub;
-        } else {
-            return terciaryServerStub;
-        } 
+        AdminServiceGrpc.AdminServiceBlockingStub stub = stubs.get(qualifier);
+        return stub != null ? stub : swapServerOfType(qualifier);
     }
 
     public void activate(String qualifier) {
@@ -99,23 +104,52 @@ public class AdminService implements AutoCloseable {
     }
 
     public void getLedgerState(String qualifier) {
+        getLedgerState(qualifier, OperationType.OP_UNSPECIFIED, List.of());
+    }
+
+    // printed page by page as the server streams it, only the operations of the given type and not covered by fromTS
+    public void getLedgerState(String qualifier, OperationType type, List<Integer> fromTS) {
         debug("Get LedgerState");
         try {
-            getLedgerStateResponse response = selectStub(qualifier).getLedgerState(getLedgerStateRequest.getDefaultInstance());
-            LedgerState ledgers = response.getLedgerState();
-            System.out.print("OK\nledgerState {\n");
-            for (int size = 0; size < ledgers.getLedgerCount(); size++) {
-                Operation ledger = ledgers.getLedger(size);
-
-                if (ledger.getType() == OperationType.OP_CREATE_ACCOUNT) {
-                    System.out.print("  ledger {\n    type: OP_CREATE_ACCOUNT\n    userId: " + ledger.getUserId() + "\n  }\n");
-                } else if (ledger.getType() == OperationType.OP_DELETE_ACCOUNT) {
-                    System.out.print("  ledger {\n    type: OP_DELETE_ACCOUNT\n    userId: " + ledger.getUserId() + "\n  }\n");
-                } else if (ledger.getType() == OperationType.OP_TRANSFER_TO) {
-                    System.out.print("  ledger {\n    type: OP_TRANSFER_TO\n    userId: " + ledger.getUserId() + "\n    destUserId: " + ledger.getDestUserId() + "\n    amount: " + ledger.getAmount() + "\n  }\n");
+            Iterator<getLedgerStateStreamResponse> pages = selectStub(qualifier).getLedgerStateStream(
+                    getLedgerStateStreamRequest.newBuilder().setType(type).addAllFromTS(fromTS).build());
+            boolean firstPage = true;
+            while (pages.hasNext()) {
+                getLedgerStateStreamResponse page = pages.next();
+                if (firstPage) {
+                    System.out.print("OK\nledgerState {\n");
+                    firstPage = false;
+                }
+                if (page.hasSnapshot()) {
+                    System.out.print("  snapshot {\n    operations: " + page.getSnapshot().getOperations() + "\n    TS: " + page.getSnapshot().getTSList() + "\n  }\n");
+                }
+                for (Operation ledger : page.getLedgerList()) {
+                    printOperation(ledger);
                 }
             }
-            System.out.println("}\n");   
+            System.out.println("}\n");
+        } catch (StatusRuntimeException e) {
+            System.out.println(e.getStatus().getDescription());
+        }
+    }
+
+    private static void printOperation(Operation ledger) {
+        if (ledger.getType() == OperationType.OP_CREATE_ACCOUNT) {
+            System.out.print("  ledger {\n    type: OP_CREATE_ACCOUNT\n    userId: " + ledger.getUserId() + "\n  }\n");
+        } else if (ledger.getType() == OperationType.OP_DELETE_ACCOUNT) {
+            System.out.print("  ledger {\n    type: OP_DELETE_ACCOUNT\n    userId: " + ledger.getUserId() + "\n  }\n");
+        } else if (ledger.getType() == OperationType.OP_TRANSFER_TO) {
+            System.out.print("  ledger {\n    type: OP_TRANSFER_TO\n    userId: " + ledger.getUserId() + "\n    destUserId: " + ledger.getDestUserId() + "\n    amount: " + ledger.getAmount() + "\n  }\n");
+        } else if (ledger.getType() == OperationType.OP_TRANSFER_OUT || ledger.getType() == OperationType.OP_TRANSFER_IN) {
+            System.out.print("  ledger {\n    type: " + ledger.getType() + "\n    userId: " + ledger.getUserId() + "\n    destUserId: " + ledger.getDestUserId() + "\n    amount: " + ledger.getAmount() + "\n    transferId: " + ledger.getTransferId() + "\n  }\n");
+        }
+    }
+
+    public void getMetrics(String qualifier) {
+        debug("Get Metrics");
+        try {
+            getMetricsResponse response = selectStub(qualifier).getMetrics(getMetricsRequest.getDefaultInstance());
+            System.out.println("OK\n" + response.getMetrics());
         } catch (StatusRuntimeException e) {
             System.out.println(e.getStatus().getDescription());
         }
@@ -132,9 +166,9 @@ public class AdminService implements AutoCloseable {
     }
 
     @Override
-	public final void close() {
-		primaryServerChannel.shutdown();
-        secondaryServerChannel.shutdown();
-        terciaryChannel.shutdown();
-	}
-}
\ No newline at end of file
+    public final void close() {
+        for (ManagedChannel channel : channels.values()) {
+            channel.shutdown();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package pt.tecnico.distledger.benchmarks;
+
+import pt.tecnico.distledger.server.domain.ServerState;
+import pt.tecnico.distledger.server.domain.operation.CreateAccountOp;
+import pt.tecnico.distledger.server.domain.operation.Operation;
+import pt.tecnico.distledger.server.domain.operation.TransferOp;
+import pt.tecnico.distledger.server.gossip.VectorClock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// states and ledgers shared by the benchmarks, built the same way the servers build them
+final class Ledgers {
+
+    static final int LOCAL_REPLICA = 0;
+
+    static final int REMOTE_REPLICA = 1;
+
+    private Ledgers() {
+    }
+
+    // replica that never gossips, so no naming server or peers are needed
+    static ServerState newServerState() {
+        return new ServerState("A", LOCAL_REPLICA, null);
+    }
+
+    // accounts "account0".."account<n-1>", each funded by the broker
+    static ServerState fundedServerState(int accounts, int coins) throws Exception {
+        ServerState state = newServerState();
+        VectorClock prevTS = new VectorClock(LOCAL_REPLICA + 1);
+        for (int i = 0; i < accounts; i++) {
+            prevTS = state.createAccount(account(i), prevTS);
+            prevTS = state.transferTo("broker", account(i), coins, prevTS);
+        }
+        return state;
+    }
+
+    static String account(int i) {
+        return "account" + i;
+    }
+
+    // causally chained ledger of the remote replica: a few creations followed by transfers among them
+    static List<Operation> remoteLedger(int operations, int accounts) {
+        List<Operation> ledger = new ArrayList<>(operations);
+        for (int i = 0; i < operations; i++) {
+            VectorClock prevTS = remoteTS(i);
+            VectorClock TS = remoteTS(i + 1);
+            if (i < accounts) {
+                ledger.add(new CreateAccountOp(account(i), prevTS, TS));
+            } else {
+                int from = i % accounts;
+                ledger.add(new TransferOp(account(from), account((from + 1) % accounts), 1, prevTS, TS));
+            }
+        }
+        return ledger;
+    }
+
+    static VectorClock remoteTS(int sequence) {
+        VectorClock clock = new VectorClock(REMOTE_REPLICA + 1);
+        clock.set(REMOTE_REPLICA, sequence);
+        return clock;
+    }
+}
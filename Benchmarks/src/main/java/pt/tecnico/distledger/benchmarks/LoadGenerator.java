@@ -0,0 +1,414 @@
+package pt.tecnico.distledger.benchmarks;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.StatusRuntimeException;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import pt.tecnico.distledger.common.grpc.AdmissionInterceptor;
+import pt.tecnico.distledger.common.grpc.ServerExecutors;
+import pt.tecnico.distledger.namingserver.domain.NamingServerState;
+import pt.tecnico.distledger.namingserver.grpc.NamingServerService;
+import pt.tecnico.distledger.namingserver.grpc.NamingServerServiceImpl;
+import pt.tecnico.distledger.namingserver.other.NamingServerUtilities;
+import pt.tecnico.distledger.server.domain.ServerState;
+import pt.tecnico.distledger.server.gossip.GossipScheduler;
+import pt.tecnico.distledger.server.gossip.VectorClock;
+import pt.tecnico.distledger.server.grpc.AdminServiceImpl;
+import pt.tecnico.distledger.server.grpc.CrossServerService;
+import pt.tecnico.distledger.server.grpc.CrossServerServiceImpl;
+import pt.tecnico.distledger.server.grpc.UserServiceImpl;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.BalanceRequest;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.CreateAccountRequest;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.TransferToRequest;
+import pt.ulisboa.tecnico.distledger.contract.user.UserServiceGrpc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * End-to-end load test: starts a naming server and a few replicas in this JVM, on local ports, and
+ * has concurrent clients send a mix of createAccount, transferTo and balance requests over gRPC
+ * while the replicas gossip. Each client writes to its own replica and reads from any of them,
+ * carrying its prevTS like the user client does, so a read sent to a replica that has not seen the
+ * client's writes yet waits for gossip. Those reads are reported apart as staleness.
+ * Configured with system properties, see the README.
+ */
+public final class LoadGenerator {
+
+    private static final boolean DEBUG_FLAG = (System.getProperty("debug") != null);
+    private static void debug(String debugMessage) { if (DEBUG_FLAG) System.err.println("LoadGenerator: " + debugMessage); }
+
+    private static final int REPLICAS = Integer.getInteger("load.replicas", 3);
+
+    private static final int CLIENTS = Integer.getInteger("load.clients", 16);
+
+    private static final long WARMUP_SECONDS = Long.getLong("load.warmup", 5);
+
+    private static final long DURATION_SECONDS = Long.getLong("load.duration", 30);
+
+    private static final long REPORT_SECONDS = Long.getLong("load.report", 5);
+
+    // percentages of createAccount, transferTo and balance requests
+    private static final String MIX = System.getProperty("load.mix", "10,60,30");
+
+    // the naming server listens on this port and the replicas on the ones after it
+    private static final int BASE_PORT = Integer.getInteger("load.port", 7000);
+
+    private static final long GOSSIP_INTERVAL_MILLIS = Long.getLong("gossip.interval", 1000);
+
+    private static final long GOSSIP_JITTER_MILLIS = Long.getLong("gossip.jitter", 0);
+
+    // latencies are recorded in microseconds, anything slower is counted as a minute
+    private static final long HIGHEST_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    private static final String HOST = "localhost";
+
+    // the servers are built the way the mains build them, so executors can be compared with -Dgrpc.executor=virtual
+    private static final ExecutorService SERVER_EXECUTOR = ServerExecutors.fromProperties();
+
+    private static final int MAX_IN_FLIGHT = Integer.getInteger("grpc.maxInFlight", 0);
+
+    private static final int MAX_PARKED_READS = Integer.getInteger("grpc.maxParkedReads", 0);
+
+    private enum Kind { CREATE, TRANSFER, BALANCE, STALE_BALANCE }
+
+    // attributes
+
+    private final int[] mix;
+
+    private final List<Replica> replicas = new ArrayList<>();
+
+    private final Recorder[] recorders = new Recorder[Kind.values().length];
+
+    private final Histogram[] totals = new Histogram[Kind.values().length];
+
+    private final LongAdder[] errors = new LongAdder[Kind.values().length];
+
+    private Server namingServer;
+
+    private volatile boolean running = true;
+
+    // constructors
+
+    private LoadGenerator(int[] mix) {
+        this.mix = mix;
+        for (Kind kind : Kind.values()) {
+            recorders[kind.ordinal()] = new Recorder(HIGHEST_LATENCY_MICROS, 3);
+            totals[kind.ordinal()] = new Histogram(HIGHEST_LATENCY_MICROS, 3);
+            errors[kind.ordinal()] = new LongAdder();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator(parseMix(MIX));
+        try {
+            generator.start();
+            generator.prepareAccounts();
+            generator.run();
+        } finally {
+            generator.stop();
+        }
+    }
+
+    private static int[] parseMix(String mix) {
+        String[] parts = mix.split(",");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("load.mix must be three percentages, e.g. 10,60,30");
+        }
+        int[] weights = new int[3];
+        int total = 0;
+        for (int i = 0; i < 3; i++) {
+            weights[i] = Integer.parseInt(parts[i].trim());
+            total += weights[i];
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("load.mix must have some weight");
+        }
+        return weights;
+    }
+
+    // setup
+
+    private void start() throws IOException {
+        namingServer = serverBuilder(BASE_PORT).addService(new NamingServerServiceImpl(new NamingServerState()))
+                                               .build()
+                                               .start();
+        for (int i = 0; i < REPLICAS; i++) {
+            replicas.add(new Replica(String.valueOf((char) ('A' + i)), BASE_PORT + 1 + i));
+        }
+        for (Replica replica : replicas) {
+            replica.startGossip();
+        }
+        System.out.printf("Started naming server on port %d and %d replicas, gossip every %dms, %s executor%n",
+                BASE_PORT, REPLICAS, GOSSIP_INTERVAL_MILLIS, SERVER_EXECUTOR != null ? "virtual thread" : "default");
+    }
+
+    private static ServerBuilder<?> serverBuilder(int port) {
+        ServerBuilder<?> builder = ServerBuilder.forPort(port);
+        if (SERVER_EXECUTOR != null) {
+            builder.executor(SERVER_EXECUTOR);
+        }
+        if (MAX_IN_FLIGHT > 0 || MAX_PARKED_READS > 0) {
+            builder.intercept(new AdmissionInterceptor(MAX_IN_FLIGHT,
+                    Collections.singleton(UserServiceGrpc.getBalanceMethod().getFullMethodName()), MAX_PARKED_READS));
+        }
+        return builder;
+    }
+
+    // every client owns an account on its replica and gets an even share of the broker's coins
+    private void prepareAccounts() {
+        for (int client = 0; client < CLIENTS; client++) {
+            homeOf(client).stub.createAccount(CreateAccountRequest.newBuilder().setUserId(account(client)).build());
+        }
+        gossipAll();
+        int share = Math.max(1, 1000 / CLIENTS);
+        Replica broker = replicas.get(0);
+        for (int client = 0; client < CLIENTS; client++) {
+            try {
+                broker.stub.transferTo(TransferToRequest.newBuilder()
+                                                        .setAccountFrom("broker")
+                                                        .setAccountTo(account(client))
+                                                        .setAmount(share)
+                                                        .build());
+            } catch (StatusRuntimeException e) {
+                debug("could not fund " + account(client) + ": " + e.getStatus().getDescription());
+            }
+        }
+        gossipAll();
+    }
+
+    private void gossipAll() {
+        for (Replica replica : replicas) {
+            replica.state.gossip();
+        }
+    }
+
+    // load
+
+    private void run() throws InterruptedException {
+        List<Thread> clients = new ArrayList<>();
+        for (int client = 0; client < CLIENTS; client++) {
+            final int id = client;
+            Thread thread = new Thread(() -> runClient(id), "load-client-" + id);
+            thread.setDaemon(true);
+            clients.add(thread);
+            thread.start();
+        }
+        System.out.printf("%d clients, mix create/transfer/balance %d/%d/%d, warming up for %ds%n",
+                CLIENTS, mix[0], mix[1], mix[2], WARMUP_SECONDS);
+
+        TimeUnit.SECONDS.sleep(WARMUP_SECONDS);
+        for (Kind kind : Kind.values()) {
+            recorders[kind.ordinal()].reset();
+            errors[kind.ordinal()].reset();
+        }
+
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(DURATION_SECONDS);
+        long elapsed = 0;
+        while (System.nanoTime() < end) {
+            long wait = Math.min(TimeUnit.SECONDS.toNanos(Math.max(1, REPORT_SECONDS)), end - System.nanoTime());
+            TimeUnit.NANOSECONDS.sleep(Math.max(0, wait));
+            long now = System.nanoTime();
+            report(TimeUnit.NANOSECONDS.toSeconds(now - start), now - start - elapsed);
+            elapsed = now - start;
+        }
+        // requests still in flight are not counted
+        running = false;
+        for (Thread client : clients) {
+            client.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        summary(elapsed);
+    }
+
+    private void runClient(int id) {
+        Replica home = homeOf(id);
+        String account = account(id);
+        VectorClock prevTS = new VectorClock(0);
+        int created = 0;
+        int total = mix[0] + mix[1] + mix[2];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (running) {
+            int pick = random.nextInt(total);
+            Kind kind;
+            long start = System.nanoTime();
+            try {
+                if (pick < mix[0]) {
+                    kind = Kind.CREATE;
+                    prevTS.merge(VectorClock.fromList(home.stub.createAccount(CreateAccountRequest.newBuilder()
+                            .setUserId(account + "-" + created++)
+                            .addAllPrevTS(prevTS.toList())
+                            .build()).getTSList()));
+                } else if (pick < mix[0] + mix[1]) {
+                    kind = Kind.TRANSFER;
+                    prevTS.merge(VectorClock.fromList(home.stub.transferTo(TransferToRequest.newBuilder()
+                            .setAccountFrom(account)
+                            .setAccountTo(account(otherClient(id, random)))
+                            .setAmount(1)
+                            .addAllPrevTS(prevTS.toList())
+                            .build()).getTSList()));
+                } else {
+                    Replica target = replicas.get(random.nextInt(replicas.size()));
+                    // a replica behind the client holds the read until gossip brings the missing updates
+                    kind = prevTS.lessOrEqual(target.state.getValueTS()) ? Kind.BALANCE : Kind.STALE_BALANCE;
+                    prevTS.merge(VectorClock.fromList(target.stub.balance(BalanceRequest.newBuilder()
+                            .setUserId(account)
+                            .addAllPrevTS(prevTS.toList())
+                            .build()).getValueTSList()));
+                }
+            } catch (StatusRuntimeException e) {
+                // e.g. a client that gave all its coins away, it keeps going and receives more
+                errors[kindOf(pick).ordinal()].increment();
+                debug(account + ": " + e.getStatus().getCode() + " " + e.getStatus().getDescription());
+                continue;
+            }
+            long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+            recorders[kind.ordinal()].recordValue(Math.min(micros, HIGHEST_LATENCY_MICROS));
+        }
+    }
+
+    private Kind kindOf(int pick) {
+        return pick < mix[0] ? Kind.CREATE : pick < mix[0] + mix[1] ? Kind.TRANSFER : Kind.BALANCE;
+    }
+
+    private static int otherClient(int id, ThreadLocalRandom random) {
+        if (CLIENTS < 2) {
+            return id;
+        }
+        int other = random.nextInt(CLIENTS - 1);
+        return other >= id ? other + 1 : other;
+    }
+
+    private Replica homeOf(int client) {
+        return replicas.get(client % replicas.size());
+    }
+
+    private static String account(int client) {
+        return "load" + client;
+    }
+
+    // reporting
+
+    private void report(long second, long intervalNanos) {
+        long operations = 0;
+        Histogram interval = new Histogram(HIGHEST_LATENCY_MICROS, 3);
+        for (Kind kind : Kind.values()) {
+            Histogram histogram = recorders[kind.ordinal()].getIntervalHistogram();
+            totals[kind.ordinal()].add(histogram);
+            interval.add(histogram);
+            operations += histogram.getTotalCount();
+        }
+        System.out.printf("%5ds %10.0f ops/s   p50 %8.3fms   p99 %8.3fms   p999 %8.3fms%n", second,
+                operations / seconds(intervalNanos), millis(interval.getValueAtPercentile(50)),
+                millis(interval.getValueAtPercentile(99)), millis(interval.getValueAtPercentile(99.9)));
+    }
+
+    private void summary(long elapsedNanos) {
+        System.out.println();
+        System.out.printf("%-14s %10s %8s %10s %10s %10s %10s %10s%n", "operation", "count", "errors", "ops/s",
+                "p50 ms", "p99 ms", "p999 ms", "max ms");
+        long operations = 0;
+        for (Kind kind : Kind.values()) {
+            Histogram histogram = totals[kind.ordinal()];
+            operations += histogram.getTotalCount();
+            System.out.printf("%-14s %10d %8d %10.0f %10.3f %10.3f %10.3f %10.3f%n", kind.name().toLowerCase(),
+                    histogram.getTotalCount(), errors[kind.ordinal()].sum(),
+                    histogram.getTotalCount() / seconds(elapsedNanos), millis(histogram.getValueAtPercentile(50)),
+                    millis(histogram.getValueAtPercentile(99)), millis(histogram.getValueAtPercentile(99.9)),
+                    millis(histogram.getMaxValue()));
+        }
+        System.out.printf("%ntotal %d operations in %.1fs, %.0f ops/s%n", operations, seconds(elapsedNanos),
+                operations / seconds(elapsedNanos));
+        long reads = totals[Kind.BALANCE.ordinal()].getTotalCount() + totals[Kind.STALE_BALANCE.ordinal()].getTotalCount();
+        if (reads > 0) {
+            System.out.printf("%.1f%% of the reads waited for the replica to catch up%n",
+                    100.0 * totals[Kind.STALE_BALANCE.ordinal()].getTotalCount() / reads);
+        }
+    }
+
+    private static double seconds(long nanos) {
+        return Math.max(nanos, 1) / 1e9;
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+
+    // shutdown
+
+    private void stop() throws InterruptedException {
+        for (Replica replica : replicas) {
+            replica.close();
+        }
+        if (namingServer != null) {
+            namingServer.shutdown();
+            namingServer.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        if (SERVER_EXECUTOR != null) {
+            SERVER_EXECUTOR.shutdown();
+        }
+    }
+
+    // a replica wired the same way ServerMain wires it, plus the channel the clients reach it through
+    private static final class Replica implements AutoCloseable {
+
+        private final String address;
+
+        private final NamingServerService namingServerService;
+
+        private final CrossServerService crossServerService;
+
+        private final ServerState state;
+
+        private final GossipScheduler gossipScheduler;
+
+        private final Server server;
+
+        private final ManagedChannel channel;
+
+        private final UserServiceGrpc.UserServiceBlockingStub stub;
+
+        private Replica(String qualifier, int port) throws IOException {
+            this.address = HOST + ":" + port;
+            this.namingServerService = new NamingServerService(HOST, BASE_PORT);
+            int replicaId = namingServerService.register(qualifier, address);
+            namingServerService.watch(NamingServerUtilities.DISTLEDGER_SERVICE);
+            this.crossServerService = new CrossServerService(address, NamingServerUtilities.DISTLEDGER_SERVICE, namingServerService);
+            this.state = new ServerState(qualifier, replicaId, crossServerService);
+            this.gossipScheduler = new GossipScheduler(state, GOSSIP_INTERVAL_MILLIS, GOSSIP_JITTER_MILLIS);
+            this.server = serverBuilder(port).addService(new UserServiceImpl(state))
+                                             .addService(new AdminServiceImpl(state))
+                                             .addService(new CrossServerServiceImpl(state))
+                                             .build()
+                                             .start();
+            // one channel shared by every client, gRPC multiplexes their calls
+            this.channel = ManagedChannelBuilder.forAddress(HOST, port).usePlaintext().build();
+            this.stub = UserServiceGrpc.newBlockingStub(channel);
+            debug("replica " + qualifier + " (" + replicaId + ") listening on " + address);
+        }
+
+        private void startGossip() {
+            gossipScheduler.start();
+        }
+
+        @Override
+        public void close() throws InterruptedException {
+            channel.shutdown();
+            gossipScheduler.close();
+            crossServerService.close();
+            namingServerService.delete(address);
+            namingServerService.close();
+            server.shutdown();
+            server.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+}
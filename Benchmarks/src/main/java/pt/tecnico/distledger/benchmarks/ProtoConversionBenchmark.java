@@ -0,0 +1,70 @@
+package pt.tecnico.distledger.benchmarks;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pt.tecnico.distledger.server.domain.operation.Operation;
+import pt.tecnico.distledger.server.grpc.ServerGrpcUtilities;
+import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions;
+import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions.LedgerState;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// conversion between domain operations and their messages, as done per gossip chunk and log record
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProtoConversionBenchmark {
+
+    // default gossip.chunkSize
+    @Param({"500"})
+    public int chunkSize;
+
+    private List<Operation> operations;
+
+    private byte[] serializedChunk;
+
+    @Setup
+    public void setUp() {
+        operations = Ledgers.remoteLedger(chunkSize, 10);
+        serializedChunk = toChunk().toByteArray();
+    }
+
+    @Benchmark
+    public LedgerState toChunk() {
+        LedgerState.Builder chunk = LedgerState.newBuilder();
+        for (Operation operation : operations) {
+            chunk.addLedger(ServerGrpcUtilities.buildDistLedgerCommonDefinitionsOperation(operation));
+        }
+        return chunk.build();
+    }
+
+    @Benchmark
+    public byte[] toChunkSerialized() {
+        return toChunk().toByteArray();
+    }
+
+    @Benchmark
+    public List<Operation> fromChunkSerialized() throws InvalidProtocolBufferException {
+        LedgerState chunk = LedgerState.parseFrom(serializedChunk);
+        List<Operation> ledger = new ArrayList<>(chunk.getLedgerCount());
+        for (DistLedgerCommonDefinitions.Operation operation : chunk.getLedgerList()) {
+            ledger.add(ServerGrpcUtilities.buildOperation(operation));
+        }
+        return ledger;
+    }
+}
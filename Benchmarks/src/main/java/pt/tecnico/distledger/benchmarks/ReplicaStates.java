@@ -0,0 +1,67 @@
+package pt.tecnico.distledger.benchmarks;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import pt.tecnico.distledger.server.domain.ServerState;
+import pt.tecnico.distledger.server.gossip.VectorClock;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// JMH states of the benchmarks that drive a single replica, public so the generated code can build them
+public final class ReplicaStates {
+
+    private ReplicaStates() {
+    }
+
+    @State(Scope.Benchmark)
+    public static class Replica {
+
+        @Param({"64"})
+        public int accounts;
+
+        ServerState state;
+
+        // every thread takes its own pair of accounts, so transfers never run out of coins
+        final AtomicInteger nextPair = new AtomicInteger();
+
+        final AtomicInteger nextAccount = new AtomicInteger();
+
+        @Setup(Level.Iteration)
+        public void setUp() throws Exception {
+            state = Ledgers.fundedServerState(accounts, 10);
+            nextPair.set(0);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+
+        String first;
+
+        String second;
+
+        boolean forward = true;
+
+        // writes that all start from the same prevTS are stable right away
+        final VectorClock prevTS = new VectorClock(Ledgers.LOCAL_REPLICA + 1);
+
+        @Setup(Level.Iteration)
+        public void setUp(Replica replica) {
+            int pair = replica.nextPair.getAndIncrement() % (replica.accounts / 2);
+            first = Ledgers.account(2 * pair);
+            second = Ledgers.account(2 * pair + 1);
+            forward = true;
+        }
+
+        // each transfer is undone by the next one, so coins never run out
+        VectorClock transferBack(ServerState state, String from, String to) throws Exception {
+            forward = !forward;
+            return forward
+                    ? state.transferTo(from, to, 1, prevTS)
+                    : state.transferTo(to, from, 1, prevTS);
+        }
+    }
+}
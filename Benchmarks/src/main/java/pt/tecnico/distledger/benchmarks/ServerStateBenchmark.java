@@ -0,0 +1,59 @@
+package pt.tecnico.distledger.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import pt.tecnico.distledger.benchmarks.ReplicaStates.Client;
+import pt.tecnico.distledger.benchmarks.ReplicaStates.Replica;
+import pt.tecnico.distledger.server.domain.Balance;
+import pt.tecnico.distledger.server.gossip.VectorClock;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Client-facing operations of a single replica. Every transfer and creation grows the ledger, so
+ * the state is rebuilt for each iteration and iterations are kept short.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ServerStateBenchmark {
+
+    // transfers back and forth between the thread's two accounts
+    @Benchmark
+    @Threads(4)
+    public VectorClock transferTo(Replica replica, Client client) throws Exception {
+        return client.transferBack(replica.state, client.first, client.second);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public VectorClock createAccount(Replica replica, Client client) throws Exception {
+        return replica.state.createAccount("new" + replica.nextAccount.getAndIncrement(), client.prevTS);
+    }
+
+    // balance reads competing with a writer for the state lock
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public Balance balance(Replica replica, Client client) throws Exception {
+        return replica.state.balance(client.first, client.prevTS).get();
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public VectorClock transfer(Replica replica, Client client) throws Exception {
+        return transferTo(replica, client);
+    }
+}
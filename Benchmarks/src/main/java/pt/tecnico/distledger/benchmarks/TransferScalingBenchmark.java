@@ -0,0 +1,59 @@
+package pt.tecnico.distledger.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import pt.tecnico.distledger.benchmarks.ReplicaStates.Client;
+import pt.tecnico.distledger.benchmarks.ReplicaStates.Replica;
+import pt.tecnico.distledger.server.gossip.VectorClock;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Throughput of stable transfers as threads are added. With disjoint accounts every thread locks
+ * its own stripes and the total should grow with the thread count; the contended variant has all
+ * threads move coins between the same two accounts and shows the serialized baseline.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class TransferScalingBenchmark {
+
+    @Benchmark
+    @Threads(1)
+    public VectorClock disjoint1(Replica replica, Client client) throws Exception {
+        return client.transferBack(replica.state, client.first, client.second);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public VectorClock disjoint2(Replica replica, Client client) throws Exception {
+        return client.transferBack(replica.state, client.first, client.second);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public VectorClock disjoint4(Replica replica, Client client) throws Exception {
+        return client.transferBack(replica.state, client.first, client.second);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public VectorClock disjoint8(Replica replica, Client client) throws Exception {
+        return client.transferBack(replica.state, client.first, client.second);
+    }
+
+    // every thread on the first two accounts
+    @Benchmark
+    @Threads(4)
+    public VectorClock contended4(Replica replica, Client client) throws Exception {
+        return client.transferBack(replica.state, Ledgers.account(0), Ledgers.account(1));
+    }
+}
@@ -0,0 +1,59 @@
+package pt.tecnico.distledger.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pt.tecnico.distledger.server.domain.ServerState;
+import pt.tecnico.distledger.server.domain.operation.Operation;
+import pt.tecnico.distledger.server.gossip.VectorClock;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Merging a gossiped ledger into a replica that has never seen it: the duplicate filter, the
+ * scheduler and the execution of every operation, in a single update call.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class UpdateBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int operations;
+
+    private List<Operation> ledger;
+
+    private VectorClock replicaTS;
+
+    private ServerState state;
+
+    @Setup(Level.Trial)
+    public void buildLedger() {
+        ledger = Ledgers.remoteLedger(operations, 100);
+        replicaTS = Ledgers.remoteTS(operations);
+    }
+
+    @Setup(Level.Iteration)
+    public void newReplica() {
+        state = Ledgers.newServerState();
+    }
+
+    @Benchmark
+    public ServerState update() throws Exception {
+        state.update(ledger, replicaTS);
+        return state;
+    }
+}
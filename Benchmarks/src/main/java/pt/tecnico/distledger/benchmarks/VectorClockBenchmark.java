@@ -0,0 +1,84 @@
+package pt.tecnico.distledger.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pt.tecnico.distledger.server.gossip.VectorClock;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// timestamp comparisons done for every operation that is gossiped, scheduled or indexed
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class VectorClockBenchmark {
+
+    @Param({"3", "16"})
+    public int replicas;
+
+    private VectorClock older;
+
+    private VectorClock newer;
+
+    private VectorClock concurrent;
+
+    private List<Integer> asList;
+
+    @Setup
+    public void setUp() {
+        older = new VectorClock(replicas);
+        newer = new VectorClock(replicas);
+        concurrent = new VectorClock(replicas);
+        for (int i = 0; i < replicas; i++) {
+            older.set(i, 100 + i);
+            newer.set(i, 100 + i + 1);
+            concurrent.set(i, i % 2 == 0 ? 200 : 0);
+        }
+        asList = newer.toList();
+    }
+
+    @Benchmark
+    public boolean lessOrEqual() {
+        return older.lessOrEqual(newer);
+    }
+
+    @Benchmark
+    public boolean lessOrEqualConcurrent() {
+        return concurrent.lessOrEqual(newer);
+    }
+
+    @Benchmark
+    public int compareEntries() {
+        return concurrent.compareEntries(newer);
+    }
+
+    @Benchmark
+    public VectorClock merge() {
+        VectorClock clock = older.copy();
+        clock.merge(concurrent);
+        return clock;
+    }
+
+    @Benchmark
+    public int hashCodeAndEquals() {
+        return older.equals(newer) ? 0 : older.hashCode();
+    }
+
+    // the conversion every gossip and user request goes through
+    @Benchmark
+    public VectorClock fromList() {
+        return VectorClock.fromList(asList);
+    }
+}
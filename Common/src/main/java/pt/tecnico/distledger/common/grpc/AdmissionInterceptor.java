@@ -0,0 +1,96 @@
+package pt.tecnico.distledger.common.grpc;
+
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor.MethodType;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * Bounds the unary calls a server handles at once; one arriving when all permits are taken is
+ * failed right away with RESOURCE_EXHAUSTED instead of queueing behind the others. Streams
+ * (sessions, gossip, watches) live as long as their peers and are not counted. Calls that may park
+ * without a thread until the state catches up (balance reads) have their own limit, so those
+ * waiting do not take the permits of the calls that need a thread. A limit of 0 leaves its calls
+ * unlimited.
+ */
+public class AdmissionInterceptor implements ServerInterceptor {
+
+    // null when the other unary calls are not limited
+    private final Semaphore permits;
+
+    private final Set<String> parkingMethods;
+
+    // null when the parking calls are not limited
+    private final Semaphore parkingPermits;
+
+    public AdmissionInterceptor(int maxInFlight) {
+        this(maxInFlight, Collections.emptySet(), 0);
+    }
+
+    public AdmissionInterceptor(int maxInFlight, Set<String> parkingMethods, int maxParking) {
+        this.permits = maxInFlight > 0 ? new Semaphore(maxInFlight) : null;
+        this.parkingMethods = parkingMethods;
+        this.parkingPermits = maxParking > 0 ? new Semaphore(maxParking) : null;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+            ServerCallHandler<ReqT, RespT> next) {
+        if (call.getMethodDescriptor().getType() != MethodType.UNARY) {
+            return next.startCall(call, headers);
+        }
+        Semaphore permits = parkingMethods.contains(call.getMethodDescriptor().getFullMethodName())
+                ? parkingPermits : this.permits;
+        if (permits == null) {
+            return next.startCall(call, headers);
+        }
+        if (!permits.tryAcquire()) {
+            call.close(Status.RESOURCE_EXHAUSTED.withDescription("Server is busy, try again later.\n"), new Metadata());
+            return new ServerCall.Listener<ReqT>() { };
+        }
+        // released once, whether the call is closed by its handler or cancelled by the client
+        AtomicBoolean released = new AtomicBoolean(false);
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true)) {
+                permits.release();
+            }
+        };
+        ServerCall.Listener<ReqT> listener;
+        try {
+            listener = next.startCall(new ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT>(call) {
+
+                @Override
+                public void close(Status status, Metadata trailers) {
+                    release.run();
+                    super.close(status, trailers);
+                }
+            }, headers);
+        } catch (RuntimeException e) {
+            release.run();
+            throw e;
+        }
+        return new ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT>(listener) {
+
+            @Override
+            public void onCancel() {
+                release.run();
+                super.onCancel();
+            }
+
+            @Override
+            public void onComplete() {
+                release.run();
+                super.onComplete();
+            }
+        };
+    }
+}
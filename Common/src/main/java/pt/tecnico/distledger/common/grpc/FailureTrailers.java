@@ -0,0 +1,22 @@
+package pt.tecnico.distledger.common.grpc;
+
+import io.grpc.Metadata;
+
+/*
+ * Trailers a server adds to a failed call to tell apart failures that share a status code. A
+ * balance read that timed out waiting for gossip answers UNAVAILABLE, like a replica that is
+ * not active, but carries STALE_READ so clients do not take the replica for one that is down.
+ */
+public final class FailureTrailers {
+
+    public static final Metadata.Key<String> STALE_READ = Metadata.Key.of("distledger-stale-read", Metadata.ASCII_STRING_MARSHALLER);
+
+    private FailureTrailers() {
+    }
+
+    public static Metadata staleRead() {
+        Metadata trailers = new Metadata();
+        trailers.put(STALE_READ, "true");
+        return trailers;
+    }
+}
@@ -0,0 +1,35 @@
+package pt.tecnico.distledger.common.grpc;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * Executor the gRPC servers run their handlers on, chosen with grpc.executor: "default" keeps the
+ * cached thread pool of gRPC, "virtual" starts a virtual thread per call. Virtual threads need a
+ * Java 21 runtime; the project still targets Java 11, so the factory is looked up by reflection
+ * and the default pool is kept when it is missing.
+ */
+public final class ServerExecutors {
+
+    private ServerExecutors() {
+    }
+
+    // null when the servers should keep the executor of gRPC
+    public static ExecutorService fromProperties() {
+        String mode = System.getProperty("grpc.executor", "default");
+        if (mode.equals("default")) {
+            return null;
+        } else if (!mode.equals("virtual")) {
+            throw new IllegalArgumentException("unknown grpc.executor '" + mode + "', expected default or virtual");
+        }
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            System.err.println("Virtual threads are not available on Java " + Runtime.version().feature()
+                    + ", using the default executor.");
+            return null;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package pt.tecnico.distledger.common.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public final class Counter implements MetricsRegistry.Metric {
+
+    private final LongAdder value = new LongAdder();
+
+    Counter() {
+    }
+
+    public void inc() {
+        value.increment();
+    }
+
+    public void add(long amount) {
+        value.add(amount);
+    }
+
+    public long get() {
+        return value.sum();
+    }
+
+    @Override
+    public void write(StringBuilder out, String name, String labels) {
+        out.append(name).append(labels).append(' ').append(get()).append('\n');
+    }
+}
@@ -0,0 +1,60 @@
+package pt.tecnico.distledger.common.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+// durations in fixed buckets from 100us to 10s, recorded in nanoseconds and written in seconds
+public final class Histogram implements MetricsRegistry.Metric {
+
+    private static final double[] BUCKETS_SECONDS = { 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025,
+            0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10 };
+
+    private static final long[] BUCKETS_NANOS = Arrays.stream(BUCKETS_SECONDS).mapToLong(seconds -> (long) (seconds * 1e9)).toArray();
+
+    private final String[] labels;
+
+    // observations per bucket, the last one holds those above every bound
+    private final LongAdder[] counts = new LongAdder[BUCKETS_NANOS.length + 1];
+
+    private final LongAdder sumNanos = new LongAdder();
+
+    Histogram(String[] labels) {
+        this.labels = labels;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public void observeNanos(long nanos) {
+        int bucket = 0;
+        while (bucket < BUCKETS_NANOS.length && nanos > BUCKETS_NANOS[bucket]) {
+            bucket++;
+        }
+        counts[bucket].increment();
+        sumNanos.add(nanos);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : counts) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    @Override
+    public void write(StringBuilder out, String name, String labelsText) {
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i].sum();
+            String bound = i < BUCKETS_SECONDS.length ? MetricsRegistry.format(BUCKETS_SECONDS[i]) : "+Inf";
+            String[] bucketLabels = Arrays.copyOf(labels, labels.length + 2);
+            bucketLabels[labels.length] = "le";
+            bucketLabels[labels.length + 1] = bound;
+            out.append(name).append("_bucket").append(MetricsRegistry.labelsText(bucketLabels)).append(' ')
+               .append(cumulative).append('\n');
+        }
+        out.append(name).append("_sum").append(labelsText).append(' ').append(sumNanos.sum() / 1e9).append('\n');
+        out.append(name).append("_count").append(labelsText).append(' ').append(cumulative).append('\n');
+    }
+}
@@ -0,0 +1,74 @@
+package pt.tecnico.distledger.common.metrics;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * ReentrantReadWriteLock that records how long threads wait to acquire it. Acquisitions that get
+ * the lock at once are not timed; the fast path is only taken while nobody is queued, so readers
+ * never overtake a waiting writer.
+ */
+public class MeteredReadWriteLock extends ReentrantReadWriteLock {
+
+    private final ReadLock readLock;
+
+    private final WriteLock writeLock;
+
+    public MeteredReadWriteLock(Histogram readWait, Histogram writeWait) {
+        this.readLock = new MeteredReadLock(this, readWait);
+        this.writeLock = new MeteredWriteLock(this, writeWait);
+    }
+
+    @Override
+    public ReadLock readLock() {
+        return readLock;
+    }
+
+    @Override
+    public WriteLock writeLock() {
+        return writeLock;
+    }
+
+    private static final class MeteredReadLock extends ReadLock {
+
+        private final ReentrantReadWriteLock lock;
+
+        private final Histogram wait;
+
+        private MeteredReadLock(ReentrantReadWriteLock lock, Histogram wait) {
+            super(lock);
+            this.lock = lock;
+            this.wait = wait;
+        }
+
+        @Override
+        public void lock() {
+            if (lock.hasQueuedThreads() || !tryLock()) {
+                long start = System.nanoTime();
+                super.lock();
+                wait.observeNanos(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static final class MeteredWriteLock extends WriteLock {
+
+        private final ReentrantReadWriteLock lock;
+
+        private final Histogram wait;
+
+        private MeteredWriteLock(ReentrantReadWriteLock lock, Histogram wait) {
+            super(lock);
+            this.lock = lock;
+            this.wait = wait;
+        }
+
+        @Override
+        public void lock() {
+            if (lock.hasQueuedThreads() || !tryLock()) {
+                long start = System.nanoTime();
+                super.lock();
+                wait.observeNanos(System.nanoTime() - start);
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package pt.tecnico.distledger.common.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+// serves GET /metrics in the Prometheus text format, for scrapers
+public class MetricsHttpServer implements AutoCloseable {
+
+    private final HttpServer server;
+
+    public MetricsHttpServer(int port, MetricsRegistry registry) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/metrics", exchange -> {
+            try {
+                if (!exchange.getRequestMethod().equals("GET")) {
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+                byte[] body = registry.scrape().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                // -1 announces an empty body, 0 would mean a chunked one
+                exchange.sendResponseHeaders(200, body.length > 0 ? body.length : -1);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,42 @@
+package pt.tecnico.distledger.common.metrics;
+
+import io.grpc.ForwardingServerCall;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// times every call a server handles, from its headers until the server closes it, by method and status
+public class MetricsInterceptor implements ServerInterceptor {
+
+    private final MetricsRegistry registry;
+
+    private final Map<String, Histogram> latencies = new ConcurrentHashMap<>();
+
+    public MetricsInterceptor(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+            ServerCallHandler<ReqT, RespT> next) {
+        String method = call.getMethodDescriptor().getFullMethodName();
+        long start = System.nanoTime();
+        return next.startCall(new ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT>(call) {
+
+            @Override
+            public void close(Status status, Metadata trailers) {
+                latencies.computeIfAbsent(method, key -> registry.histogram("grpc_server_handling_seconds",
+                        "Time taken to handle a call, streams included.", "method", key))
+                         .observeNanos(System.nanoTime() - start);
+                registry.counter("grpc_server_handled_total", "Calls completed, by status code.", "method", method,
+                        "code", status.getCode().name()).inc();
+                super.close(status, trailers);
+            }
+        }, headers);
+    }
+}
@@ -0,0 +1,124 @@
+package pt.tecnico.distledger.common.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+
+/*
+ * Metrics of this process, written out in the Prometheus text format. A metric is identified by
+ * its name and labels (given as name/value pairs) and created the first time it is asked for, so
+ * asking again returns the same instance.
+ */
+public final class MetricsRegistry {
+
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    // metrics
+
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, "counter").metrics.computeIfAbsent(labelsText(labels), key -> new Counter());
+    }
+
+    public Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) family(name, help, "histogram").metrics.computeIfAbsent(labelsText(labels),
+                key -> new Histogram(labels));
+    }
+
+    // the value is read on every scrape, registering the same gauge again replaces it
+    public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, "gauge").metrics.put(labelsText(labels), new Gauge(value));
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, key -> new Family(help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("metric '" + name + "' is a " + family.type);
+        }
+        return family;
+    }
+
+    // exposition
+
+    public String scrape() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Metric> metric : family.metrics.entrySet()) {
+                metric.getValue().write(out, name, metric.getKey());
+            }
+        }
+        return out.toString();
+    }
+
+    static String labelsText(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("labels must be name/value pairs");
+        }
+        if (labels.length == 0) {
+            return "";
+        }
+        StringBuilder text = new StringBuilder("{");
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                text.append(',');
+            }
+            text.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+        }
+        return text.append('}').toString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    static String format(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    // metric kinds
+
+    interface Metric {
+        void write(StringBuilder out, String name, String labels);
+    }
+
+    private static final class Family {
+
+        private final String help;
+
+        private final String type;
+
+        private final Map<String, Metric> metrics = new ConcurrentHashMap<>();
+
+        private Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private static final class Gauge implements Metric {
+
+        private final DoubleSupplier value;
+
+        private Gauge(DoubleSupplier value) {
+            this.value = value;
+        }
+
+        @Override
+        public void write(StringBuilder out, String name, String labels) {
+            out.append(name).append(labels).append(' ').append(format(value.getAsDouble())).append('\n');
+        }
+    }
+}
@@ -1,16 +1,30 @@
 package pt.tecnico.distledger.server;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import io.grpc.BindableService;
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
+import pt.tecnico.distledger.common.grpc.AdmissionInterceptor;
+import pt.tecnico.distledger.common.grpc.ServerExecutors;
+import pt.tecnico.distledger.common.metrics.MetricsHttpServer;
+import pt.tecnico.distledger.common.metrics.MetricsInterceptor;
+import pt.tecnico.distledger.common.metrics.MetricsRegistry;
 import pt.tecnico.distledger.namingserver.grpc.NamingServerService;
+import pt.tecnico.distledger.namingserver.other.ShardMap;
 import pt.tecnico.distledger.server.domain.ServerState;
-import pt.tecnico.distledger.server.gossip.GossipUtilities;
+import pt.tecnico.distledger.server.gossip.GossipScheduler;
 import pt.tecnico.distledger.server.grpc.AdminServiceImpl;
 import pt.tecnico.distledger.server.grpc.CrossServerService;
 import pt.tecnico.distledger.server.grpc.CrossServerServiceImpl;
+import pt.tecnico.distledger.server.grpc.RequestBatcher;
+import pt.tecnico.distledger.server.grpc.ShardService;
 import pt.tecnico.distledger.server.grpc.UserServiceImpl;
+import pt.tecnico.distledger.server.persistence.SnapshotStore;
+import pt.ulisboa.tecnico.distledger.contract.user.UserServiceGrpc;
 
 public class ServerMain {
     
@@ -31,7 +45,6 @@ public class ServerMain {
         }
 
         final String qualifier = args[1];
-        GossipUtilities.set_TS_INDEX(qualifier);
         
         final String host = "localhost";
         final int port = Integer.parseInt(args[0]);
@@ -39,22 +52,99 @@ public class ServerMain {
         
         final int namingServerPort = 5001;
         final NamingServerService namingServerService = new NamingServerService(host, namingServerPort);
-        namingServerService.register(args[1], address);
 
-        ServerState serverState = new ServerState(qualifier, new CrossServerService(address, namingServerService));
+        // every account belongs to a single shard unless the count is given, e.g. -Dshard.count=2 -Dshard.id=1
+        final ShardMap shards = ShardMap.fromProperties();
+        final int shardId = Integer.getInteger("shard.id", 0);
+        if (shardId < 0 || shardId >= shards.getCount()) {
+            System.err.println("Shard id must be between 0 and " + (shards.getCount() - 1) + "!");
+            return;
+        }
+        final String service = shards.service(shardId);
+
+        // the ledger only lives in memory unless a log directory is given, e.g. -Dwal.dir=wal
+        final String walDir = System.getProperty("wal.dir");
+        final SnapshotStore snapshotStore = walDir != null
+                ? new SnapshotStore(Path.of(walDir), shards.getCount() == 1 ? qualifier : qualifier + "@" + shardId) : null;
+
+        // a recovering replica keeps the position its logged timestamps were written with
+        final int replicaId = namingServerService.register(service, qualifier, address,
+                snapshotStore != null ? snapshotStore.readReplicaId() : -1);
+        debug("registered as replica " + replicaId + " of service '" + service + "'");
+        namingServerService.watch(service);
+
+        final CrossServerService crossServerService = new CrossServerService(address, service, namingServerService);
+        final ShardService shardService = shards.getCount() > 1
+                ? new ShardService(shards, namingServerService, Long.getLong("shard.retryInterval", 1000), qualifier) : null;
+        ServerState serverState = new ServerState(qualifier, replicaId, crossServerService);
+        if (snapshotStore != null) {
+            serverState.openPersistence(snapshotStore, Long.getLong("wal.syncInterval", 5), Integer.getInteger("wal.syncBatch", 128));
+        }
+        if (shardService != null) {
+            serverState.enableSharding(shardService, shardId);
+        }
+
+        // automatic gossip is off unless an interval is given, e.g. -Dgossip.interval=5000 -Dgossip.jitter=1000
+        final GossipScheduler gossipScheduler = new GossipScheduler(serverState,
+                Long.getLong("gossip.interval", 0), Long.getLong("gossip.jitter", 0));
         final BindableService adminImpl = new AdminServiceImpl(serverState);
-		final BindableService userImpl = new UserServiceImpl(serverState);
+        // calls are applied one by one unless a batch size is given, e.g. -Dbatch.maxSize=128 -Dbatch.lingerMicros=200
+        final int batchMaxSize = Integer.getInteger("batch.maxSize", 0);
+        final RequestBatcher batcher = batchMaxSize > 1
+                ? new RequestBatcher(serverState, batchMaxSize, Long.getLong("batch.lingerMicros", 200)) : null;
+		final BindableService userImpl = new UserServiceImpl(serverState, batcher);
         final BindableService crossServerImpl = new CrossServerServiceImpl(serverState);
-        Server server = ServerBuilder.forPort(port).addService(userImpl).addService(adminImpl).addService(crossServerImpl).build();
+        // handlers run on the gRPC pool and calls are not limited unless asked, e.g. -Dgrpc.executor=virtual -Dgrpc.maxInFlight=1000
+        final ExecutorService executor = ServerExecutors.fromProperties();
+        final int maxInFlight = Integer.getInteger("grpc.maxInFlight", 0);
+        // balance reads waiting for gossip hold no thread and are limited apart, e.g. -Dgrpc.maxParkedReads=10000
+        final int maxParkedReads = Integer.getInteger("grpc.maxParkedReads", 0);
+        ServerBuilder<?> builder = ServerBuilder.forPort(port)
+                                                .addService(userImpl)
+                                                .addService(adminImpl)
+                                                .addService(crossServerImpl);
+        if (executor != null) {
+            builder.executor(executor);
+        }
+        if (maxInFlight > 0 || maxParkedReads > 0) {
+            builder.intercept(new AdmissionInterceptor(maxInFlight,
+                    Collections.singleton(UserServiceGrpc.getBalanceMethod().getFullMethodName()), maxParkedReads));
+        }
+        // added last so it runs first, and also times the calls refused for admission
+        Server server = builder.intercept(new MetricsInterceptor(MetricsRegistry.getDefault())).build();
+        // metrics are always available through getMetrics, and over HTTP when a port is given, e.g. -Dmetrics.port=9002
+        final int metricsPort = Integer.getInteger("metrics.port", 0);
+        final MetricsHttpServer metricsServer = metricsPort > 0 ? new MetricsHttpServer(metricsPort, MetricsRegistry.getDefault()) : null;
         
         Thread shutdownThread = new Thread(() -> { 
-            namingServerService.delete(address);
+            if (metricsServer != null) {
+                metricsServer.close();
+            }
+            gossipScheduler.close();
+            crossServerService.close();
+            if (shardService != null) {
+                shardService.close();
+            }
+            namingServerService.delete(service, address);
             namingServerService.close();
             server.shutdown(); 
+            try {
+                server.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (batcher != null) {
+                batcher.close();
+            }
+            if (executor != null) {
+                executor.shutdown();
+            }
+            serverState.closeWriteAheadLog();
         });
         Runtime.getRuntime().addShutdownHook(shutdownThread);
 
         server.start();
+        gossipScheduler.start();
 		System.out.println("Server started, press enter to shutdown.");
         System.in.read();
         shutdownThread.start();
@@ -0,0 +1,52 @@
+package pt.tecnico.distledger.server.domain;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Fixed set of locks the accounts are hashed to. A writer locks the stripes of every account it
+ * touches, always in index order, so writers over disjoint accounts rarely contend and never
+ * deadlock; two accounts sharing a stripe are locked once.
+ */
+public class AccountLocks {
+
+    private final ReentrantLock[] stripes;
+
+    public AccountLocks(int count) {
+        this.stripes = new ReentrantLock[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    public void lock(String account) {
+        stripes[indexOf(account)].lock();
+    }
+
+    public void unlock(String account) {
+        stripes[indexOf(account)].unlock();
+    }
+
+    public void lock(String first, String second) {
+        int a = indexOf(first);
+        int b = indexOf(second);
+        stripes[Math.min(a, b)].lock();
+        if (a != b) {
+            stripes[Math.max(a, b)].lock();
+        }
+    }
+
+    public void unlock(String first, String second) {
+        int a = indexOf(first);
+        int b = indexOf(second);
+        if (a != b) {
+            stripes[Math.max(a, b)].unlock();
+        }
+        stripes[Math.min(a, b)].unlock();
+    }
+
+    private int indexOf(String account) {
+        int hash = account.hashCode();
+        // spreads the high bits, account names often differ only in their last characters
+        return Math.floorMod(hash ^ (hash >>> 16), stripes.length);
+    }
+}
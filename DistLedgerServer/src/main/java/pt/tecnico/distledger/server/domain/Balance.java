@@ -0,0 +1,29 @@
+package pt.tecnico.distledger.server.domain;
+
+import pt.tecnico.distledger.server.gossip.VectorClock;
+
+// balance of an account together with the valueTS it was read at
+public class Balance {
+
+    private final int value;
+
+    private final VectorClock valueTS;
+
+    public Balance(int value, VectorClock valueTS) {
+        this.value = value;
+        this.valueTS = valueTS;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    public VectorClock getValueTS() {
+        return valueTS;
+    }
+
+    @Override
+    public String toString() {
+        return "Balance [value=" + value + ", valueTS=" + valueTS + "]";
+    }
+}
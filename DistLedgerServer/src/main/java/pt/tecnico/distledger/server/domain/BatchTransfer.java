@@ -0,0 +1,43 @@
+package pt.tecnico.distledger.server.domain;
+
+// one transfer of a batch, failed with the exception that would have ended a single transferTo
+public class BatchTransfer {
+
+    private final String account;
+
+    private final String destAccount;
+
+    private final int amount;
+
+    private Exception error;
+
+    public BatchTransfer(String account, String destAccount, int amount) {
+        this.account = account;
+        this.destAccount = destAccount;
+        this.amount = amount;
+    }
+
+    public String getAccount() {
+        return account;
+    }
+
+    public String getDestAccount() {
+        return destAccount;
+    }
+
+    public int getAmount() {
+        return amount;
+    }
+
+    public boolean isApplied() {
+        return error == null;
+    }
+
+    public Exception getError() {
+        return error;
+    }
+
+    void fail(Exception error) {
+        this.error = error;
+    }
+}
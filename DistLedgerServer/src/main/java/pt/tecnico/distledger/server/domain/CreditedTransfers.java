@@ -0,0 +1,98 @@
+package pt.tecnico.distledger.server.domain;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/*
+ * Credits from other shards already applied, by the source replica that debited them: the
+ * "<shard>-<replica>" prefix of the transfer id, followed by the sequence that replica gave it.
+ * Every credit carries the sequence up to which the source saw its credits to this shard
+ * acknowledged, and an operation that carries it is executed after those acknowledged credits,
+ * so the sequences up to it need no entry of their own and only the ones above it are kept.
+ */
+public class CreditedTransfers {
+
+    // highest sequence acknowledged by each source, every credit up to it was applied
+    private final Map<String, Long> acknowledged = new HashMap<>();
+
+    // sequences above the acknowledged one that were applied, by source
+    private final Map<String, NavigableSet<Long>> credited = new HashMap<>();
+
+    public boolean contains(String transferId) {
+        String source = sourceOf(transferId);
+        long sequence = sequenceOf(transferId);
+        if (sequence <= acknowledged.getOrDefault(source, 0L)) {
+            return true;
+        }
+        NavigableSet<Long> sequences = credited.get(source);
+        return sequences != null && sequences.contains(sequence);
+    }
+
+    // false when the credit was already applied
+    public boolean add(String transferId) {
+        if (contains(transferId)) {
+            return false;
+        }
+        credited.computeIfAbsent(sourceOf(transferId), key -> new TreeSet<>()).add(sequenceOf(transferId));
+        return true;
+    }
+
+    // raises the acknowledged sequence of the source and forgets the credits it covers
+    public void acknowledge(String source, long sequence) {
+        if (sequence <= acknowledged.getOrDefault(source, 0L)) {
+            return;
+        }
+        acknowledged.put(source, sequence);
+        NavigableSet<Long> sequences = credited.get(source);
+        if (sequences != null) {
+            sequences.headSet(sequence, true).clear();
+            if (sequences.isEmpty()) {
+                credited.remove(source);
+            }
+        }
+    }
+
+    // credits kept one by one, the ones no acknowledged sequence covers yet
+    public int size() {
+        int size = 0;
+        for (NavigableSet<Long> sequences : credited.values()) {
+            size += sequences.size();
+        }
+        return size;
+    }
+
+    public Map<String, Long> getAcknowledged() {
+        return acknowledged;
+    }
+
+    public Map<String, NavigableSet<Long>> getCredited() {
+        return credited;
+    }
+
+    public CreditedTransfers copy() {
+        CreditedTransfers copy = new CreditedTransfers();
+        copy.addAll(this);
+        return copy;
+    }
+
+    public void addAll(CreditedTransfers other) {
+        for (Map.Entry<String, NavigableSet<Long>> sequences : other.credited.entrySet()) {
+            credited.computeIfAbsent(sequences.getKey(), key -> new TreeSet<>()).addAll(sequences.getValue());
+        }
+        for (Map.Entry<String, Long> source : other.acknowledged.entrySet()) {
+            acknowledge(source.getKey(), source.getValue());
+        }
+    }
+
+    // transfer ids are "<shard>-<replica>-<sequence>"
+
+    public static String sourceOf(String transferId) {
+        return transferId.substring(0, transferId.lastIndexOf('-'));
+    }
+
+    public static long sequenceOf(String transferId) {
+        return Long.parseLong(transferId.substring(transferId.lastIndexOf('-') + 1));
+    }
+}
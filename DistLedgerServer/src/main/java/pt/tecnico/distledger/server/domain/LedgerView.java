@@ -0,0 +1,51 @@
+package pt.tecnico.distledger.server.domain;
+
+import pt.tecnico.distledger.server.domain.operation.Operation;
+import pt.tecnico.distledger.server.gossip.VectorClock;
+
+import java.util.List;
+
+// copy of the ledger a replica keeps, preceded by the prefix it compacted away
+public class LedgerView {
+
+    private final List<Operation> operations;
+
+    private final long compactedOperations;
+
+    private final VectorClock compactedTS;
+
+    public LedgerView(List<Operation> operations, long compactedOperations, VectorClock compactedTS) {
+        this.operations = operations;
+        this.compactedOperations = compactedOperations;
+        this.compactedTS = compactedTS;
+    }
+
+    public List<Operation> getOperations() {
+        return operations;
+    }
+
+    /*
+     * Position right after the operation with the given TS, which no other operation shares; -1 when
+     * it is not in the view, because it was compacted away or never reached this replica.
+     */
+    public int positionAfter(VectorClock TS) {
+        for (int i = 0; i < operations.size(); i++) {
+            if (operations.get(i).getTS().equals(TS)) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    public boolean isCompacted() {
+        return compactedOperations > 0;
+    }
+
+    public long getCompactedOperations() {
+        return compactedOperations;
+    }
+
+    public VectorClock getCompactedTS() {
+        return compactedTS;
+    }
+}
@@ -0,0 +1,49 @@
+package pt.tecnico.distledger.server.domain;
+
+import pt.tecnico.distledger.server.domain.operation.Operation;
+import pt.tecnico.distledger.server.gossip.VectorClock;
+
+/*
+ * Identity of an operation: its prevTS and TS. The TS alone is not enough, operations accepted by
+ * different replicas can end up with the same TS (e.g. [5, 3] from prevTS [0, 3] on replica 0 and
+ * from prevTS [5, 0] on replica 1); the entry in which TS differs from prevTS names the replica and
+ * its value the sequence number, so the pair is unique.
+ */
+public final class OperationId {
+
+    private final VectorClock prevTS;
+
+    private final VectorClock TS;
+
+    private OperationId(VectorClock prevTS, VectorClock TS) {
+        this.prevTS = prevTS;
+        this.TS = TS;
+    }
+
+    // the clocks of an operation are never changed in place once it has a TS, so they are not copied
+    public static OperationId of(Operation operation) {
+        return new OperationId(operation.getPrevTS(), operation.getTS());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof OperationId)) {
+            return false;
+        }
+        OperationId other = (OperationId) obj;
+        return TS.equals(other.TS) && prevTS.equals(other.prevTS);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * TS.hashCode() + prevTS.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return prevTS + " -> " + TS;
+    }
+}
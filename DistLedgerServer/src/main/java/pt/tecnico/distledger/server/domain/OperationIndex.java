@@ -0,0 +1,67 @@
+package pt.tecnico.distledger.server.domain;
+
+import pt.tecnico.distledger.server.domain.operation.CreateAccountOp;
+import pt.tecnico.distledger.server.domain.operation.Operation;
+import pt.tecnico.distledger.server.domain.operation.TransferInOp;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Hash index over a log of operations (ledger or executed operations), kept in sync
+ * with the list it mirrors so that duplicate and creation checks do not scan the log.
+ */
+public class OperationIndex {
+
+    // attributes
+
+    private final Map<OperationId, Operation> byId = new HashMap<>();
+
+    private final Map<String, CreateAccountOp> creations = new HashMap<>();
+
+    private final Map<String, TransferInOp> transfersIn = new HashMap<>();
+
+    // index maintenance
+
+    public void add(Operation operation) {
+        byId.putIfAbsent(OperationId.of(operation), operation);
+        if (operation instanceof CreateAccountOp) {
+            creations.putIfAbsent(operation.getAccount(), (CreateAccountOp) operation);
+        } else if (operation instanceof TransferInOp) {
+            transfersIn.putIfAbsent(((TransferInOp) operation).getTransferId(), (TransferInOp) operation);
+        }
+    }
+
+    public void remove(Operation operation) {
+        byId.remove(OperationId.of(operation), operation);
+        if (operation instanceof CreateAccountOp) {
+            creations.remove(operation.getAccount(), operation);
+        } else if (operation instanceof TransferInOp) {
+            transfersIn.remove(((TransferInOp) operation).getTransferId(), operation);
+        }
+    }
+
+    public void clear() {
+        byId.clear();
+        creations.clear();
+        transfersIn.clear();
+    }
+
+    // lookups
+
+    public boolean contains(Operation operation) {
+        return byId.containsKey(OperationId.of(operation));
+    }
+
+    public boolean hasCreation(String account) {
+        return creations.containsKey(account);
+    }
+
+    public boolean hasTransferIn(String transferId) {
+        return transfersIn.containsKey(transferId);
+    }
+
+    public int size() {
+        return byId.size();
+    }
+}
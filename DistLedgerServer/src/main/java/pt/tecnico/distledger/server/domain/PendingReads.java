@@ -0,0 +1,161 @@
+package pt.tecnico.distledger.server.domain;
+
+import pt.tecnico.distledger.server.gossip.VectorClock;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+/*
+ * Balance reads whose prevTS is ahead of valueTS. Like the operations of the scheduler, a read
+ * waits on the first entry of its prevTS that valueTS has not reached, so advancing valueTS only
+ * re-checks the reads waiting on the entries that moved. The reads are resolved while the state
+ * is locked and their futures completed after it is released.
+ */
+public class PendingReads {
+
+    public static class PendingRead {
+
+        private final String account;
+
+        private final VectorClock prevTS;
+
+        private final CompletableFuture<Balance> future = new CompletableFuture<>();
+
+        private Balance result;
+
+        private Exception error;
+
+        // entry of prevTS the read waits on, -1 while it is not waiting
+        private int waitingOn = -1;
+
+        public PendingRead(String account, VectorClock prevTS) {
+            this.account = account;
+            this.prevTS = prevTS.copy();
+        }
+
+        public String getAccount() {
+            return account;
+        }
+
+        public VectorClock getPrevTS() {
+            return prevTS;
+        }
+
+        public CompletableFuture<Balance> getFuture() {
+            return future;
+        }
+
+        public void resolve(Balance result) {
+            this.result = result;
+        }
+
+        public void fail(Exception error) {
+            this.error = error;
+        }
+
+        public void complete() {
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(result);
+            }
+        }
+    }
+
+    // attributes
+
+    private final List<TreeMap<Integer, List<PendingRead>>> waiting = new ArrayList<>();
+
+    private int count = 0;
+
+    // pending reads interface
+
+    // valueTS does not cover the read's prevTS yet
+    public void add(PendingRead read, VectorClock valueTS) {
+        waitOn(read.getPrevTS().firstExceeding(valueTS), read);
+    }
+
+    public void remove(PendingRead read) {
+        if (read.waitingOn < 0) {
+            return;
+        }
+        TreeMap<Integer, List<PendingRead>> reads = waiting.get(read.waitingOn);
+        int needed = read.getPrevTS().get(read.waitingOn);
+        List<PendingRead> sameNeed = reads.get(needed);
+        if (sameNeed != null && sameNeed.remove(read)) {
+            count--;
+            read.waitingOn = -1;
+            if (sameNeed.isEmpty()) {
+                reads.remove(needed);
+            }
+        }
+    }
+
+    // whether valueTS reaching value at the given entry lets some read go on
+    public boolean releasesOn(int index, int value) {
+        if (index >= waiting.size() || waiting.get(index).isEmpty()) {
+            return false;
+        }
+        return waiting.get(index).firstKey() <= value;
+    }
+
+    public List<PendingRead> takeCovered(VectorClock valueTS) {
+        List<PendingRead> covered = new ArrayList<>();
+        if (count == 0) {
+            return covered;
+        }
+        List<PendingRead> moved = new ArrayList<>();
+        for (int i = 0; i < waiting.size() && i < valueTS.size(); i++) {
+            Map<Integer, List<PendingRead>> released = waiting.get(i).headMap(valueTS.get(i), true);
+            for (Iterator<List<PendingRead>> it = released.values().iterator(); it.hasNext();) {
+                moved.addAll(it.next());
+                it.remove();
+            }
+        }
+        count -= moved.size();
+        for (PendingRead read : moved) {
+            int blockingIndex = read.getPrevTS().firstExceeding(valueTS);
+            if (blockingIndex < 0) {
+                read.waitingOn = -1;
+                covered.add(read);
+            } else {
+                waitOn(blockingIndex, read);
+            }
+        }
+        return covered;
+    }
+
+    public List<PendingRead> takeAll() {
+        List<PendingRead> all = new ArrayList<>();
+        for (TreeMap<Integer, List<PendingRead>> reads : waiting) {
+            for (List<PendingRead> sameNeed : reads.values()) {
+                for (PendingRead read : sameNeed) {
+                    read.waitingOn = -1;
+                    all.add(read);
+                }
+            }
+            reads.clear();
+        }
+        count = 0;
+        return all;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // auxiliary
+
+    private void waitOn(int index, PendingRead read) {
+        while (waiting.size() <= index) {
+            waiting.add(new TreeMap<>());
+        }
+        waiting.get(index).computeIfAbsent(read.getPrevTS().get(index), k -> new ArrayList<>()).add(read);
+        read.waitingOn = index;
+        count++;
+    }
+}
@@ -0,0 +1,59 @@
+package pt.tecnico.distledger.server.domain;
+
+import pt.tecnico.distledger.server.gossip.VectorClock;
+
+import java.util.concurrent.CompletableFuture;
+
+// createAccount or transferTo waiting to be applied with others under one lock acquisition, completed with its TS
+public class QueuedWrite {
+
+    private final String account;
+
+    // null for account creations
+    private final String destAccount;
+
+    private final int amount;
+
+    private final VectorClock prevTS;
+
+    private final CompletableFuture<VectorClock> result = new CompletableFuture<>();
+
+    private QueuedWrite(String account, String destAccount, int amount, VectorClock prevTS) {
+        this.account = account;
+        this.destAccount = destAccount;
+        this.amount = amount;
+        this.prevTS = prevTS;
+    }
+
+    public static QueuedWrite createAccount(String account, VectorClock prevTS) {
+        return new QueuedWrite(account, null, 0, prevTS);
+    }
+
+    public static QueuedWrite transferTo(String fromAccount, String destAccount, int amount, VectorClock prevTS) {
+        return new QueuedWrite(fromAccount, destAccount, amount, prevTS);
+    }
+
+    public boolean isTransfer() {
+        return destAccount != null;
+    }
+
+    public String getAccount() {
+        return account;
+    }
+
+    public String getDestAccount() {
+        return destAccount;
+    }
+
+    public int getAmount() {
+        return amount;
+    }
+
+    public VectorClock getPrevTS() {
+        return prevTS;
+    }
+
+    public CompletableFuture<VectorClock> getResult() {
+        return result;
+    }
+}
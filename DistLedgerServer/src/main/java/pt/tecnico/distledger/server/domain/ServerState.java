@@ -1,8 +1,14 @@
 package pt.tecnico.distledger.server.domain;
 
+import pt.tecnico.distledger.common.metrics.Histogram;
+import pt.tecnico.distledger.common.metrics.MeteredReadWriteLock;
+import pt.tecnico.distledger.common.metrics.MetricsRegistry;
+import pt.tecnico.distledger.server.domain.PendingReads.PendingRead;
 import pt.tecnico.distledger.server.domain.operation.CreateAccountOp;
 import pt.tecnico.distledger.server.domain.operation.Operation;
+import pt.tecnico.distledger.server.domain.operation.TransferInOp;
 import pt.tecnico.distledger.server.domain.operation.TransferOp;
+import pt.tecnico.distledger.server.domain.operation.TransferOutOp;
 import pt.tecnico.distledger.server.exception.AccountAlreadyExistsException;
 import pt.tecnico.distledger.server.exception.CannotModifyBrokerException;
 import pt.tecnico.distledger.server.exception.CannotTransferToSelfException;
@@ -13,16 +19,31 @@ import pt.tecnico.distledger.server.exception.NotEnoughCoinsException;
 import pt.tecnico.distledger.server.exception.ServerNotActiveException;
 import pt.tecnico.distledger.server.exception.ServerAlreadyActiveException;
 import pt.tecnico.distledger.server.exception.ServerAlreadyDeactiveException;
-import pt.tecnico.distledger.server.exception.BalanceNotUpdatedException;
-import pt.tecnico.distledger.server.gossip.GossipUtilities;
+import pt.tecnico.distledger.server.exception.ShardUnavailableException;
+import pt.tecnico.distledger.server.exception.TransferNotStableException;
+import pt.tecnico.distledger.server.exception.WrongShardException;
+import pt.tecnico.distledger.server.gossip.VectorClock;
 import pt.tecnico.distledger.server.grpc.CrossServerService;
+import pt.tecnico.distledger.server.grpc.ShardService;
+import pt.tecnico.distledger.server.persistence.Snapshot;
+import pt.tecnico.distledger.server.persistence.SnapshotStore;
+import pt.tecnico.distledger.server.persistence.WriteAheadLog;
 
-import java.util.Collections;
+import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Map;
-import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class ServerState {
 
@@ -33,40 +54,146 @@ public class ServerState {
             System.err.println("ServerState: " + debugMessage);
     }
 
+    // bytes the current log grows to before a snapshot starts a new one, whether or not anything was compacted
+    private static final long SNAPSHOT_WAL_BYTES = Long.getLong("snapshot.walBytes", 64L * 1024 * 1024);
+
+    // locks the accounts are spread over by concurrent transfers
+    private static final int LOCK_STRIPES = Integer.getInteger("state.lockStripes", 64);
+
     // attributes
 
-    private boolean active;
+    private volatile boolean active;
 
     private final String qualifier;
 
+    // position of this replica in the timestamps, assigned by the naming server
+    private final int replicaId;
+
     private List<Operation> ledger;
 
     private List<Operation> executedOperations;
 
+    private final OperationIndex ledgerIndex;
+
+    private final OperationIndex executedIndex;
+
+    private final StableOperationScheduler scheduler;
+
     private final String broker;
 
     private Map<String, Integer> accountsBalance;
 
     private final CrossServerService crossServerService;
 
-    private List<Integer> valueTS;
+    private final VectorClock valueTS;
+
+    private final VectorClock replicaTS;
+
+    /*
+     * Reads (balance, snapshots) share the lock, and so do transfers that are stable on arrival:
+     * those lock the stripes of their two accounts and append under appendLock. Every other write,
+     * gossip merges, compaction and snapshots take the lock exclusively, so they see no transfer
+     * in progress.
+     */
+    private final ReentrantReadWriteLock lock;
+
+    private final AccountLocks accountLocks = new AccountLocks(LOCK_STRIPES);
+
+    // guards the ledger, the executed operations, their indexes, the log and the timestamps while the lock is shared
+    private final ReentrantLock appendLock = new ReentrantLock();
+
+    // last sequence number handed out to an operation of this replica, equal to replicaTS[replicaId] when the lock is exclusive
+    private final AtomicInteger localSequence = new AtomicInteger();
+
+    // sequence numbers already in the ledger but above replicaTS[replicaId], because a lower one is still being appended
+    private final Set<Integer> appendedAhead = new HashSet<>();
+
+    private final PendingReads pendingReads = new PendingReads();
+
+    // every operation accepted into the ledger is logged here, null when running in memory only
+    private WriteAheadLog wal;
+
+    // end of the last record this replica logged
+    private long loggedPosition = 0;
+
+    // where snapshots and logs are kept, null when running in memory only
+    private SnapshotStore snapshotStore;
+
+    private long walEpoch = 0;
 
-    private List<Integer> replicaTS;
+    private long walSyncIntervalMillis;
+
+    private int walSyncBatch;
+
+    // operations dropped from the ledger once every other replica of the shard held them
+    private long compactedOperations = 0;
+
+    private final VectorClock compactedTS = new VectorClock(0);
+
+    // how long balance reads wait for valueTS to cover them, zero when it already does
+    private final Histogram balanceWait;
+
+    // snapshots are written outside the state lock, one at a time
+    private final ReentrantLock snapshotLock = new ReentrantLock();
+
+    // set while a snapshot is queued, so a full log does not queue one per write
+    private final AtomicBoolean snapshotQueued = new AtomicBoolean(false);
+
+    private final ExecutorService snapshotExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // set by enableSharding, null while this replica holds every account
+    private volatile ShardService shardService;
+
+    private int shardId;
+
+    // credits from other shards already applied, a credit delivered again is not applied twice
+    private final CreditedTransfers creditedTransfers = new CreditedTransfers();
+
+    // what the other shards answered for the credits sent from here, kept by the snapshot until enableSharding
+    private Map<Integer, VectorClock> restoredCreditedTS = Map.of();
+
+    // debits accepted here whose credit is not in the outbox yet, compaction keeps them in the ledger
+    private final Set<String> undeliveredCredits = ConcurrentHashMap.newKeySet();
 
     // constructors
 
-    public ServerState(String qualifier, CrossServerService crossServerService) {
+    public ServerState(String qualifier, int replicaId, CrossServerService crossServerService) {
         this.active = true;
         this.qualifier = qualifier;
+        this.replicaId = replicaId;
         this.ledger = new ArrayList<>();
         this.executedOperations = new ArrayList<>();
+        this.ledgerIndex = new OperationIndex();
+        this.executedIndex = new OperationIndex();
+        this.scheduler = new StableOperationScheduler();
         this.broker = "broker";
-        this.accountsBalance = new HashMap<>();
+        this.accountsBalance = new ConcurrentHashMap<>();
         this.accountsBalance.put(broker, 1000);
         this.crossServerService = crossServerService;
-        this.valueTS = new ArrayList<>(Arrays.asList(0, 0, 0));
-        this.replicaTS = new ArrayList<>(Arrays.asList(0, 0, 0));
+        // timestamps grow as operations from replicas with higher ids are seen
+        this.valueTS = new VectorClock(replicaId + 1);
+        this.replicaTS = new VectorClock(replicaId + 1);
 
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        String lockWaitHelp = "Time spent waiting for the replica state lock, uncontended acquisitions excluded.";
+        this.lock = new MeteredReadWriteLock(
+                metrics.histogram("distledger_lock_wait_seconds", lockWaitHelp, "replica", qualifier, "mode", "read"),
+                metrics.histogram("distledger_lock_wait_seconds", lockWaitHelp, "replica", qualifier, "mode", "write"));
+        this.balanceWait = metrics.histogram("distledger_balance_wait_seconds",
+                "Time balance reads waited for the replica to execute the updates they depend on.", "replica", qualifier);
+        metrics.gauge("distledger_ledger_operations", "Operations kept in the ledger.", this::getLedgerSize, "replica", qualifier);
+        metrics.gauge("distledger_compacted_operations", "Operations compacted away from the ledger.",
+                this::getCompactedOperations, "replica", qualifier);
+        metrics.gauge("distledger_pending_operations", "Operations waiting to become stable.",
+                this::getPendingOperationsCount, "replica", qualifier);
+        metrics.gauge("distledger_pending_reads", "Balance reads waiting for the replica to catch up.",
+                this::getPendingReadsCount, "replica", qualifier);
+        metrics.gauge("distledger_credited_transfers", "Credits from other shards kept to filter deliveries repeated.",
+                this::getCreditedTransfersCount, "replica", qualifier);
     }
 
     // accessors
@@ -79,50 +206,181 @@ public class ServerState {
         return qualifier;
     }
 
+    public int getReplicaId() {
+        return replicaId;
+    }
+
+    public VectorClock getReplicaTS() {
+        lock.readLock().lock();
+        appendLock.lock();
+        try {
+            return replicaTS.copy();
+        } finally {
+            appendLock.unlock();
+            lock.readLock().unlock();
+        }
+    }
+
+    public VectorClock getValueTS() {
+        lock.readLock().lock();
+        appendLock.lock();
+        try {
+            return valueTS.copy();
+        } finally {
+            appendLock.unlock();
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getLedgerSize() {
+        lock.readLock().lock();
+        appendLock.lock();
+        try {
+            return ledger.size();
+        } finally {
+            appendLock.unlock();
+            lock.readLock().unlock();
+        }
+    }
+
+    public long getCompactedOperations() {
+        lock.readLock().lock();
+        try {
+            return compactedOperations;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
     public void addOperation(Operation operation) {
-        ledger.add(operation);
+        lock.writeLock().lock();
+        try {
+            appendToLedger(operation);
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     // user interface
 
-    public synchronized List<Integer> balance(String account, List<Integer> prevTS)
-            throws ServerNotActiveException, NoSuchAccountException, BalanceNotUpdatedException, InterruptedException {
-        List<Integer> result = new ArrayList<>();
-        
+    public CompletableFuture<Balance> balance(String account, VectorClock prevTS) {
         if (!active) {
-            throw new ServerNotActiveException();
+            return CompletableFuture.failedFuture(new ServerNotActiveException());
+        } else if (!ownsAccount(account)) {
+            return CompletableFuture.failedFuture(new WrongShardException());
         }
-        
-        while (!GossipUtilities.TSLessOrEqual(prevTS, valueTS)) {
-            synchronized (this) {
-                this.wait();
+
+        long start = System.nanoTime();
+        lock.readLock().lock();
+        // waits out a transfer on the account, so the balance read is the one valueTS covers
+        accountLocks.lock(account);
+        try {
+            if (isCovered(prevTS)) {
+                balanceWait.observeNanos(0);
+                return CompletableFuture.completedFuture(readBalance(account));
+            }
+        } catch (NoSuchAccountException e) {
+            return CompletableFuture.failedFuture(e);
+        } finally {
+            accountLocks.unlock(account);
+            lock.readLock().unlock();
+        }
+
+        // the client has seen updates this replica did not execute yet, the read completes once gossip brings them
+        PendingRead read = new PendingRead(account, prevTS);
+        boolean covered;
+        lock.writeLock().lock();
+        try {
+            covered = prevTS.lessOrEqual(valueTS);
+            if (covered) {
+                resolveRead(read);
+            } else {
+                pendingReads.add(read, valueTS);
             }
+        } finally {
+            lock.writeLock().unlock();
         }
+        if (covered) {
+            balanceWait.observeNanos(0);
+            read.complete();
+        } else {
+            // a read abandoned by the caller (e.g. after a timeout) stops waiting
+            read.getFuture().whenComplete((result, error) -> {
+                if (error != null) {
+                    dropPendingRead(read);
+                } else {
+                    balanceWait.observeNanos(System.nanoTime() - start);
+                }
+            });
+        }
+        return read.getFuture();
+    }
 
+    // callers check that valueTS covers the client's prevTS and hold the lock, or the read lock and the account's stripe
+    private Balance readBalance(String account) throws NoSuchAccountException {
         Integer balance = accountsBalance.get(account);
 
         if (balance == null) {
             throw new NoSuchAccountException();
         }
 
-        if (GossipUtilities.TSLessOrEqual(prevTS, valueTS)) {
-            result.add(valueTS.get(0));
-            result.add(valueTS.get(1));
-            result.add(valueTS.get(2));
+        debug("checked balance of account with username '" + account + "'");
+        return new Balance(balance, balanceTS());
+    }
+
+    /*
+     * Timestamp a balance read returns, copied under appendLock since concurrent transfers move
+     * valueTS under the shared lock. A transfer on the account may already be in its balance
+     * while a lower sequence number still holds valueTS back, so the entry of this replica
+     * covers every operation appended so far: the client then never reads elsewhere a balance
+     * older than this one.
+     */
+    private VectorClock balanceTS() {
+        appendLock.lock();
+        try {
+            int appended = valueTS.get(replicaId);
+            for (int sequence : appendedAhead) {
+                appended = Math.max(appended, sequence);
+            }
+            return valueTS.with(replicaId, appended);
+        } finally {
+            appendLock.unlock();
         }
+    }
 
-        /*Quando tiveremos o gossip feito basta fazer notify all na função e faz release à thread */ 
-        result.add(balance);
-        debug("checked balance of account with username '" + account + "'");
-        return result;
+    public VectorClock createAccount(String account, VectorClock prevTS)
+            throws ServerNotActiveException,
+            WrongShardException,
+            CannotModifyBrokerException,
+            AccountAlreadyExistsException {
+        List<PendingRead> coveredReads = List.of();
+        VectorClock TS;
+        WriteAheadLog log;
+        long logPosition;
+        lock.writeLock().lock();
+        try {
+            TS = applyAccountCreation(account, prevTS);
+            coveredReads = resolveCoveredReads();
+            log = wal;
+            logPosition = loggedPosition;
+        } finally {
+            lock.writeLock().unlock();
+            completeReads(coveredReads);
+        }
+        awaitLogged(log, logPosition);
+        return TS;
     }
 
-    public synchronized List<Integer> createAccount(String account, List<Integer> prevTS)
+    // callers hold the write lock
+    private VectorClock applyAccountCreation(String account, VectorClock prevTS)
             throws ServerNotActiveException,
+            WrongShardException,
             CannotModifyBrokerException,
             AccountAlreadyExistsException {
         if (!active) {
             throw new ServerNotActiveException();
+        } else if (!ownsAccount(account)) {
+            throw new WrongShardException();
         } else if (account.equals(broker)) {
             throw new CannotModifyBrokerException();
         } else if (accountsBalance.containsKey(account)) {
@@ -130,38 +388,183 @@ public class ServerState {
         }
         Operation operation = new CreateAccountOp(account, prevTS, valueTS);
 
-        if (!hasAlreadyTheAccountInLog(executedOperations, account) && !hasAlreadyTheAccountInLog(ledger, account)) {
+        if (!hasAlreadyTheAccountInLog(account)) {
             executeAccountCreation((CreateAccountOp) operation, false);
+            executeStableOperations();
         }
-
         return operation.getTS();
-
     }
 
-    private synchronized void executeAccountCreation(CreateAccountOp operation, boolean recreate) {
+    private void executeAccountCreation(CreateAccountOp operation, boolean recreate) {
         if (!recreate) {
             incrementReplicaTS();
-            List<Integer> newTS = operationTS(operation.getPrevTS());
+            VectorClock newTS = operationTS(operation.getPrevTS());
             operation.setTS(newTS);
-            ledger.add(operation);
+            appendToLedger(operation);
             if (operation.isStable(valueTS)) {
                 accountsBalance.put(operation.getAccount(), 0);
-                GossipUtilities.mergeTS(valueTS, operation.getTS());
-                executedOperations.add(operation);
+                valueTS.merge(operation.getTS());
+                appendToExecuted(operation);
+                scheduler.valueTSAdvanced(valueTS);
                 debug("created account with username '" + operation.getAccount() + "' | valueTS is now " + valueTS
                         + " | replicaTS is now " + replicaTS);
+            } else {
+                scheduler.submit(operation, valueTS);
             }
         } else {
             accountsBalance.put(operation.getAccount(), 0);
-            GossipUtilities.mergeTS(valueTS, operation.getTS());
-            executedOperations.add(operation);
+            valueTS.merge(operation.getTS());
+            appendToExecuted(operation);
+            scheduler.valueTSAdvanced(valueTS);
             debug("created account with username '" + operation.getAccount() + "' | valueTS is now " + valueTS
                     + " | replicaTS is now " + replicaTS);
         }
     }
 
-    public synchronized List<Integer> transferTo(String fromAccount, String destAccount, int amount,
-            List<Integer> prevTS) throws ServerNotActiveException,
+    public VectorClock transferTo(String fromAccount, String destAccount, int amount,
+            VectorClock prevTS) throws ServerNotActiveException,
+            NoSuchAccountException,
+            NoSuchDestinationAccountException,
+            CannotTransferToSelfException,
+            InvalidArgumentsException,
+            NotEnoughCoinsException,
+            WrongShardException,
+            ShardUnavailableException,
+            TransferNotStableException {
+        if (!ownsAccount(fromAccount)) {
+            throw new WrongShardException();
+        } else if (!ownsAccount(destAccount)) {
+            return transferOut(fromAccount, destAccount, amount, prevTS);
+        }
+        VectorClock concurrentTS = concurrentTransfer(fromAccount, destAccount, amount, prevTS);
+        if (concurrentTS != null) {
+            return concurrentTS;
+        }
+        List<PendingRead> coveredReads = List.of();
+        VectorClock TS;
+        WriteAheadLog log;
+        long logPosition;
+        lock.writeLock().lock();
+        try {
+            TS = applyTransfer(fromAccount, destAccount, amount, prevTS);
+            coveredReads = resolveCoveredReads();
+            log = wal;
+            logPosition = loggedPosition;
+        } finally {
+            lock.writeLock().unlock();
+            completeReads(coveredReads);
+        }
+        awaitLogged(log, logPosition);
+        return TS;
+    }
+
+    // applies the transfers in order under one lock acquisition, each one with the TS of the last one applied as prevTS
+    public VectorClock transferBatch(List<BatchTransfer> transfers, VectorClock prevTS) throws ServerNotActiveException {
+        List<PendingRead> coveredReads = List.of();
+        VectorClock TS = prevTS;
+        WriteAheadLog log;
+        long logPosition;
+        lock.writeLock().lock();
+        try {
+            if (!active) {
+                throw new ServerNotActiveException();
+            }
+            for (BatchTransfer transfer : transfers) {
+                // a batch holds the lock throughout, so it cannot wait for another shard
+                if (!ownsAccount(transfer.getAccount()) || !ownsAccount(transfer.getDestAccount())) {
+                    transfer.fail(new WrongShardException());
+                    continue;
+                }
+                try {
+                    TS = applyTransfer(transfer.getAccount(), transfer.getDestAccount(), transfer.getAmount(), TS);
+                } catch (NoSuchAccountException | NoSuchDestinationAccountException | CannotTransferToSelfException
+                        | InvalidArgumentsException | NotEnoughCoinsException e) {
+                    transfer.fail(e);
+                }
+            }
+            coveredReads = resolveCoveredReads();
+            log = wal;
+            logPosition = loggedPosition;
+        } finally {
+            lock.writeLock().unlock();
+            completeReads(coveredReads);
+        }
+        awaitLogged(log, logPosition);
+        return TS;
+    }
+
+    /*
+     * Applies creations and transfers of different clients under one lock acquisition, each with its
+     * own prevTS, and waits for the log once for all of them. Transfers to another shard cannot be
+     * part of a batch, they wait for the destination shard.
+     */
+    public void applyBatch(List<QueuedWrite> writes) {
+        List<PendingRead> coveredReads = List.of();
+        WriteAheadLog log;
+        long logPosition;
+        List<VectorClock> results = new ArrayList<>(writes.size());
+        List<Exception> errors = new ArrayList<>(writes.size());
+        lock.writeLock().lock();
+        try {
+            for (QueuedWrite write : writes) {
+                VectorClock TS = null;
+                Exception error = null;
+                try {
+                    if (!write.isTransfer()) {
+                        TS = applyAccountCreation(write.getAccount(), write.getPrevTS());
+                    } else if (!ownsAccount(write.getAccount()) || !ownsAccount(write.getDestAccount())) {
+                        throw new WrongShardException();
+                    } else {
+                        TS = applyTransfer(write.getAccount(), write.getDestAccount(), write.getAmount(), write.getPrevTS());
+                    }
+                } catch (ServerNotActiveException | WrongShardException | CannotModifyBrokerException
+                        | AccountAlreadyExistsException | NoSuchAccountException | NoSuchDestinationAccountException
+                        | CannotTransferToSelfException | InvalidArgumentsException | NotEnoughCoinsException e) {
+                    error = e;
+                }
+                results.add(TS);
+                errors.add(error);
+            }
+            coveredReads = resolveCoveredReads();
+            log = wal;
+            logPosition = loggedPosition;
+        } finally {
+            lock.writeLock().unlock();
+            completeReads(coveredReads);
+        }
+        // a failed write was not logged, it is reported without waiting for the others
+        for (int i = 0; i < writes.size(); i++) {
+            if (errors.get(i) != null) {
+                writes.get(i).getResult().completeExceptionally(errors.get(i));
+            }
+        }
+        awaitLogged(log, logPosition);
+        for (int i = 0; i < writes.size(); i++) {
+            if (errors.get(i) == null) {
+                writes.get(i).getResult().complete(results.get(i));
+            }
+        }
+    }
+
+    // callers hold the write lock
+    private VectorClock applyTransfer(String fromAccount, String destAccount, int amount, VectorClock prevTS)
+            throws ServerNotActiveException,
+            NoSuchAccountException,
+            NoSuchDestinationAccountException,
+            CannotTransferToSelfException,
+            InvalidArgumentsException,
+            NotEnoughCoinsException {
+        checkTransfer(fromAccount, destAccount, amount);
+        // transfers sharing a prevTS are concurrent, not retries of each other, so every one is applied
+        TransferOp operation = new TransferOp(fromAccount, destAccount, amount, prevTS, valueTS);
+        executeTransfer(operation, false);
+        executeStableOperations();
+        return operation.getTS();
+    }
+
+    // callers hold the write lock or the stripes of both accounts
+    private void checkTransfer(String fromAccount, String destAccount, int amount)
+            throws ServerNotActiveException,
             NoSuchAccountException,
             NoSuchDestinationAccountException,
             CannotTransferToSelfException,
@@ -182,153 +585,793 @@ public class ServerState {
         } else if (fromAccountBalance < amount) {
             throw new NotEnoughCoinsException();
         }
-        Operation operation = new TransferOp(fromAccount, destAccount, amount, prevTS, valueTS);
-        if (!transferAlreadyMadeInLog(executedOperations, prevTS) && !transferAlreadyMadeInLog(ledger, prevTS)) {
-            executeTransfer((TransferOp) operation, false);
-        }
+    }
 
+    /*
+     * A transfer whose prevTS this replica already covers executes at once and only needs its two
+     * accounts, so it runs under the shared lock and their stripes, in parallel with transfers over
+     * other accounts. Returns null when the transfer depends on operations not executed yet; it then
+     * takes the exclusive path.
+     */
+    private VectorClock concurrentTransfer(String fromAccount, String destAccount, int amount, VectorClock prevTS)
+            throws ServerNotActiveException,
+            NoSuchAccountException,
+            NoSuchDestinationAccountException,
+            CannotTransferToSelfException,
+            InvalidArgumentsException,
+            NotEnoughCoinsException {
+        TransferOp operation;
+        WriteAheadLog log;
+        long logPosition;
+        boolean releasesWaiting;
+        lock.readLock().lock();
+        try {
+            if (!isCovered(prevTS)) {
+                return null;
+            }
+            accountLocks.lock(fromAccount, destAccount);
+            try {
+                checkTransfer(fromAccount, destAccount, amount);
+                int sequence = localSequence.incrementAndGet();
+                operation = new TransferOp(fromAccount, destAccount, amount, prevTS, prevTS.with(replicaId, sequence));
+                accountsBalance.put(fromAccount, accountsBalance.get(fromAccount) - amount);
+                accountsBalance.put(destAccount, accountsBalance.get(destAccount) + amount);
+                appendLock.lock();
+                try {
+                    appendToLedger(operation);
+                    appendToExecuted(operation);
+                    int covered = coverSequence(sequence);
+                    log = wal;
+                    logPosition = loggedPosition;
+                    // only this replica's entry moved, the lock is taken exclusively only if it lets someone go on
+                    releasesWaiting = scheduler.releasesOn(replicaId, covered) || pendingReads.releasesOn(replicaId, covered);
+                } finally {
+                    appendLock.unlock();
+                }
+            } finally {
+                accountLocks.unlock(fromAccount, destAccount);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        debug("Transfer '" + amount + "' from Account '" + fromAccount + "' To Account '" + destAccount
+                + "' | TS is " + operation.getTS());
+        if (releasesWaiting) {
+            releaseWaiting();
+        }
+        awaitLogged(log, logPosition);
         return operation.getTS();
     }
 
-    private synchronized void executeTransfer(TransferOp operation, boolean recreate) {
+    private boolean isCovered(VectorClock prevTS) {
+        appendLock.lock();
+        try {
+            return prevTS.lessOrEqual(valueTS);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // the operations and reads waiting on valueTS are only released with the lock held exclusively
+    private void releaseWaiting() {
+        List<PendingRead> coveredReads = List.of();
+        lock.writeLock().lock();
+        try {
+            scheduler.valueTSAdvanced(valueTS);
+            executeStableOperations();
+            coveredReads = resolveCoveredReads();
+        } finally {
+            lock.writeLock().unlock();
+            completeReads(coveredReads);
+        }
+    }
+
+    /*
+     * replicaTS and valueTS only cover a sequence number once every lower one is applied and in the
+     * ledger, so gossip never skips one and a valueTS means the same state on every replica. The
+     * operations are executed before they are appended, and their prevTS was already covered, so
+     * only this replica's entry moves. Returns the sequence number valueTS now covers.
+     */
+    private int coverSequence(int sequence) {
+        appendedAhead.add(sequence);
+        int covered = replicaTS.get(replicaId);
+        while (appendedAhead.remove(covered + 1)) {
+            covered++;
+        }
+        replicaTS.set(replicaId, covered);
+        valueTS.set(replicaId, Math.max(valueTS.get(replicaId), covered));
+        return valueTS.get(replicaId);
+    }
+
+    // after replicaTS is merged with timestamps from elsewhere, callers hold the write lock
+    private void syncLocalSequence() {
+        localSequence.set(replicaTS.get(replicaId));
+    }
+
+    private void executeTransfer(TransferOp operation, boolean recreate) {
         if (!recreate) {
             incrementReplicaTS();
-            List<Integer> newTS = operationTS(operation.getPrevTS());
+            VectorClock newTS = operationTS(operation.getPrevTS());
             operation.setTS(newTS);
-            ledger.add(operation);
-            if (operation.isStable(valueTS) && !transferAlreadyMadeInLog(executedOperations, operation.getPrevTS())
-                    && !recreate) {
+            appendToLedger(operation);
+            if (operation.isStable(valueTS)) {
                 accountsBalance.put(operation.getAccount(),
                         accountsBalance.get(operation.getAccount()) - operation.getAmount());
                 accountsBalance.put(operation.getDestAccount(),
                         accountsBalance.get(operation.getDestAccount()) + operation.getAmount());
-                GossipUtilities.mergeTS(valueTS, operation.getTS());
-                executedOperations.add(operation);
+                valueTS.merge(operation.getTS());
+                appendToExecuted(operation);
+                scheduler.valueTSAdvanced(valueTS);
                 debug("Transfer '" + operation.getAmount() + "' from Account '" + operation.getAccount()
                         + "To Account '" + operation.getDestAccount() + "' | valueTS is now " + valueTS
                         + " | replicaTS is now " + replicaTS);
+            } else {
+                scheduler.submit(operation, valueTS);
             }
         } else if (/*
-                    * !transferAlreadyMadeInLog(executedOperations, operation.getPrevTS()) &&
+                    * !executedIndex.containsPrevTS(operation.getPrevTS()) &&
                     * operation.isStable(valueTS) &&
                     */ recreate) {
             accountsBalance.put(operation.getAccount(),
                     accountsBalance.get(operation.getAccount()) - operation.getAmount());
             accountsBalance.put(operation.getDestAccount(),
                     accountsBalance.get(operation.getDestAccount()) + operation.getAmount());
-            GossipUtilities.mergeTS(valueTS, operation.getTS());
-            executedOperations.add(operation);
+            valueTS.merge(operation.getTS());
+            appendToExecuted(operation);
+            scheduler.valueTSAdvanced(valueTS);
             debug("Transfer '" + operation.getAmount() + "' from Account '" + operation.getAccount() + "' To Account '"
                     + operation.getDestAccount() + "' | valueTS is now " + valueTS + " | replicaTS is now "
                     + replicaTS);
         }
     }
 
-    // admin interface
+    // sharding
+
+    // called once at startup, after the state was recovered and before requests are served
+    public void enableSharding(ShardService shardService, int shardId) {
+        List<TransferOutOp> undelivered = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            this.shardId = shardId;
+            this.shardService = shardService;
+            shardService.restoreCreditedTS(restoredCreditedTS);
+            if (!ownsAccount(broker)) {
+                accountsBalance.remove(broker);
+            }
+            // credits a crash may have interrupted, delivering one again is harmless
+            for (Operation operation : ledger) {
+                if (operation instanceof TransferOutOp
+                        && ((TransferOutOp) operation).getTransferId().startsWith(shardId + "-" + replicaId + "-")) {
+                    undelivered.add((TransferOutOp) operation);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        for (TransferOutOp operation : undelivered) {
+            shardService.enqueue(operation);
+        }
+    }
+
+    public boolean ownsAccount(String account) {
+        ShardService service = shardService;
+        return service == null || service.getShards().shardOf(account) == shardId;
+    }
+
+    /*
+     * Transfer to an account of another shard: the destination shard confirms the account exists,
+     * the source is debited with a TransferOutOp and, once that is logged, the credit is delivered.
+     * Accounts are never deleted, so a credit confirmed possible always succeeds eventually.
+     */
+    private VectorClock transferOut(String fromAccount, String destAccount, int amount, VectorClock prevTS)
+            throws ServerNotActiveException,
+            NoSuchAccountException,
+            NoSuchDestinationAccountException,
+            InvalidArgumentsException,
+            NotEnoughCoinsException,
+            ShardUnavailableException,
+            TransferNotStableException {
+        // the checks are repeated under the write lock, these only spare the other shard a doomed request
+        lock.readLock().lock();
+        try {
+            checkDebit(fromAccount, amount, prevTS);
+        } finally {
+            lock.readLock().unlock();
+        }
+        shardService.prepareCredit(destAccount);
 
-    public synchronized void activate() throws ServerAlreadyActiveException {
-        if (active) {
-            throw new ServerAlreadyActiveException();
+        List<PendingRead> coveredReads = List.of();
+        TransferOutOp operation;
+        WriteAheadLog log;
+        long logPosition;
+        lock.writeLock().lock();
+        try {
+            checkDebit(fromAccount, amount, prevTS);
+            String transferId = shardId + "-" + replicaId + "-" + (replicaTS.get(replicaId) + 1);
+            operation = new TransferOutOp(fromAccount, destAccount, amount, transferId, prevTS, valueTS);
+            undeliveredCredits.add(transferId);
+            shardService.register(operation);
+            executeTransferOut(operation, false);
+            executeStableOperations();
+            coveredReads = resolveCoveredReads();
+            log = wal;
+            logPosition = loggedPosition;
+        } finally {
+            lock.writeLock().unlock();
+            completeReads(coveredReads);
         }
-        active = true;
+        // the credit must never be delivered for a debit that could still be lost
+        awaitLogged(log, logPosition);
+        shardService.deliver(operation);
+        undeliveredCredits.remove(operation.getTransferId());
+        return operation.getTS();
     }
 
-    public synchronized void deactivate() throws ServerAlreadyDeactiveException {
+    /*
+     * Callers hold the lock. The debit is only created once everything the client saw is executed
+     * here: a debit left waiting for stability would have its credit delivered before the balance
+     * was checked against the state it depends on.
+     */
+    private void checkDebit(String fromAccount, int amount, VectorClock prevTS)
+            throws ServerNotActiveException,
+            NoSuchAccountException,
+            InvalidArgumentsException,
+            NotEnoughCoinsException,
+            TransferNotStableException {
+        Integer fromAccountBalance = accountsBalance.get(fromAccount);
         if (!active) {
-            throw new ServerAlreadyDeactiveException();
+            throw new ServerNotActiveException();
+        } else if (!isCovered(prevTS)) {
+            throw new TransferNotStableException();
+        } else if (fromAccountBalance == null) {
+            throw new NoSuchAccountException();
+        } else if (amount <= 0) {
+            throw new InvalidArgumentsException();
+        } else if (fromAccountBalance < amount) {
+            throw new NotEnoughCoinsException();
+        }
+    }
+
+    // a new debit is stable on creation (see checkDebit), only copies from peers and the log wait for stability
+    private void executeTransferOut(TransferOutOp operation, boolean recreate) {
+        if (!recreate) {
+            incrementReplicaTS();
+            operation.setTS(operationTS(operation.getPrevTS()));
+            appendToLedger(operation);
+        }
+        accountsBalance.put(operation.getAccount(), accountsBalance.get(operation.getAccount()) - operation.getAmount());
+        valueTS.merge(operation.getTS());
+        appendToExecuted(operation);
+        scheduler.valueTSAdvanced(valueTS);
+        debug("Transfer '" + operation.getAmount() + "' from Account '" + operation.getAccount() + "' to Account '"
+                + operation.getDestAccount() + "' of another shard | valueTS is now " + valueTS);
+    }
+
+    // the destination shard checks the account before the source shard debits it
+    public void prepareCredit(String account) throws ServerNotActiveException, WrongShardException, NoSuchAccountException {
+        lock.readLock().lock();
+        try {
+            if (!active) {
+                throw new ServerNotActiveException();
+            } else if (!ownsAccount(account)) {
+                throw new WrongShardException();
+            } else if (!accountsBalance.containsKey(account)) {
+                throw new NoSuchAccountException();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * Accepts the credit of a transfer debited by another shard, once per transferId whatever the
+     * replica it reaches. prevTS covers what the replicas of this shard answered for the credits
+     * acknowledged before, so the credit is only accepted after those were executed here and
+     * carries acknowledgedSequence to every replica after them (see CreditedTransfers). Returns
+     * the TS the source shard must wait for before relying on this credit.
+     */
+    public VectorClock credit(String transferId, String fromAccount, String destAccount, int amount, VectorClock prevTS,
+            long acknowledgedSequence)
+            throws ServerNotActiveException,
+            WrongShardException,
+            NoSuchAccountException,
+            TransferNotStableException {
+        List<PendingRead> coveredReads = List.of();
+        VectorClock TS;
+        WriteAheadLog log;
+        long logPosition;
+        lock.writeLock().lock();
+        try {
+            if (!active) {
+                throw new ServerNotActiveException();
+            } else if (!ownsAccount(destAccount)) {
+                throw new WrongShardException();
+            } else if (!accountsBalance.containsKey(destAccount)) {
+                throw new NoSuchAccountException();
+            }
+            if (creditedTransfers.contains(transferId)) {
+                TS = valueTS.copy();
+            } else if (ledgerIndex.hasTransferIn(transferId) || !isCovered(prevTS)) {
+                // accepted by another replica and not executed here yet, or ahead of this replica
+                throw new TransferNotStableException();
+            } else {
+                // depends only on what this replica executed, so it is stable at once
+                TransferInOp operation = new TransferInOp(destAccount, fromAccount, amount, transferId, acknowledgedSequence,
+                        valueTS, valueTS);
+                executeTransferIn(operation, false);
+                executeStableOperations();
+                coveredReads = resolveCoveredReads();
+                TS = operation.getTS();
+            }
+            log = wal;
+            logPosition = loggedPosition;
+        } finally {
+            lock.writeLock().unlock();
+            completeReads(coveredReads);
+        }
+        awaitLogged(log, logPosition);
+        return TS;
+    }
+
+    private void executeTransferIn(TransferInOp operation, boolean recreate) {
+        if (!recreate) {
+            incrementReplicaTS();
+            operation.setTS(operationTS(operation.getPrevTS()));
+            appendToLedger(operation);
+            if (!operation.isStable(valueTS)) {
+                scheduler.submit(operation, valueTS);
+                return;
+            }
+        }
+        // two replicas may accept the same credit concurrently, only the first one executed counts
+        if (creditedTransfers.add(operation.getTransferId())) {
+            accountsBalance.put(operation.getAccount(), accountsBalance.get(operation.getAccount()) + operation.getAmount());
+        }
+        creditedTransfers.acknowledge(CreditedTransfers.sourceOf(operation.getTransferId()), operation.getAcknowledgedSequence());
+        valueTS.merge(operation.getTS());
+        appendToExecuted(operation);
+        scheduler.valueTSAdvanced(valueTS);
+        debug("Transfer '" + operation.getAmount() + "' from Account '" + operation.getFromAccount()
+                + "' of another shard to Account '" + operation.getAccount() + "' | valueTS is now " + valueTS);
+    }
+
+    // admin interface
+
+    public void activate() throws ServerAlreadyActiveException {
+        lock.writeLock().lock();
+        try {
+            if (active) {
+                throw new ServerAlreadyActiveException();
+            }
+            active = true;
+        } finally {
+            lock.writeLock().unlock();
         }
-        active = false;
     }
 
-    public synchronized List<Operation> getLedgerState() {
-        return ledger;
+    public void deactivate() throws ServerAlreadyDeactiveException {
+        List<PendingRead> abortedReads;
+        lock.writeLock().lock();
+        try {
+            if (!active) {
+                throw new ServerAlreadyDeactiveException();
+            }
+            active = false;
+            abortedReads = pendingReads.takeAll();
+            for (PendingRead read : abortedReads) {
+                read.fail(new ServerNotActiveException());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        completeReads(abortedReads);
+    }
+
+    public LedgerView getLedgerView() {
+        lock.readLock().lock();
+        try {
+            appendLock.lock();
+            try {
+                return new LedgerView(new ArrayList<>(ledger), compactedOperations, compactedTS.copy());
+            } finally {
+                appendLock.unlock();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     public void gossip() {
         propagateState();
-        synchronized (this) {
-            this.notifyAll();
-        }
+        compact();
     }
 
     // cross server interface
 
-    public synchronized void propagateState() {
-        crossServerService.propagateState(ledger, replicaTS);
+    // only the snapshot is taken under the lock, contacting the peers happens outside of it
+    public void propagateState() {
+        List<Operation> ledgerSnapshot;
+        VectorClock replicaTSSnapshot;
+        lock.readLock().lock();
+        appendLock.lock();
+        try {
+            ledgerSnapshot = new ArrayList<>(ledger);
+            replicaTSSnapshot = replicaTS.copy();
+        } finally {
+            appendLock.unlock();
+            lock.readLock().unlock();
+        }
+        crossServerService.propagateState(ledgerSnapshot, replicaTSSnapshot);
     }
 
     // gossip
 
-    public synchronized void update(List<Operation> newLedger, List<Integer> newReplicaTS)
+    public void update(List<Operation> newLedger, VectorClock newReplicaTS)
             throws ServerNotActiveException {
-        if (!active) {
-            throw new ServerNotActiveException();
+        List<PendingRead> coveredReads = List.of();
+        WriteAheadLog log;
+        long logPosition;
+        lock.writeLock().lock();
+        try {
+            if (!active) {
+                throw new ServerNotActiveException();
+            }
+            mergeLedgerWith(newLedger);
+            replicaTS.merge(newReplicaTS);
+            syncLocalSequence();
+            executeStableOperations();
+            coveredReads = resolveCoveredReads();
+            log = wal;
+            logPosition = loggedPosition;
+        } finally {
+            lock.writeLock().unlock();
+            completeReads(coveredReads);
         }
-        mergeLedgerWith(newLedger);
-        GossipUtilities.mergeTS(replicaTS, newReplicaTS);
-        List<Operation> operationsToExecute = new ArrayList<>();
-        do {
-            operationsToExecute.clear();
-            for (Operation operation : ledger) {
-                if (operation instanceof CreateAccountOp) {
-                    if (!hasAlreadyTheAccountInLog(executedOperations, operation.getAccount())
-                            && operation.isStable(valueTS)) {
-                        operationsToExecute.add(operation);
-                    }
-                    
-                } else if (operation instanceof TransferOp) {
-                    if (!transferAlreadyMadeInLog(executedOperations, operation.getPrevTS())
-                            && operation.isStable(valueTS)) {
-                        operationsToExecute.add(operation);
-                    }
-                }
+        // the sender stops resending what this replica acknowledges, so it must be on disk first
+        awaitLogged(log, logPosition);
+    }
+
+    // applies part of a streamed gossip, the sender's replicaTS is only merged by update when the stream ends
+    public void updateLedger(List<Operation> newLedger) throws ServerNotActiveException {
+        List<PendingRead> coveredReads = List.of();
+        lock.writeLock().lock();
+        try {
+            if (!active) {
+                throw new ServerNotActiveException();
             }
-            Collections.sort(operationsToExecute);
-            for (Operation operation : operationsToExecute) {
-                if (operation instanceof CreateAccountOp) {
+            mergeLedgerWith(newLedger);
+            executeStableOperations();
+            coveredReads = resolveCoveredReads();
+        } finally {
+            lock.writeLock().unlock();
+            completeReads(coveredReads);
+        }
+    }
+
+    public int getPendingReadsCount() {
+        lock.readLock().lock();
+        try {
+            return pendingReads.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getCreditedTransfersCount() {
+        lock.readLock().lock();
+        try {
+            return creditedTransfers.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getPendingOperationsCount() {
+        lock.readLock().lock();
+        try {
+            return scheduler.pendingCount();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void mergeLedgerWith(List<Operation> newLedger) {
+        for (Operation operation : newLedger) {
+            if (!operation.getTS().lessOrEqual(replicaTS)
+                    && !ledgerIndex.contains(operation)) {
+                appendToLedger(operation);
+                scheduler.submit(operation, valueTS);
+            }
+        }
+    }
+
+    // executes the operations the scheduler released, each execution may release further ones
+    private void executeStableOperations() {
+        Operation operation;
+        while ((operation = scheduler.pollReady()) != null) {
+            if (operation instanceof CreateAccountOp) {
+                // the creation may have been compacted away, the account itself never is
+                if (!accountsBalance.containsKey(operation.getAccount())) {
                     executeAccountCreation((CreateAccountOp) operation, true);
-                } else if (operation instanceof TransferOp) {
+                }
+            } else if (operation instanceof TransferOp) {
+                if (!executedIndex.contains(operation)) {
                     executeTransfer((TransferOp) operation, true);
                 }
+            } else if (operation instanceof TransferOutOp) {
+                if (!executedIndex.contains(operation)) {
+                    executeTransferOut((TransferOutOp) operation, true);
+                }
+            } else if (operation instanceof TransferInOp) {
+                if (!executedIndex.contains(operation)) {
+                    executeTransferIn((TransferInOp) operation, true);
+                }
             }
-        } while (!operationsToExecute.isEmpty());
-        this.notifyAll();
+        }
     }
 
-    private void mergeLedgerWith(List<Operation> newLedger) {
-        for (Operation operation : newLedger) {
-            if (!GossipUtilities.TSLessOrEqual(operation.getTS(), replicaTS)
-                    && !transferAlreadyMadeInLog(ledger, operation.getPrevTS())) {
-                ledger.add(operation);
+    // pending reads, resolved under the write lock and completed by the caller once it is released
+
+    private List<PendingRead> resolveCoveredReads() {
+        List<PendingRead> covered = pendingReads.takeCovered(valueTS);
+        for (PendingRead read : covered) {
+            resolveRead(read);
+        }
+        return covered;
+    }
+
+    private void resolveRead(PendingRead read) {
+        try {
+            read.resolve(readBalance(read.getAccount()));
+        } catch (NoSuchAccountException e) {
+            read.fail(e);
+        }
+    }
+
+    private void dropPendingRead(PendingRead read) {
+        lock.writeLock().lock();
+        try {
+            pendingReads.remove(read);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static void completeReads(List<PendingRead> reads) {
+        for (PendingRead read : reads) {
+            read.complete();
+        }
+    }
+
+    // compaction
+
+    // drops the executed operations every other replica of the shard already acknowledged, they are never gossiped again
+    private void compact() {
+        VectorClock executedTS = getValueTS();
+        VectorClock acknowledged = crossServerService.acknowledgedByAllReplicas(executedTS, replicaId);
+        if (acknowledged == null) {
+            return;
+        }
+
+        int compacted = 0;
+        lock.writeLock().lock();
+        try {
+            List<Operation> kept = new ArrayList<>(ledger.size());
+            for (Operation operation : ledger) {
+                if (executedIndex.contains(operation) && operation.getTS().lessOrEqual(acknowledged)
+                        && !awaitsCredit(operation)) {
+                    ledgerIndex.remove(operation);
+                    executedIndex.remove(operation);
+                    compactedTS.merge(operation.getTS());
+                    // a late copy from a peer is filtered by replicaTS instead of the indexes
+                    replicaTS.merge(operation.getTS());
+                    compacted++;
+                } else {
+                    kept.add(operation);
+                }
             }
+            syncLocalSequence();
+            if (compacted > 0) {
+                ledger = kept;
+                executedOperations.removeIf(operation -> !executedIndex.contains(operation));
+                compactedOperations += compacted;
+                debug("compacted " + compacted + " operations | compactedTS is now " + compactedTS);
+            }
+        } finally {
+            lock.writeLock().unlock();
         }
     }
 
-    private void incrementReplicaTS() {
-        replicaTS.set(GossipUtilities.TS_INDEX, replicaTS.get(GossipUtilities.TS_INDEX) + 1);
+    // a debit stays in the ledger, and in the snapshots, until its credit was delivered
+    private boolean awaitsCredit(Operation operation) {
+        if (!(operation instanceof TransferOutOp)) {
+            return false;
+        }
+        String transferId = ((TransferOutOp) operation).getTransferId();
+        return undeliveredCredits.contains(transferId) || (shardService != null && shardService.isPending(transferId));
     }
 
-    public boolean hasAlreadyTheAccountInLog(List<Operation> log, String name) {
-        for (Operation operation : log) {
-            if (operation.getAccount().equals(name)) {
-                return true;
+    // persistence
+
+    /*
+     * Snapshots are taken when the current log outgrows snapshot.walBytes, so recovery replays a
+     * bounded log even on a replica that never compacts (no peers, or a peer that stopped
+     * acknowledging); compaction only makes the ledger saved in the snapshot smaller.
+     */
+    private void queueSnapshot() {
+        if (snapshotQueued.compareAndSet(false, true)) {
+            snapshotExecutor.execute(() -> {
+                snapshotQueued.set(false);
+                takeSnapshot(SNAPSHOT_WAL_BYTES);
+            });
+        }
+    }
+
+    // the new log epoch starts under the lock, so the snapshot holds exactly what the older logs did
+    private void takeSnapshot(long minLogBytes) {
+        snapshotLock.lock();
+        try {
+            Snapshot snapshot;
+            lock.writeLock().lock();
+            try {
+                // another snapshot may have started a new log since this one was queued
+                if (wal == null || wal.size() < minLogBytes) {
+                    return;
+                }
+                long epoch = walEpoch + 1;
+                WriteAheadLog next = WriteAheadLog.open(snapshotStore.walPath(epoch), replicaId,
+                        walSyncIntervalMillis, walSyncBatch, operation -> { });
+                Set<OperationId> executedIds = new HashSet<>();
+                for (Operation operation : executedOperations) {
+                    executedIds.add(OperationId.of(operation));
+                }
+                snapshot = new Snapshot(replicaId, epoch, compactedOperations, compactedTS.copy(), valueTS.copy(),
+                        replicaTS.copy(), new HashMap<>(accountsBalance), new ArrayList<>(ledger), executedIds,
+                        creditedTransfers.copy(), shardService != null ? shardService.getCreditedTS() : restoredCreditedTS);
+                // releases the writers still waiting on the old log
+                wal.close();
+                wal = next;
+                walEpoch = epoch;
+                loggedPosition = 0;
+            } catch (IOException e) {
+                debug("could not start a new log epoch: " + e.getMessage());
+                return;
+            } finally {
+                lock.writeLock().unlock();
             }
+            try {
+                snapshotStore.save(snapshot);
+                snapshotStore.deleteWalsBefore(snapshot.getEpoch());
+            } catch (IOException e) {
+                // the older logs are kept, recovery still replays them
+                debug("could not save snapshot: " + e.getMessage());
+            }
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    // rebuilds the state from the last snapshot and the logs written after it, then logs every operation accepted from now on
+    public void openPersistence(SnapshotStore store, long syncIntervalMillis, int syncBatch) throws IOException {
+        lock.writeLock().lock();
+        try {
+            snapshotStore = store;
+            walSyncIntervalMillis = syncIntervalMillis;
+            walSyncBatch = syncBatch;
+
+            Snapshot snapshot = store.load();
+            if (snapshot != null) {
+                restore(snapshot);
+            }
+            List<Long> epochs = store.walEpochs();
+            long latest = epochs.isEmpty() ? walEpoch : Math.max(walEpoch, epochs.get(epochs.size() - 1));
+            for (long epoch : epochs) {
+                if (epoch >= walEpoch && epoch < latest) {
+                    WriteAheadLog.replayReadOnly(store.walPath(epoch), replicaId, this::recover);
+                }
+            }
+            walEpoch = latest;
+            wal = WriteAheadLog.open(store.walPath(latest), replicaId, syncIntervalMillis, syncBatch, this::recover);
+            // logs older than the snapshot are left behind when a crash interrupts a snapshot
+            store.deleteWalsBefore(snapshot != null ? snapshot.getEpoch() : 0);
+            executeStableOperations();
+            debug("recovered " + ledger.size() + " operations up to epoch " + latest + " | valueTS is now " + valueTS
+                    + " | replicaTS is now " + replicaTS);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void restore(Snapshot snapshot) throws IOException {
+        if (snapshot.getReplicaId() != replicaId) {
+            throw new IOException("snapshot taken as replica " + snapshot.getReplicaId() + " cannot be restored as replica " + replicaId);
+        }
+        accountsBalance.clear();
+        accountsBalance.putAll(snapshot.getBalances());
+        valueTS.merge(snapshot.getValueTS());
+        replicaTS.merge(snapshot.getReplicaTS());
+        syncLocalSequence();
+        compactedOperations = snapshot.getCompactedOperations();
+        compactedTS.merge(snapshot.getCompactedTS());
+        creditedTransfers.addAll(snapshot.getCreditedTransfers());
+        restoredCreditedTS = snapshot.getCreditedTS();
+        for (Operation operation : snapshot.getLedger()) {
+            ledger.add(operation);
+            ledgerIndex.add(operation);
+            if (snapshot.isExecuted(operation)) {
+                appendToExecuted(operation);
+            } else {
+                scheduler.submit(operation, valueTS);
+            }
+        }
+        walEpoch = snapshot.getEpoch();
+        debug("restored " + snapshot);
+    }
+
+    private void recover(Operation operation) {
+        if (!ledgerIndex.contains(operation)) {
+            ledger.add(operation);
+            ledgerIndex.add(operation);
+            replicaTS.merge(operation.getTS());
+            syncLocalSequence();
+            scheduler.submit(operation, valueTS);
+        }
+    }
+
+    public void closeWriteAheadLog() {
+        snapshotExecutor.shutdownNow();
+        lock.writeLock().lock();
+        try {
+            if (wal != null) {
+                wal.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
         }
-        return false;
     }
 
-    public boolean transferAlreadyMadeInLog(List<Operation> log, List<Integer> prevTS) {
-        for (Operation operation : log) {
-            if (operation.getPrevTS().equals(prevTS)) {
-                return true;
+    // group commit, called once the lock is released so other writers keep filling the group
+    private void awaitLogged(WriteAheadLog log, long position) {
+        if (log != null) {
+            log.awaitDurable(position);
+            if (position >= SNAPSHOT_WAL_BYTES) {
+                queueSnapshot();
             }
         }
-        return false;
     }
 
-    private List<Integer> operationTS(List<Integer> prevTS) {
-        List<Integer> newTS = new ArrayList<>(prevTS);
-        newTS.set(GossipUtilities.TS_INDEX, replicaTS.get(GossipUtilities.TS_INDEX));
-        return newTS;
+    // callers hold the write lock, so no concurrent transfer holds a sequence number
+    private void incrementReplicaTS() {
+        replicaTS.set(replicaId, localSequence.incrementAndGet());
+    }
+
+    // ledger and executedOperations are only appended through these, so their indexes stay in sync
+
+    private void appendToLedger(Operation operation) {
+        ledger.add(operation);
+        ledgerIndex.add(operation);
+        if (wal != null) {
+            loggedPosition = wal.append(operation);
+        }
+    }
+
+    private void appendToExecuted(Operation operation) {
+        executedOperations.add(operation);
+        executedIndex.add(operation);
+    }
+
+    public boolean hasAlreadyTheAccountInLog(String name) {
+        lock.readLock().lock();
+        appendLock.lock();
+        try {
+            return executedIndex.hasCreation(name) || ledgerIndex.hasCreation(name);
+        } finally {
+            appendLock.unlock();
+            lock.readLock().unlock();
+        }
+    }
+
+    private VectorClock operationTS(VectorClock prevTS) {
+        return prevTS.with(replicaId, replicaTS.get(replicaId));
     }
 }
\ No newline at end of file
@@ -0,0 +1,90 @@
+package pt.tecnico.distledger.server.domain;
+
+import pt.tecnico.distledger.server.domain.operation.Operation;
+import pt.tecnico.distledger.server.gossip.VectorClock;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/*
+ * Holds the operations of the ledger that were not executed yet. An operation that is not
+ * stable waits on the first entry of its prevTS that valueTS has not reached, so advancing
+ * valueTS only re-checks the operations waiting on the entries that actually moved.
+ * Operations that became stable are handed out in an order compatible with their prevTS.
+ */
+public class StableOperationScheduler {
+
+    // linear extension of the prevTS partial order: a dominated prevTS always has a smaller sum
+    public static final Comparator<Operation> PREV_TS_ORDER = (op1, op2) -> {
+        int result = Integer.compare(op1.getPrevTS().sum(), op2.getPrevTS().sum());
+        return result != 0 ? result : op1.getPrevTS().compareEntries(op2.getPrevTS());
+    };
+
+    // attributes
+
+    private final List<TreeMap<Integer, List<Operation>>> waiting = new ArrayList<>();
+
+    private final PriorityQueue<Operation> ready = new PriorityQueue<>(PREV_TS_ORDER);
+
+    private int waitingCount = 0;
+
+    // scheduling
+
+    public void submit(Operation operation, VectorClock valueTS) {
+        int blockingIndex = operation.getPrevTS().firstExceeding(valueTS);
+        if (blockingIndex < 0) {
+            ready.add(operation);
+        } else {
+            waitOn(blockingIndex, operation);
+        }
+    }
+
+    public void valueTSAdvanced(VectorClock valueTS) {
+        for (int i = 0; i < waiting.size() && i < valueTS.size(); i++) {
+            Map<Integer, List<Operation>> released = waiting.get(i).headMap(valueTS.get(i), true);
+            if (released.isEmpty()) {
+                continue;
+            }
+            List<Operation> operations = new ArrayList<>();
+            for (Iterator<List<Operation>> it = released.values().iterator(); it.hasNext();) {
+                operations.addAll(it.next());
+                it.remove();
+            }
+            waitingCount -= operations.size();
+            for (Operation operation : operations) {
+                submit(operation, valueTS);
+            }
+        }
+    }
+
+    // whether valueTS reaching value at the given entry releases some operation
+    public boolean releasesOn(int index, int value) {
+        if (index >= waiting.size() || waiting.get(index).isEmpty()) {
+            return false;
+        }
+        return waiting.get(index).firstKey() <= value;
+    }
+
+    public Operation pollReady() {
+        return ready.poll();
+    }
+
+    public int pendingCount() {
+        return waitingCount + ready.size();
+    }
+
+    // auxiliary
+
+    private void waitOn(int index, Operation operation) {
+        while (waiting.size() <= index) {
+            waiting.add(new TreeMap<>());
+        }
+        waiting.get(index).computeIfAbsent(operation.getPrevTS().get(index), k -> new ArrayList<>()).add(operation);
+        waitingCount++;
+    }
+}
@@ -1,14 +1,10 @@
 package pt.tecnico.distledger.server.domain.operation;
 
-import java.util.List;
+import pt.tecnico.distledger.server.gossip.VectorClock;
 
 public class CreateAccountOp extends Operation {
 
-    public CreateAccountOp(String account, List<Integer> prevTS) {
-        super(account, prevTS);
-    }
-
-    public CreateAccountOp(String account,  List<Integer> prevTS, List<Integer> TS) {
+    public CreateAccountOp(String account,  VectorClock prevTS, VectorClock TS) {
         super(account, prevTS, TS);
     }
 }
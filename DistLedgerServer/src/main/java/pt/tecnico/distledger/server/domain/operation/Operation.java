@@ -1,47 +1,27 @@
 package pt.tecnico.distledger.server.domain.operation;
 
-import pt.tecnico.distledger.server.gossip.GossipUtilities;
-
-import java.util.List;
-import java.util.ArrayList;
+import pt.tecnico.distledger.server.gossip.VectorClock;
 
 public class Operation implements Comparable<Operation> {
     
     private int i;
     private String account;
-    private List<Integer> TS;
-    private List<Integer> prevTS;
+    private VectorClock TS;
+    private VectorClock prevTS;
 
     private boolean executed;
     public void setExecuted(boolean executed) { this.executed = executed; }
     public boolean isExecuted() { return executed; }
 
-    public Operation(String account, List<Integer> prevTS) {
-        this.account = account;
-        this.prevTS = new ArrayList<>(prevTS);
-        this.TS = deriveTS(this.prevTS);
-        this.executed = false;
-    }
-
-    public Operation(String account, List<Integer> prevTS, List<Integer> TS) {
+    public Operation(String account, VectorClock prevTS, VectorClock TS) {
         this.account = account;
-        this.prevTS = new ArrayList<>(prevTS);
-        this.TS = new ArrayList<>(TS);
+        this.prevTS = prevTS.copy();
+        this.TS = TS.copy();
         this.executed = false;
     }
 
-    private List<Integer> deriveTS(List<Integer> prevTS) {
-        List<Integer> TS = new ArrayList<>(prevTS);
-        TS.set(GossipUtilities.TS_INDEX, TS.get(GossipUtilities.TS_INDEX)+1);
-        return TS;
-    }
-
-    public void deriveTSNow() {
-        this.TS = deriveTS(this.prevTS);
-    }
-
-    public boolean isStable(List<Integer> valueTS) { 
-        return GossipUtilities.TSLessOrEqual(prevTS, valueTS);
+    public boolean isStable(VectorClock valueTS) { 
+        return prevTS.lessOrEqual(valueTS);
     }
 
     public String getAccount() {
@@ -52,19 +32,19 @@ public class Operation implements Comparable<Operation> {
         this.account = account;
     }
 
-    public List<Integer> getPrevTS() {
+    public VectorClock getPrevTS() {
         return prevTS;
     }
 
-    public void setPrevTS(List<Integer> prevTS) {
+    public void setPrevTS(VectorClock prevTS) {
         this.prevTS = prevTS;
     }
 
-    public List<Integer> getTS() {
+    public VectorClock getTS() {
         return TS;
     }
 
-    public void setTS(List<Integer> tS) {
+    public void setTS(VectorClock tS) {
         this.TS = tS;
     }
 
@@ -75,9 +55,9 @@ public class Operation implements Comparable<Operation> {
 
 
     public int compareTo(Operation other) {
-        if (GossipUtilities.TSEqual(this.getPrevTS(), other.getPrevTS())) {
+        if (this.getPrevTS().equals(other.getPrevTS())) {
             return 0;
-        } else if (GossipUtilities.TSLess(other.getPrevTS(), this.getPrevTS())) {
+        } else if (other.getPrevTS().less(this.getPrevTS())) {
             return 1;
         } else {
             return -1;
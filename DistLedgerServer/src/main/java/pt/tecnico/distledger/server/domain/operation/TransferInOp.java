@@ -0,0 +1,37 @@
+package pt.tecnico.distledger.server.domain.operation;
+
+import pt.tecnico.distledger.server.gossip.VectorClock;
+
+// credit of a transfer debited by another shard, the account is the destination one
+public class TransferInOp extends Operation {
+    private String fromAccount;
+    private int amount;
+    private String transferId;
+    // every credit from the same source replica up to this sequence was acknowledged, see CreditedTransfers
+    private long acknowledgedSequence;
+
+    public TransferInOp(String destAccount, String fromAccount, Integer amount, String transferId, long acknowledgedSequence,
+            VectorClock prevTS, VectorClock TS) {
+        super(destAccount, prevTS, TS);
+        this.fromAccount = fromAccount;
+        this.amount = amount;
+        this.transferId = transferId;
+        this.acknowledgedSequence = acknowledgedSequence;
+    }
+
+    public String getFromAccount() {
+        return fromAccount;
+    }
+
+    public int getAmount() {
+        return amount;
+    }
+
+    public String getTransferId() {
+        return transferId;
+    }
+
+    public long getAcknowledgedSequence() {
+        return acknowledgedSequence;
+    }
+}
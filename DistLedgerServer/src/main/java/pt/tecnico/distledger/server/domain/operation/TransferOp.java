@@ -1,18 +1,12 @@
 package pt.tecnico.distledger.server.domain.operation;
 
-import java.util.List;
+import pt.tecnico.distledger.server.gossip.VectorClock;
 
 public class TransferOp extends Operation {
     private String destAccount;
     private int amount;
 
-    public TransferOp(String fromAccount, String destAccount, Integer amount, List<Integer> prevTS) {
-        super(fromAccount, prevTS);
-        this.destAccount = destAccount;
-        this.amount = amount;
-    }
-
-    public TransferOp(String fromAccount, String destAccount, Integer amount, List<Integer> prevTS, List<Integer> TS) {
+    public TransferOp(String fromAccount, String destAccount, Integer amount, VectorClock prevTS, VectorClock TS) {
         super(fromAccount, prevTS, TS);
         this.destAccount = destAccount;
         this.amount = amount;
@@ -0,0 +1,29 @@
+package pt.tecnico.distledger.server.domain.operation;
+
+import pt.tecnico.distledger.server.gossip.VectorClock;
+
+// debit of a transfer whose destination account belongs to another shard, which is credited separately
+public class TransferOutOp extends Operation {
+    private String destAccount;
+    private int amount;
+    private String transferId;
+
+    public TransferOutOp(String fromAccount, String destAccount, Integer amount, String transferId, VectorClock prevTS, VectorClock TS) {
+        super(fromAccount, prevTS, TS);
+        this.destAccount = destAccount;
+        this.amount = amount;
+        this.transferId = transferId;
+    }
+
+    public String getDestAccount() {
+        return destAccount;
+    }
+
+    public int getAmount() {
+        return amount;
+    }
+
+    public String getTransferId() {
+        return transferId;
+    }
+}
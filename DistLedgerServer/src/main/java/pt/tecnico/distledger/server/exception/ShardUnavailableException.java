@@ -0,0 +1,7 @@
+package pt.tecnico.distledger.server.exception;
+
+public class ShardUnavailableException extends Exception {
+    public ShardUnavailableException() {
+        super("Shard of the destination account is unavailable.\n");
+    }
+}
@@ -0,0 +1,7 @@
+package pt.tecnico.distledger.server.exception;
+
+public class TransferNotStableException extends Exception {
+    public TransferNotStableException() {
+        super("Server has not yet caught up with the client, try the transfer again later.\n");
+    }
+}
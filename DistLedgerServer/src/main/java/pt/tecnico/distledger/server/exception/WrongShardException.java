@@ -0,0 +1,7 @@
+package pt.tecnico.distledger.server.exception;
+
+public class WrongShardException extends Exception {
+    public WrongShardException() {
+        super("Account belongs to another shard.\n");
+    }
+}
@@ -0,0 +1,73 @@
+package pt.tecnico.distledger.server.gossip;
+
+import pt.tecnico.distledger.server.domain.ServerState;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+public class GossipScheduler implements AutoCloseable {
+
+    private static final boolean DEBUG_FLAG = (System.getProperty("debug") != null);
+    private static void debug(String debugMessage) { if (DEBUG_FLAG) System.err.println("GossipScheduler: " + debugMessage); }
+
+    // attributes
+
+    private final ServerState serverState;
+
+    private final long intervalMillis;
+
+    private final long jitterMillis;
+
+    private final ScheduledExecutorService executor;
+
+    // constructors
+
+    public GossipScheduler(ServerState serverState, long intervalMillis, long jitterMillis) {
+        this.serverState = serverState;
+        this.intervalMillis = intervalMillis;
+        this.jitterMillis = jitterMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "gossip-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // scheduling
+
+    public boolean isEnabled() {
+        return intervalMillis > 0;
+    }
+
+    public void start() {
+        if (isEnabled()) {
+            scheduleNext();
+            debug("gossiping every " + intervalMillis + "ms (jitter " + jitterMillis + "ms)");
+        }
+    }
+
+    // every round picks its own delay so replicas started together do not keep gossiping in lockstep
+    private void scheduleNext() {
+        long jitter = jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(-jitterMillis, jitterMillis + 1) : 0;
+        executor.schedule(this::round, Math.max(0, intervalMillis + jitter), TimeUnit.MILLISECONDS);
+    }
+
+    private void round() {
+        try {
+            serverState.gossip();
+        } catch (RuntimeException e) {
+            debug("gossip round failed: " + e.getMessage());
+        } finally {
+            if (!executor.isShutdown()) {
+                scheduleNext();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
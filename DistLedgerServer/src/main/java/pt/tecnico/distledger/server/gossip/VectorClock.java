@@ -0,0 +1,191 @@
+package pt.tecnico.distledger.server.gossip;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Vector timestamp backed by a primitive array. Entries past the end of a clock count as zero,
+ * so clocks of different sizes compare and merge as if they were padded. Only valueTS and
+ * replicaTS are advanced in place, the clocks of an operation are never changed once created.
+ */
+public final class VectorClock {
+
+    private int[] entries;
+
+    // constructors
+
+    public VectorClock(int size) {
+        this.entries = new int[size];
+    }
+
+    private VectorClock(int[] entries) {
+        this.entries = entries;
+    }
+
+    public static VectorClock of(int... entries) {
+        return new VectorClock(entries.clone());
+    }
+
+    public static VectorClock fromList(List<Integer> entries) {
+        int[] values = new int[entries.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = entries.get(i);
+        }
+        return new VectorClock(values);
+    }
+
+    public VectorClock copy() {
+        return new VectorClock(entries.clone());
+    }
+
+    // entries
+
+    public int size() {
+        return entries.length;
+    }
+
+    public int get(int index) {
+        return index < entries.length ? entries[index] : 0;
+    }
+
+    public void set(int index, int value) {
+        ensureSize(index + 1);
+        entries[index] = value;
+    }
+
+    public int increment(int index) {
+        ensureSize(index + 1);
+        return ++entries[index];
+    }
+
+    // copy of this clock with a single entry replaced
+    public VectorClock with(int index, int value) {
+        VectorClock clock = new VectorClock(Arrays.copyOf(entries, Math.max(entries.length, index + 1)));
+        clock.entries[index] = value;
+        return clock;
+    }
+
+    public int sum() {
+        int sum = 0;
+        for (int entry : entries) {
+            sum += entry;
+        }
+        return sum;
+    }
+
+    // merging
+
+    public void merge(VectorClock other) {
+        ensureSize(other.entries.length);
+        for (int i = 0; i < other.entries.length; i++) {
+            if (other.entries[i] > entries[i]) {
+                entries[i] = other.entries[i];
+            }
+        }
+    }
+
+    // keeps, entry by entry, the smaller of the two clocks
+    public void retainMin(VectorClock other) {
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = Math.min(entries[i], other.get(i));
+        }
+    }
+
+    // comparison
+
+    public boolean lessOrEqual(VectorClock other) {
+        return firstExceeding(other) < 0;
+    }
+
+    public boolean less(VectorClock other) {
+        return lessOrEqual(other) && !equals(other);
+    }
+
+    public boolean dominates(VectorClock other) {
+        return other.lessOrEqual(this);
+    }
+
+    // first index where this clock is ahead of the other one, -1 if there is none
+    public int firstExceeding(VectorClock other) {
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i] > other.get(i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // entry by entry comparison, only meaningful as a tie breaker between concurrent clocks
+    public int compareEntries(VectorClock other) {
+        int length = Math.max(entries.length, other.entries.length);
+        for (int i = 0; i < length; i++) {
+            int result = Integer.compare(get(i), other.get(i));
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    // conversion
+
+    public List<Integer> toList() {
+        List<Integer> list = new ArrayList<>(entries.length);
+        for (int entry : entries) {
+            list.add(entry);
+        }
+        return list;
+    }
+
+    // auxiliary
+
+    private void ensureSize(int size) {
+        if (entries.length < size) {
+            entries = Arrays.copyOf(entries, size);
+        }
+    }
+
+    private int significantLength() {
+        int length = entries.length;
+        while (length > 0 && entries[length - 1] == 0) {
+            length--;
+        }
+        return length;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof VectorClock)) {
+            return false;
+        }
+        VectorClock other = (VectorClock) obj;
+        int length = significantLength();
+        if (length != other.significantLength()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (entries[i] != other.entries[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (int i = 0, length = significantLength(); i < length; i++) {
+            hash = 31 * hash + entries[i];
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(entries);
+    }
+}
@@ -1,12 +1,18 @@
 package pt.tecnico.distledger.server.grpc;
 
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 
+import pt.tecnico.distledger.common.metrics.MetricsRegistry;
+
 import pt.tecnico.distledger.server.domain.operation.*;
 import pt.tecnico.distledger.server.exception.ServerAlreadyActiveException;
 import pt.tecnico.distledger.server.exception.ServerAlreadyDeactiveException;
+import pt.tecnico.distledger.server.domain.LedgerView;
 import pt.tecnico.distledger.server.domain.ServerState;
+import pt.tecnico.distledger.server.gossip.VectorClock;
 
+import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions.LedgerSnapshot;
 import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions.LedgerState;
 import pt.ulisboa.tecnico.distledger.contract.admin.AdminServiceGrpc;
 import pt.ulisboa.tecnico.distledger.contract.admin.AdminDistLedger.ActivateRequest;
@@ -17,8 +23,13 @@ import pt.ulisboa.tecnico.distledger.contract.admin.AdminDistLedger.GossipReques
 import pt.ulisboa.tecnico.distledger.contract.admin.AdminDistLedger.GossipResponse;
 import pt.ulisboa.tecnico.distledger.contract.admin.AdminDistLedger.getLedgerStateRequest;
 import pt.ulisboa.tecnico.distledger.contract.admin.AdminDistLedger.getLedgerStateResponse;
+import pt.ulisboa.tecnico.distledger.contract.admin.AdminDistLedger.getLedgerStateStreamRequest;
+import pt.ulisboa.tecnico.distledger.contract.admin.AdminDistLedger.getLedgerStateStreamResponse;
+import pt.ulisboa.tecnico.distledger.contract.admin.AdminDistLedger.getMetricsRequest;
+import pt.ulisboa.tecnico.distledger.contract.admin.AdminDistLedger.getMetricsResponse;
 
 import static io.grpc.Status.FAILED_PRECONDITION;
+import static io.grpc.Status.INVALID_ARGUMENT;
 
 
 public class AdminServiceImpl extends AdminServiceGrpc.AdminServiceImplBase {
@@ -26,6 +37,9 @@ public class AdminServiceImpl extends AdminServiceGrpc.AdminServiceImplBase {
     private static final boolean DEBUG_FLAG = (System.getProperty("debug") != null);
     private static void debug(String debugMessage) { if (DEBUG_FLAG) System.err.println("AdminServiceImpl: " + debugMessage); }
 
+    // operations per getLedgerStateStream page, when the admin asks for none or for more
+    private static final int MAX_PAGE_SIZE = Integer.getInteger("ledgerState.pageSize", 1000);
+
     private ServerState serverState;
     
     public AdminServiceImpl(ServerState serverState) {
@@ -65,14 +79,51 @@ public class AdminServiceImpl extends AdminServiceGrpc.AdminServiceImplBase {
     }
     
     @Override
-    public synchronized void getLedgerState(getLedgerStateRequest request, StreamObserver<getLedgerStateResponse> responseObserver) {
+    public void getLedgerState(getLedgerStateRequest request, StreamObserver<getLedgerStateResponse> responseObserver) {
+        LedgerView ledgerView = serverState.getLedgerView();
         LedgerState.Builder ledgerStateBuilder = LedgerState.newBuilder();
-        for (Operation operation : serverState.getLedgerState()) {
+        if (ledgerView.isCompacted()) {
+            ledgerStateBuilder.setSnapshot(LedgerSnapshot.newBuilder()
+                    .setOperations(ledgerView.getCompactedOperations())
+                    .addAllTS(ledgerView.getCompactedTS().toList()));
+        }
+        for (Operation operation : ledgerView.getOperations()) {
             ledgerStateBuilder.addLedger(ServerGrpcUtilities.buildDistLedgerCommonDefinitionsOperation(operation));
         }
         getLedgerStateResponse response = getLedgerStateResponse.newBuilder().setLedgerState(ledgerStateBuilder).build();
         responseObserver.onNext(response);
 		responseObserver.onCompleted();
     }
-}
 
+    @Override
+    public void getLedgerStateStream(getLedgerStateStreamRequest request, StreamObserver<getLedgerStateStreamResponse> responseObserver) {
+        if (request.getPageSize() < 0) {
+            responseObserver.onError(INVALID_ARGUMENT.withDescription("Page size cannot be negative.\n").asRuntimeException());
+            return;
+        }
+        int pageSize = request.getPageSize() > 0 ? Math.min(request.getPageSize(), MAX_PAGE_SIZE) : MAX_PAGE_SIZE;
+        VectorClock fromTS = request.getFromTSCount() > 0 ? VectorClock.fromList(request.getFromTSList()) : null;
+        LedgerView ledgerView = serverState.getLedgerView();
+        int position = 0;
+        if (request.getAfterTSCount() > 0) {
+            position = ledgerView.positionAfter(VectorClock.fromList(request.getAfterTSList()));
+            if (position < 0) {
+                // where it was among the operations left is not known, restarting with fromTS skips what was seen
+                responseObserver.onError(FAILED_PRECONDITION.withDescription(
+                        "The operation to resume after is no longer in the ledger.\n").asRuntimeException());
+                return;
+            }
+        }
+        new LedgerStatePager((ServerCallStreamObserver<getLedgerStateStreamResponse>) responseObserver,
+                ledgerView, position, pageSize, request.getType(), fromTS).start();
+    }
+
+    @Override
+    public void getMetrics(getMetricsRequest request, StreamObserver<getMetricsResponse> responseObserver) {
+        getMetricsResponse response = getMetricsResponse.newBuilder()
+                                                        .setMetrics(MetricsRegistry.getDefault().scrape())
+                                                        .build();
+        responseObserver.onNext(response);
+        responseObserver.onCompleted();
+    }
+}
@@ -1,65 +1,174 @@
 package pt.tecnico.distledger.server.grpc;
 
-import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
+import pt.tecnico.distledger.common.metrics.MetricsRegistry;
 import pt.tecnico.distledger.namingserver.grpc.NamingServerService;
-import pt.tecnico.distledger.namingserver.other.NamingServerUtilities;
 import pt.tecnico.distledger.server.domain.operation.Operation;
-import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions.LedgerState;
+import pt.tecnico.distledger.server.gossip.VectorClock;
 import pt.ulisboa.tecnico.distledger.contract.distledgerserver.CrossServerServiceGrpc;
-import pt.ulisboa.tecnico.distledger.contract.distledgerserver.CrossServerDistLedger.PropagateStateRequest;
+import pt.ulisboa.tecnico.distledger.contract.distledgerserver.CrossServerDistLedger.PropagateStateResponse;
 import io.grpc.StatusRuntimeException;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class CrossServerService implements AutoCloseable {
-    
+
     private static final boolean DEBUG_FLAG = (System.getProperty("debug") != null);
 	private static void debug(String debugMessage) { if (DEBUG_FLAG) System.err.println("CrossServerService: " + debugMessage); }
 
+    // maximum number of operations per gossip message and how long to wait for a peer to acknowledge
+    private static final int CHUNK_SIZE = Integer.getInteger("gossip.chunkSize", 500);
+    private static final long GOSSIP_TIMEOUT_MILLIS = Long.getLong("gossip.timeout", 30000);
+
     private final NamingServerService namingServerService;
 
     private final String sourceServerAddress;
 
-    private ManagedChannel channel;
-    private CrossServerServiceGrpc.CrossServerServiceBlockingStub stub;
+    // naming server service the replicas of this shard are registered under
+    private final String service;
+
+    // last replicaTS each peer acknowledged, operations covered by it are not sent again
+    private final Map<String, VectorClock> peersReplicaTS = new ConcurrentHashMap<>();
+
+    /*
+     * Last replicaTS acknowledged by each replica id, kept when the replica leaves the naming server:
+     * a replica that crashed or was partitioned still needs every operation it did not acknowledge
+     * when it comes back, so compaction waits for it.
+     */
+    private final Map<Integer, VectorClock> acknowledgedByReplica = new ConcurrentHashMap<>();
+
+    private final PeerChannelPool channelPool = new PeerChannelPool();
+
+    // held for a whole round, which waits on the peers, so it is not the monitor a virtual thread would be pinned by
+    private final ReentrantLock roundLock = new ReentrantLock();
+
+    private final ExecutorService peersExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "gossip-peer");
+        thread.setDaemon(true);
+        return thread;
+    });
 
-    public CrossServerService(String sourceServerAddress, NamingServerService namingServerService) {
+    public CrossServerService(String sourceServerAddress, String service, NamingServerService namingServerService) {
         this.sourceServerAddress = sourceServerAddress;
+        this.service = service;
         this.namingServerService = namingServerService;
     }
 
-    private void swapTargetServer(String address) {
-        String host = NamingServerUtilities.parseServerHost(address);
-        int port = NamingServerUtilities.parseServerPort(address);
-        if (channel != null) { this.close(); }
-        this.channel = ManagedChannelBuilder.forAddress(host, port).usePlaintext().build();
-        this.stub = CrossServerServiceGrpc.newBlockingStub(channel);
+    // gossip rounds do not overlap, each round contacts all the peers at the same time
+    public void propagateState(List<Operation> ledger, VectorClock replicaTS) {
+        roundLock.lock();
+        try {
+            propagateRound(ledger, replicaTS);
+        } finally {
+            roundLock.unlock();
+        }
     }
 
-    public void propagateState(List<Operation> ledger, List<Integer> replicaTS) {
-        for (String targetServerAddress : namingServerService.lookup(NamingServerUtilities.DISTLEDGER_SERVICE)) {
+    private void propagateRound(List<Operation> ledger, VectorClock replicaTS) {
+        List<Callable<Void>> peerTasks = new ArrayList<>();
+        List<String> addresses = namingServerService.lookup(service);
+        channelPool.retainOnly(addresses);
+        peersReplicaTS.keySet().retainAll(addresses);
+        for (String targetServerAddress : addresses) {
             if (!sourceServerAddress.equals(targetServerAddress)) {
-                swapTargetServer(targetServerAddress);
-                LedgerState.Builder ledgerStateBuilder = LedgerState.newBuilder();
-                for (Operation operation : ledger) {
-                    ledgerStateBuilder.addLedger(ServerGrpcUtilities.buildDistLedgerCommonDefinitionsOperation(operation));
-                }
-                try {
-                    stub.propagateState(PropagateStateRequest.newBuilder()
-                                                             .setState(ledgerStateBuilder.build())
-                                                             .addAllReplicaTS(replicaTS)
-                                                             .build());
-                } catch (StatusRuntimeException e) {
-                    System.out.println(e.getMessage());
+                peerTasks.add(() -> {
+                    propagateStateTo(targetServerAddress, ledger, replicaTS);
+                    return null;
+                });
+            }
+        }
+        try {
+            peersExecutor.invokeAll(peerTasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void propagateStateTo(String targetServerAddress, List<Operation> ledger, VectorClock replicaTS) {
+        CrossServerServiceGrpc.CrossServerServiceStub stub =
+                CrossServerServiceGrpc.newStub(channelPool.getChannel(targetServerAddress));
+
+        VectorClock peerReplicaTS = peersReplicaTS.get(targetServerAddress);
+        GossipStreamSender sender = new GossipStreamSender(CHUNK_SIZE, replicaTS);
+        try {
+            stub.propagateStateStream(sender);
+            for (Operation operation : ledger) {
+                if (peerReplicaTS == null || !operation.getTS().lessOrEqual(peerReplicaTS)) {
+                    sender.send(operation);
                 }
-                debug("gossiped state to server with address: '" + targetServerAddress + "'");
             }
+            PropagateStateResponse response = sender.finish(GOSSIP_TIMEOUT_MILLIS);
+            if (response != null && response.getReplicaTSCount() > 0) {
+                VectorClock acknowledged = VectorClock.fromList(response.getReplicaTSList());
+                peersReplicaTS.put(targetServerAddress, acknowledged);
+                acknowledgedByReplica.put(response.getReplicaId(), acknowledged);
+            }
+            channelPool.reportSuccess(targetServerAddress);
+            recordRound(targetServerAddress, sender, "ok");
+            debug("gossiped " + sender.getSentOperations() + " operations to server with address: '"
+                    + targetServerAddress + "'");
+        } catch (StatusRuntimeException e) {
+            channelPool.reportFailure(targetServerAddress);
+            recordRound(targetServerAddress, sender, "failed");
+            System.out.println(e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
+    private void recordRound(String peer, GossipStreamSender sender, String result) {
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        metrics.counter("distledger_gossip_rounds_total", "Gossip rounds with each peer, by result.",
+                "source", sourceServerAddress, "peer", peer, "result", result).inc();
+        metrics.counter("distledger_gossip_operations_sent_total", "Operations sent to each peer.",
+                "source", sourceServerAddress, "peer", peer).add(sender.getSentOperations());
+        metrics.counter("distledger_gossip_bytes_sent_total", "Bytes of gossip messages sent to each peer.",
+                "source", sourceServerAddress, "peer", peer).add(sender.getSentBytes());
+    }
+
+    /*
+     * The part of bound acknowledged by every replica id the naming server ever assigned in this
+     * shard, whether or not it is registered now; null while one of them has not acknowledged
+     * anything, or the ids could not be asked for.
+     */
+    public VectorClock acknowledgedByAllReplicas(VectorClock bound, int replicaId) {
+        List<Integer> replicaIds;
+        try {
+            replicaIds = namingServerService.replicaIds(service);
+        } catch (StatusRuntimeException e) {
+            debug("could not get the replica ids: " + e.getMessage());
+            return null;
+        }
+        VectorClock acknowledged = bound.copy();
+        boolean hasPeers = false;
+        for (int peerReplicaId : replicaIds) {
+            if (peerReplicaId == replicaId) {
+                continue;
+            }
+            VectorClock peerReplicaTS = acknowledgedByReplica.get(peerReplicaId);
+            if (peerReplicaTS == null) {
+                return null;
+            }
+            acknowledged.retainMin(peerReplicaTS);
+            hasPeers = true;
+        }
+        // a replica that registers later could not get the operations back
+        return hasPeers ? acknowledged : null;
+    }
+
+    public Map<String, PeerChannelPool.PeerHealth> getPeersHealth() {
+        return channelPool.getHealth();
+    }
+
     @Override
 	public final void close() {
-		channel.shutdown();
+		peersExecutor.shutdownNow();
+		channelPool.close();
 	}
 }
@@ -2,13 +2,25 @@ package pt.tecnico.distledger.server.grpc;
 
 import io.grpc.stub.StreamObserver;
 import pt.tecnico.distledger.server.domain.ServerState;
+import pt.ulisboa.tecnico.distledger.contract.distledgerserver.CrossServerDistLedger.CreditRequest;
+import pt.ulisboa.tecnico.distledger.contract.distledgerserver.CrossServerDistLedger.CreditResponse;
+import pt.ulisboa.tecnico.distledger.contract.distledgerserver.CrossServerDistLedger.PrepareCreditRequest;
+import pt.ulisboa.tecnico.distledger.contract.distledgerserver.CrossServerDistLedger.PrepareCreditResponse;
+import pt.ulisboa.tecnico.distledger.contract.distledgerserver.CrossServerDistLedger.PropagateStateChunk;
 import pt.ulisboa.tecnico.distledger.contract.distledgerserver.CrossServerDistLedger.PropagateStateRequest;
 import pt.ulisboa.tecnico.distledger.contract.distledgerserver.CrossServerDistLedger.PropagateStateResponse;
 import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions;
 import pt.ulisboa.tecnico.distledger.contract.distledgerserver.CrossServerServiceGrpc;
+import pt.tecnico.distledger.server.exception.NoSuchAccountException;
 import pt.tecnico.distledger.server.exception.ServerNotActiveException;
+import pt.tecnico.distledger.server.exception.TransferNotStableException;
+import pt.tecnico.distledger.server.exception.WrongShardException;
 import pt.tecnico.distledger.server.domain.operation.*;
+import pt.tecnico.distledger.server.gossip.VectorClock;
 
+import static io.grpc.Status.ABORTED;
+import static io.grpc.Status.FAILED_PRECONDITION;
+import static io.grpc.Status.NOT_FOUND;
 import static io.grpc.Status.UNAVAILABLE;
 
 import java.util.ArrayList;
@@ -32,12 +44,105 @@ public class CrossServerServiceImpl extends CrossServerServiceGrpc.CrossServerSe
             newLedger.add(ServerGrpcUtilities.buildOperation(ledger));
         }
         try {
-            serverState.update(newLedger, request.getReplicaTSList());
-            PropagateStateResponse response = PropagateStateResponse.newBuilder().build();
+            serverState.update(newLedger, VectorClock.fromList(request.getReplicaTSList()));
+            PropagateStateResponse response = PropagateStateResponse.newBuilder()
+                                                                     .addAllReplicaTS(serverState.getReplicaTS().toList())
+                                                                     .setReplicaId(serverState.getReplicaId())
+                                                                     .build();
             responseObserver.onNext(response);
 		    responseObserver.onCompleted();
         } catch (ServerNotActiveException e) {
             responseObserver.onError(UNAVAILABLE.asRuntimeException());
         }
     }
+
+    @Override
+    public StreamObserver<PropagateStateChunk> propagateStateStream(StreamObserver<PropagateStateResponse> responseObserver) {
+        return new StreamObserver<PropagateStateChunk>() {
+
+            private VectorClock newReplicaTS = new VectorClock(0);
+
+            private boolean failed = false;
+
+            @Override
+            public void onNext(PropagateStateChunk chunk) {
+                if (failed) {
+                    return;
+                }
+                List<Operation> newLedger = new ArrayList<>();
+                for (DistLedgerCommonDefinitions.Operation ledger : chunk.getState().getLedgerList()) {
+                    newLedger.add(ServerGrpcUtilities.buildOperation(ledger));
+                }
+                if (chunk.getReplicaTSCount() > 0) {
+                    newReplicaTS = VectorClock.fromList(chunk.getReplicaTSList());
+                }
+                try {
+                    serverState.updateLedger(newLedger);
+                    debug("applied gossip chunk with " + newLedger.size() + " operations");
+                } catch (ServerNotActiveException e) {
+                    failed = true;
+                    responseObserver.onError(UNAVAILABLE.asRuntimeException());
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                debug("gossip stream aborted: " + t.getMessage());
+            }
+
+            @Override
+            public void onCompleted() {
+                if (failed) {
+                    return;
+                }
+                try {
+                    serverState.update(new ArrayList<>(), newReplicaTS);
+                    PropagateStateResponse response = PropagateStateResponse.newBuilder()
+                                                                             .addAllReplicaTS(serverState.getReplicaTS().toList())
+                                                                             .setReplicaId(serverState.getReplicaId())
+                                                                             .build();
+                    responseObserver.onNext(response);
+                    responseObserver.onCompleted();
+                } catch (ServerNotActiveException e) {
+                    responseObserver.onError(UNAVAILABLE.asRuntimeException());
+                }
+            }
+        };
+    }
+
+    // cross-shard transfers
+
+    @Override
+    public void prepareCredit(PrepareCreditRequest request, StreamObserver<PrepareCreditResponse> responseObserver) {
+        try {
+            serverState.prepareCredit(request.getAccount());
+            responseObserver.onNext(PrepareCreditResponse.getDefaultInstance());
+            responseObserver.onCompleted();
+        } catch (ServerNotActiveException e) {
+            responseObserver.onError(UNAVAILABLE.withDescription(e.getMessage()).asRuntimeException());
+        } catch (WrongShardException e) {
+            responseObserver.onError(FAILED_PRECONDITION.withDescription(e.getMessage()).asRuntimeException());
+        } catch (NoSuchAccountException e) {
+            responseObserver.onError(NOT_FOUND.withDescription(e.getMessage()).asRuntimeException());
+        }
+    }
+
+    @Override
+    public void credit(CreditRequest request, StreamObserver<CreditResponse> responseObserver) {
+        try {
+            VectorClock TS = serverState.credit(request.getTransferId(), request.getAccountFrom(), request.getAccountTo(),
+                    request.getAmount(), VectorClock.fromList(request.getPrevTSList()), request.getAcknowledgedSequence());
+            debug("credited transfer '" + request.getTransferId() + "'");
+            responseObserver.onNext(CreditResponse.newBuilder().addAllTS(TS.toList()).build());
+            responseObserver.onCompleted();
+        } catch (ServerNotActiveException e) {
+            responseObserver.onError(UNAVAILABLE.withDescription(e.getMessage()).asRuntimeException());
+        } catch (WrongShardException e) {
+            responseObserver.onError(FAILED_PRECONDITION.withDescription(e.getMessage()).asRuntimeException());
+        } catch (NoSuchAccountException e) {
+            responseObserver.onError(NOT_FOUND.withDescription(e.getMessage()).asRuntimeException());
+        } catch (TransferNotStableException e) {
+            responseObserver.onError(ABORTED.withDescription(e.getMessage()).asRuntimeException());
+        }
+    }
 }
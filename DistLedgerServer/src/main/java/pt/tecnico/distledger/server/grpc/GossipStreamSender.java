@@ -0,0 +1,173 @@
+package pt.tecnico.distledger.server.grpc;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import pt.tecnico.distledger.server.domain.operation.Operation;
+import pt.tecnico.distledger.server.gossip.VectorClock;
+import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions.LedgerState;
+import pt.ulisboa.tecnico.distledger.contract.distledgerserver.CrossServerDistLedger.PropagateStateChunk;
+import pt.ulisboa.tecnico.distledger.contract.distledgerserver.CrossServerDistLedger.PropagateStateResponse;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Client side of one propagateStateStream call. Operations are sent in chunks of at most
+ * chunkSize and the sender waits for the transport to be ready before building the next
+ * chunk, so at most one chunk per peer is held in memory while gossiping.
+ */
+public class GossipStreamSender implements ClientResponseObserver<PropagateStateChunk, PropagateStateResponse> {
+
+    private static final long READY_POLL_MILLIS = 100;
+
+    // attributes
+
+    private final int chunkSize;
+
+    private final VectorClock replicaTS;
+
+    private ClientCallStreamObserver<PropagateStateChunk> requestStream;
+
+    private LedgerState.Builder chunkBuilder = LedgerState.newBuilder();
+
+    private int sentOperations = 0;
+
+    private long sentBytes = 0;
+
+    private PropagateStateResponse response;
+
+    private Throwable error;
+
+    private boolean done = false;
+
+    // a lock rather than the monitor, so a sender waiting on a virtual thread does not pin its carrier
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // signalled when the transport becomes ready or the call ends
+    private final Condition changed = lock.newCondition();
+
+    // constructors
+
+    public GossipStreamSender(int chunkSize, VectorClock replicaTS) {
+        this.chunkSize = chunkSize;
+        this.replicaTS = replicaTS;
+    }
+
+    // sending
+
+    public void send(Operation operation) throws StatusRuntimeException {
+        chunkBuilder.addLedger(ServerGrpcUtilities.buildDistLedgerCommonDefinitionsOperation(operation));
+        if (chunkBuilder.getLedgerCount() >= chunkSize) {
+            flush();
+        }
+    }
+
+    public PropagateStateResponse finish(long timeoutMillis) throws StatusRuntimeException, InterruptedException {
+        flush();
+        requestStream.onCompleted();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        lock.lock();
+        try {
+            while (!done && System.currentTimeMillis() < deadline) {
+                changed.await(READY_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            if (!done) {
+                requestStream.cancel("gossip timed out", null);
+                throw Status.DEADLINE_EXCEEDED.withDescription("gossip timed out").asRuntimeException();
+            }
+            if (error != null) {
+                throw Status.fromThrowable(error).asRuntimeException();
+            }
+            return response;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getSentOperations() {
+        return sentOperations;
+    }
+
+    public long getSentBytes() {
+        return sentBytes;
+    }
+
+    private void flush() throws StatusRuntimeException {
+        lock.lock();
+        try {
+            while (!done && !requestStream.isReady()) {
+                try {
+                    changed.await(READY_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    requestStream.cancel("gossip interrupted", e);
+                    throw Status.CANCELLED.withDescription("gossip interrupted").asRuntimeException();
+                }
+            }
+            if (error != null) {
+                throw Status.fromThrowable(error).asRuntimeException();
+            }
+        } finally {
+            lock.unlock();
+        }
+        PropagateStateChunk chunk = PropagateStateChunk.newBuilder()
+                                                       .setState(chunkBuilder.build())
+                                                       .addAllReplicaTS(replicaTS.toList())
+                                                       .build();
+        requestStream.onNext(chunk);
+        sentOperations += chunkBuilder.getLedgerCount();
+        sentBytes += chunk.getSerializedSize();
+        chunkBuilder = LedgerState.newBuilder();
+    }
+
+    // response observer
+
+    @Override
+    public void beforeStart(ClientCallStreamObserver<PropagateStateChunk> requestStream) {
+        this.requestStream = requestStream;
+        requestStream.setOnReadyHandler(() -> {
+            lock.lock();
+            try {
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    @Override
+    public void onNext(PropagateStateResponse response) {
+        lock.lock();
+        try {
+            this.response = response;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        lock.lock();
+        try {
+            this.error = t;
+            this.done = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onCompleted() {
+        lock.lock();
+        try {
+            this.done = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
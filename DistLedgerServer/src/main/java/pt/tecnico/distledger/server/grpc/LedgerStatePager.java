@@ -0,0 +1,95 @@
+package pt.tecnico.distledger.server.grpc;
+
+import io.grpc.stub.ServerCallStreamObserver;
+import pt.tecnico.distledger.server.domain.LedgerView;
+import pt.tecnico.distledger.server.domain.operation.Operation;
+import pt.tecnico.distledger.server.gossip.VectorClock;
+import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions.LedgerSnapshot;
+import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions.OperationType;
+import pt.ulisboa.tecnico.distledger.contract.admin.AdminDistLedger.getLedgerStateStreamResponse;
+
+import java.util.List;
+
+/*
+ * Server side of one getLedgerStateStream call. Pages are cut from a copy of the ledger taken when
+ * the call started and built only while the transport is ready, so a slow admin holds at most one
+ * page in memory and never the state lock. Each page ends with the TS of the last operation looked
+ * at, filtered out or not, and a later call resumes right after that operation. Compaction removes
+ * operations from anywhere in the ledger, so positions are not kept across calls.
+ */
+public class LedgerStatePager implements Runnable {
+
+    private final ServerCallStreamObserver<getLedgerStateStreamResponse> responseObserver;
+
+    private final LedgerView ledgerView;
+
+    private final int pageSize;
+
+    private final OperationType type;
+
+    // null when every operation is wanted
+    private final VectorClock fromTS;
+
+    // next operation of the view to look at
+    private int position;
+
+    private boolean firstPage = true;
+
+    private boolean done = false;
+
+    public LedgerStatePager(ServerCallStreamObserver<getLedgerStateStreamResponse> responseObserver, LedgerView ledgerView,
+            int position, int pageSize, OperationType type, VectorClock fromTS) {
+        this.responseObserver = responseObserver;
+        this.ledgerView = ledgerView;
+        this.pageSize = pageSize;
+        this.type = type;
+        this.fromTS = fromTS;
+        this.position = position;
+    }
+
+    public void start() {
+        responseObserver.setOnCancelHandler(() -> {
+            synchronized (this) {
+                done = true;
+            }
+        });
+        responseObserver.setOnReadyHandler(this);
+        run();
+    }
+
+    // called again by gRPC every time the transport can take more
+    @Override
+    public synchronized void run() {
+        List<Operation> operations = ledgerView.getOperations();
+        while (!done && responseObserver.isReady()) {
+            getLedgerStateStreamResponse.Builder page = getLedgerStateStreamResponse.newBuilder();
+            if (firstPage && ledgerView.isCompacted()) {
+                page.setSnapshot(LedgerSnapshot.newBuilder()
+                                               .setOperations(ledgerView.getCompactedOperations())
+                                               .addAllTS(ledgerView.getCompactedTS().toList()));
+            }
+            firstPage = false;
+            while (position < operations.size() && page.getLedgerCount() < pageSize) {
+                Operation operation = operations.get(position++);
+                if (matches(operation)) {
+                    page.addLedger(ServerGrpcUtilities.buildDistLedgerCommonDefinitionsOperation(operation));
+                }
+            }
+            if (position > 0) {
+                page.addAllNextAfterTS(operations.get(position - 1).getTS().toList());
+            }
+            responseObserver.onNext(page.build());
+            if (position >= operations.size()) {
+                done = true;
+                responseObserver.onCompleted();
+            }
+        }
+    }
+
+    private boolean matches(Operation operation) {
+        if (type != OperationType.OP_UNSPECIFIED && ServerGrpcUtilities.operationType(operation) != type) {
+            return false;
+        }
+        return fromTS == null || !operation.getTS().lessOrEqual(fromTS);
+    }
+}
@@ -0,0 +1,137 @@
+package pt.tecnico.distledger.server.grpc;
+
+import io.grpc.ConnectivityState;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import pt.tecnico.distledger.namingserver.other.NamingServerUtilities;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Long-lived channels to the other replicas, keyed by address. A channel is reused across
+ * gossip rounds and only rebuilt when it was shut down or kept failing, and it is closed
+ * once the naming server stops listing its peer.
+ */
+public class PeerChannelPool implements AutoCloseable {
+
+    private static final boolean DEBUG_FLAG = (System.getProperty("debug") != null);
+    private static void debug(String debugMessage) { if (DEBUG_FLAG) System.err.println("PeerChannelPool: " + debugMessage); }
+
+    // consecutive failures after which a channel still failing to connect is replaced
+    private static final int MAX_CONSECUTIVE_FAILURES = 3;
+
+    public static class PeerHealth {
+
+        private int consecutiveFailures = 0;
+
+        private long lastSuccessMillis = 0;
+
+        private long lastFailureMillis = 0;
+
+        public synchronized int getConsecutiveFailures() {
+            return consecutiveFailures;
+        }
+
+        public synchronized long getLastSuccessMillis() {
+            return lastSuccessMillis;
+        }
+
+        public synchronized long getLastFailureMillis() {
+            return lastFailureMillis;
+        }
+
+        public synchronized boolean isHealthy() {
+            return consecutiveFailures == 0;
+        }
+
+        private synchronized void success() {
+            consecutiveFailures = 0;
+            lastSuccessMillis = System.currentTimeMillis();
+        }
+
+        private synchronized int failure() {
+            lastFailureMillis = System.currentTimeMillis();
+            return ++consecutiveFailures;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "PeerHealth [consecutiveFailures=" + consecutiveFailures + ", lastSuccessMillis=" + lastSuccessMillis
+                    + ", lastFailureMillis=" + lastFailureMillis + "]";
+        }
+    }
+
+    // attributes
+
+    private final Map<String, ManagedChannel> channels = new ConcurrentHashMap<>();
+
+    private final Map<String, PeerHealth> health = new ConcurrentHashMap<>();
+
+    // pool interface
+
+    public ManagedChannel getChannel(String address) {
+        return channels.compute(address, (peer, channel) -> {
+            if (channel == null || channel.isShutdown()) {
+                debug("opening channel to '" + peer + "'");
+                return ManagedChannelBuilder.forAddress(NamingServerUtilities.parseServerHost(peer),
+                        NamingServerUtilities.parseServerPort(peer)).usePlaintext().build();
+            }
+            return channel;
+        });
+    }
+
+    // closes the channels of peers that are no longer registered
+    public void retainOnly(Collection<String> addresses) {
+        Set<String> evicted = new HashSet<>(channels.keySet());
+        evicted.removeAll(addresses);
+        for (String address : evicted) {
+            ManagedChannel channel = channels.remove(address);
+            health.remove(address);
+            if (channel != null) {
+                channel.shutdown();
+                debug("evicted channel to '" + address + "'");
+            }
+        }
+    }
+
+    public void reportSuccess(String address) {
+        getHealth(address).success();
+    }
+
+    public void reportFailure(String address) {
+        int failures = getHealth(address).failure();
+        ManagedChannel channel = channels.get(address);
+        if (channel == null) {
+            return;
+        }
+        if (failures >= MAX_CONSECUTIVE_FAILURES
+                && channel.getState(false) == ConnectivityState.TRANSIENT_FAILURE
+                && channels.remove(address, channel)) {
+            channel.shutdown();
+            debug("recycled channel to '" + address + "' after " + failures + " failures");
+        } else {
+            // try to reconnect on the next round instead of waiting for the channel's own backoff
+            channel.resetConnectBackoff();
+        }
+    }
+
+    public PeerHealth getHealth(String address) {
+        return health.computeIfAbsent(address, peer -> new PeerHealth());
+    }
+
+    public Map<String, PeerHealth> getHealth() {
+        return Map.copyOf(health);
+    }
+
+    @Override
+    public void close() {
+        for (ManagedChannel channel : channels.values()) {
+            channel.shutdown();
+        }
+        channels.clear();
+    }
+}
@@ -0,0 +1,106 @@
+package pt.tecnico.distledger.server.grpc;
+
+import pt.tecnico.distledger.common.metrics.Counter;
+import pt.tecnico.distledger.common.metrics.MetricsRegistry;
+import pt.tecnico.distledger.server.domain.QueuedWrite;
+import pt.tecnico.distledger.server.domain.ServerState;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Coalesces the createAccount and transferTo calls of many clients. A single applier thread takes
+ * the queued writes in batches of up to maxSize, waiting at most lingerMicros after the first one
+ * for others to arrive, and applies each batch with ServerState.applyBatch: one lock acquisition
+ * and one wait for the log per batch instead of per call.
+ */
+public class RequestBatcher implements AutoCloseable {
+
+    private static final boolean DEBUG_FLAG = (System.getProperty("debug") != null);
+    private static void debug(String debugMessage) { if (DEBUG_FLAG) System.err.println("RequestBatcher: " + debugMessage); }
+
+    private final ServerState serverState;
+
+    private final int maxSize;
+
+    private final long lingerNanos;
+
+    private final BlockingQueue<QueuedWrite> queue = new LinkedBlockingQueue<>();
+
+    private final Counter batches;
+
+    private final Thread applier;
+
+    private volatile boolean closed = false;
+
+    public RequestBatcher(ServerState serverState, int maxSize, long lingerMicros) {
+        this.serverState = serverState;
+        this.maxSize = maxSize;
+        this.lingerNanos = TimeUnit.MICROSECONDS.toNanos(lingerMicros);
+        MetricsRegistry metrics = MetricsRegistry.getDefault();
+        this.batches = metrics.counter("distledger_write_batches_total",
+                "Batches of coalesced createAccount and transferTo calls applied.", "replica", serverState.getQualifer());
+        metrics.gauge("distledger_write_batch_queued", "Writes waiting for the next batch.", queue::size,
+                "replica", serverState.getQualifer());
+        this.applier = new Thread(this::applyBatches, "request-batcher");
+        applier.setDaemon(true);
+        applier.start();
+    }
+
+    public void submit(QueuedWrite write) {
+        if (closed) {
+            write.getResult().completeExceptionally(new IllegalStateException("Server is shutting down.\n"));
+            return;
+        }
+        queue.add(write);
+    }
+
+    private void applyBatches() {
+        List<QueuedWrite> batch = new ArrayList<>(maxSize);
+        try {
+            while (!closed) {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + lingerNanos;
+                queue.drainTo(batch, maxSize - batch.size());
+                while (batch.size() < maxSize) {
+                    QueuedWrite next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, maxSize - batch.size());
+                }
+                apply(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // writes still queued when closing fail instead of leaving their clients waiting
+        batch.addAll(queue);
+        for (QueuedWrite write : batch) {
+            write.getResult().completeExceptionally(new IllegalStateException("Server is shutting down.\n"));
+        }
+    }
+
+    private void apply(List<QueuedWrite> batch) {
+        try {
+            serverState.applyBatch(batch);
+        } catch (RuntimeException e) {
+            for (QueuedWrite write : batch) {
+                write.getResult().completeExceptionally(e);
+            }
+        }
+        batches.inc();
+        debug("applied a batch of " + batch.size() + " writes");
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        applier.interrupt();
+    }
+}
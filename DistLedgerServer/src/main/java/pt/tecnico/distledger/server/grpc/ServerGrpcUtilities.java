@@ -2,11 +2,27 @@ package pt.tecnico.distledger.server.grpc;
 
 import pt.tecnico.distledger.server.domain.operation.Operation;
 import pt.tecnico.distledger.server.domain.operation.CreateAccountOp;
+import pt.tecnico.distledger.server.domain.operation.TransferInOp;
 import pt.tecnico.distledger.server.domain.operation.TransferOp;
+import pt.tecnico.distledger.server.domain.operation.TransferOutOp;
+import pt.tecnico.distledger.server.gossip.VectorClock;
 import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions;
 import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions.OperationType;
 
 public class ServerGrpcUtilities {    
+    public static OperationType operationType(Operation operation) {
+        if (operation instanceof CreateAccountOp) {
+            return OperationType.OP_CREATE_ACCOUNT;
+        } else if (operation instanceof TransferOp) {
+            return OperationType.OP_TRANSFER_TO;
+        } else if (operation instanceof TransferOutOp) {
+            return OperationType.OP_TRANSFER_OUT;
+        } else if (operation instanceof TransferInOp) {
+            return OperationType.OP_TRANSFER_IN;
+        }
+        return OperationType.OP_UNSPECIFIED;
+    }
+
     public static DistLedgerCommonDefinitions.Operation buildDistLedgerCommonDefinitionsOperation(Operation operation) {
         DistLedgerCommonDefinitions.Operation.Builder ledgerBuilder = DistLedgerCommonDefinitions.Operation.newBuilder();
         if (operation instanceof CreateAccountOp) {
@@ -18,25 +34,51 @@ public class ServerGrpcUtilities {
                          .setUserId(transferOp.getAccount())
                          .setDestUserId(transferOp.getDestAccount())
                          .setAmount(transferOp.getAmount());
+        } else if (operation instanceof TransferOutOp) {
+            TransferOutOp transferOutOp = (TransferOutOp) operation;
+            ledgerBuilder.setType(OperationType.OP_TRANSFER_OUT)
+                         .setUserId(transferOutOp.getAccount())
+                         .setDestUserId(transferOutOp.getDestAccount())
+                         .setAmount(transferOutOp.getAmount())
+                         .setTransferId(transferOutOp.getTransferId());
+        } else if (operation instanceof TransferInOp) {
+            TransferInOp transferInOp = (TransferInOp) operation;
+            ledgerBuilder.setType(OperationType.OP_TRANSFER_IN)
+                         .setUserId(transferInOp.getFromAccount())
+                         .setDestUserId(transferInOp.getAccount())
+                         .setAmount(transferInOp.getAmount())
+                         .setTransferId(transferInOp.getTransferId())
+                         .setAcknowledgedSequence(transferInOp.getAcknowledgedSequence());
         } else {
             ledgerBuilder.setType(OperationType.OP_UNSPECIFIED);
         }
-        ledgerBuilder.addAllPrevTS(operation.getPrevTS())
-                     .addAllTS(operation.getTS());
+        VectorClock prevTS = operation.getPrevTS();
+        for (int i = 0; i < prevTS.size(); i++) {
+            ledgerBuilder.addPrevTS(prevTS.get(i));
+        }
+        VectorClock TS = operation.getTS();
+        for (int i = 0; i < TS.size(); i++) {
+            ledgerBuilder.addTS(TS.get(i));
+        }
         return ledgerBuilder.build();
     }
 
     public static Operation buildOperation(DistLedgerCommonDefinitions.Operation ledger) {
         Operation operation;
+        VectorClock prevTS = VectorClock.fromList(ledger.getPrevTSList());
+        VectorClock TS = VectorClock.fromList(ledger.getTSList());
         if (ledger.getType() == OperationType.OP_CREATE_ACCOUNT) {
-            operation = new CreateAccountOp(ledger.getUserId(), ledger.getPrevTSList(), ledger.getTSList());
+            operation = new CreateAccountOp(ledger.getUserId(), prevTS, TS);
         } else if (ledger.getType() == OperationType.OP_TRANSFER_TO) {
-            operation = new TransferOp(ledger.getUserId(), ledger.getDestUserId(), ledger.getAmount(), ledger.getPrevTSList(), ledger.getTSList());
+            operation = new TransferOp(ledger.getUserId(), ledger.getDestUserId(), ledger.getAmount(), prevTS, TS);
+        } else if (ledger.getType() == OperationType.OP_TRANSFER_OUT) {
+            operation = new TransferOutOp(ledger.getUserId(), ledger.getDestUserId(), ledger.getAmount(), ledger.getTransferId(), prevTS, TS);
+        } else if (ledger.getType() == OperationType.OP_TRANSFER_IN) {
+            operation = new TransferInOp(ledger.getDestUserId(), ledger.getUserId(), ledger.getAmount(), ledger.getTransferId(),
+                    ledger.getAcknowledgedSequence(), prevTS, TS);
         } else {
             operation = null;
         }
-        operation.setPrevTS(ledger.getPrevTSList());
-        operation.setTS(ledger.getTSList());
         return operation;
     }
 }
@@ -0,0 +1,235 @@
+package pt.tecnico.distledger.server.grpc;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import pt.tecnico.distledger.common.metrics.MetricsRegistry;
+import pt.tecnico.distledger.namingserver.grpc.NamingServerService;
+import pt.tecnico.distledger.namingserver.other.ShardMap;
+import pt.tecnico.distledger.server.domain.CreditedTransfers;
+import pt.tecnico.distledger.server.domain.operation.TransferOutOp;
+import pt.tecnico.distledger.server.exception.NoSuchDestinationAccountException;
+import pt.tecnico.distledger.server.exception.ShardUnavailableException;
+import pt.tecnico.distledger.server.gossip.VectorClock;
+import pt.ulisboa.tecnico.distledger.contract.distledgerserver.CrossServerDistLedger.CreditRequest;
+import pt.ulisboa.tecnico.distledger.contract.distledgerserver.CrossServerDistLedger.CreditResponse;
+import pt.ulisboa.tecnico.distledger.contract.distledgerserver.CrossServerDistLedger.PrepareCreditRequest;
+import pt.ulisboa.tecnico.distledger.contract.distledgerserver.CrossServerServiceGrpc;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Talks to the replicas of the other shards on behalf of cross-shard transfers. The source shard
+ * checks the destination account exists, debits the source with a TransferOutOp and then delivers
+ * the credit; credits that could not be delivered stay in an outbox and are retried until a
+ * replica of the destination shard acknowledges them. Each credit also tells the destination up to
+ * which sequence the credits of this replica were acknowledged, together with the TS the
+ * destination answered for them, so the destination can forget their transfer ids.
+ */
+public class ShardService implements AutoCloseable {
+
+    private static final boolean DEBUG_FLAG = (System.getProperty("debug") != null);
+    private static void debug(String debugMessage) { if (DEBUG_FLAG) System.err.println("ShardService: " + debugMessage); }
+
+    private static final long CALL_TIMEOUT_MILLIS = 5000;
+
+    private final ShardMap shards;
+
+    private final NamingServerService namingServerService;
+
+    private final PeerChannelPool channelPool = new PeerChannelPool();
+
+    // debits whose credit was not acknowledged yet, by transfer id
+    private final Map<String, TransferOutOp> outbox = new ConcurrentHashMap<>();
+
+    // credits sent to one shard, guarded by itself
+    private static class Destination {
+
+        // merge of the TS the replicas of the shard answered, a replica only accepts a credit once it covers it
+        private final VectorClock creditedTS = new VectorClock(0);
+
+        // sequences of the debits registered here whose credit was not acknowledged yet
+        private final NavigableSet<Long> unacknowledged = new TreeSet<>();
+
+        private long lastRegistered = 0;
+
+        // every debit registered up to it was acknowledged, sequences are given in the order debits are registered
+        private long acknowledgedSequence() {
+            return unacknowledged.isEmpty() ? lastRegistered : unacknowledged.first() - 1;
+        }
+    }
+
+    private final Destination[] destinations;
+
+    private final ScheduledExecutorService retryExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "shard-outbox");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ShardService(ShardMap shards, NamingServerService namingServerService, long retryIntervalMillis, String qualifier) {
+        this.shards = shards;
+        this.namingServerService = namingServerService;
+        this.destinations = new Destination[shards.getCount()];
+        for (int shard = 0; shard < destinations.length; shard++) {
+            destinations[shard] = new Destination();
+        }
+        retryExecutor.scheduleWithFixedDelay(this::retryPending, retryIntervalMillis, retryIntervalMillis, TimeUnit.MILLISECONDS);
+        MetricsRegistry.getDefault().gauge("distledger_shard_pending_credits",
+                "Cross-shard credits not yet acknowledged by the destination shard.", outbox::size, "replica", qualifier);
+    }
+
+    public ShardMap getShards() {
+        return shards;
+    }
+
+    // asks the replicas of the destination shard whether the account exists, before the source is debited;
+    // an account just created may not have reached every replica yet, so one that knows it is enough
+    public void prepareCredit(String account) throws NoSuchDestinationAccountException, ShardUnavailableException {
+        PrepareCreditRequest request = PrepareCreditRequest.newBuilder().setAccount(account).build();
+        List<String> addresses;
+        try {
+            addresses = namingServerService.lookup(shards.serviceOf(account));
+        } catch (StatusRuntimeException e) {
+            throw new ShardUnavailableException();
+        }
+        boolean answered = false;
+        for (String address : addresses) {
+            try {
+                stub(address).prepareCredit(request);
+                channelPool.reportSuccess(address);
+                return;
+            } catch (StatusRuntimeException e) {
+                if (e.getStatus().getCode() == Status.Code.NOT_FOUND) {
+                    answered = true;
+                    continue;
+                }
+                channelPool.reportFailure(address);
+                debug("could not prepare credit at '" + address + "': " + e.getMessage());
+            }
+        }
+        if (answered) {
+            throw new NoSuchDestinationAccountException();
+        }
+        throw new ShardUnavailableException();
+    }
+
+    /*
+     * Called with the replica's state locked, in the order the debits get their sequences, before
+     * the credit can be delivered: a credit registered later never has a lower sequence.
+     */
+    public void register(TransferOutOp operation) {
+        Destination destination = destinationOf(operation);
+        long sequence = CreditedTransfers.sequenceOf(operation.getTransferId());
+        synchronized (destination) {
+            destination.unacknowledged.add(sequence);
+            destination.lastRegistered = Math.max(destination.lastRegistered, sequence);
+        }
+    }
+
+    // the debit is already logged, the credit is tried once now and then by the retries
+    public void deliver(TransferOutOp operation) {
+        outbox.put(operation.getTransferId(), operation);
+        tryDeliver(operation);
+    }
+
+    // left to the retries, e.g. for the debits recovered at startup
+    public void enqueue(TransferOutOp operation) {
+        register(operation);
+        outbox.put(operation.getTransferId(), operation);
+    }
+
+    // by destination shard, saved in the snapshots: the debits compacted away are covered by it
+    public Map<Integer, VectorClock> getCreditedTS() {
+        Map<Integer, VectorClock> creditedTS = new HashMap<>();
+        for (int shard = 0; shard < destinations.length; shard++) {
+            synchronized (destinations[shard]) {
+                creditedTS.put(shard, destinations[shard].creditedTS.copy());
+            }
+        }
+        return creditedTS;
+    }
+
+    public void restoreCreditedTS(Map<Integer, VectorClock> creditedTS) {
+        for (Map.Entry<Integer, VectorClock> shard : creditedTS.entrySet()) {
+            if (shard.getKey() < destinations.length) {
+                synchronized (destinations[shard.getKey()]) {
+                    destinations[shard.getKey()].creditedTS.merge(shard.getValue());
+                }
+            }
+        }
+    }
+
+    public boolean isPending(String transferId) {
+        return outbox.containsKey(transferId);
+    }
+
+    private void tryDeliver(TransferOutOp operation) {
+        Destination destination = destinationOf(operation);
+        CreditRequest.Builder builder = CreditRequest.newBuilder()
+                                                     .setTransferId(operation.getTransferId())
+                                                     .setAccountFrom(operation.getAccount())
+                                                     .setAccountTo(operation.getDestAccount())
+                                                     .setAmount(operation.getAmount());
+        // read together, so every acknowledged credit the sequence covers is covered by prevTS
+        synchronized (destination) {
+            builder.addAllPrevTS(destination.creditedTS.toList())
+                   .setAcknowledgedSequence(destination.acknowledgedSequence());
+        }
+        CreditRequest request = builder.build();
+        List<String> addresses;
+        try {
+            addresses = namingServerService.lookup(shards.serviceOf(operation.getDestAccount()));
+        } catch (StatusRuntimeException e) {
+            debug("could not look up the shard of '" + operation.getDestAccount() + "': " + e.getMessage());
+            return;
+        }
+        for (String address : addresses) {
+            try {
+                CreditResponse response = stub(address).credit(request);
+                channelPool.reportSuccess(address);
+                synchronized (destination) {
+                    destination.creditedTS.merge(VectorClock.fromList(response.getTSList()));
+                    destination.unacknowledged.remove(CreditedTransfers.sequenceOf(operation.getTransferId()));
+                }
+                outbox.remove(operation.getTransferId());
+                debug("delivered credit '" + operation.getTransferId() + "' to '" + address + "'");
+                return;
+            } catch (StatusRuntimeException e) {
+                // NOT_FOUND and ABORTED only mean the replica has not caught up yet, another one or a later retry will have
+                if (e.getStatus().getCode() != Status.Code.NOT_FOUND && e.getStatus().getCode() != Status.Code.ABORTED) {
+                    channelPool.reportFailure(address);
+                }
+                debug("could not deliver credit '" + operation.getTransferId() + "' to '" + address + "': " + e.getMessage());
+            }
+        }
+    }
+
+    private void retryPending() {
+        for (TransferOutOp operation : outbox.values()) {
+            tryDeliver(operation);
+        }
+    }
+
+    private Destination destinationOf(TransferOutOp operation) {
+        return destinations[shards.shardOf(operation.getDestAccount())];
+    }
+
+    private CrossServerServiceGrpc.CrossServerServiceBlockingStub stub(String address) {
+        return CrossServerServiceGrpc.newBlockingStub(channelPool.getChannel(address))
+                                     .withDeadlineAfter(CALL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        retryExecutor.shutdownNow();
+        channelPool.close();
+    }
+}
@@ -9,6 +9,15 @@ import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.CreateAccountR
 import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.CreateAccountResponse;
 import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.TransferToRequest;
 import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.TransferToResponse;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.Transfer;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.TransferBatchRequest;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.TransferBatchResponse;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.TransferResult;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.SessionRequest;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.SessionResponse;
+import pt.tecnico.distledger.common.grpc.FailureTrailers;
+import pt.tecnico.distledger.server.domain.BatchTransfer;
+import pt.tecnico.distledger.server.domain.QueuedWrite;
 import pt.tecnico.distledger.server.domain.ServerState;
 import pt.tecnico.distledger.server.exception.AccountAlreadyExistsException;
 import pt.tecnico.distledger.server.exception.CannotModifyBrokerException;
@@ -18,7 +27,14 @@ import pt.tecnico.distledger.server.exception.NoSuchAccountException;
 import pt.tecnico.distledger.server.exception.NoSuchDestinationAccountException;
 import pt.tecnico.distledger.server.exception.NotEnoughCoinsException;
 import pt.tecnico.distledger.server.exception.ServerNotActiveException;
+import pt.tecnico.distledger.server.exception.ShardUnavailableException;
+import pt.tecnico.distledger.server.exception.TransferNotStableException;
+import pt.tecnico.distledger.server.exception.WrongShardException;
 import pt.tecnico.distledger.server.exception.BalanceNotUpdatedException;
+import pt.tecnico.distledger.server.gossip.VectorClock;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
 
 import static io.grpc.Status.INVALID_ARGUMENT;
 import static io.grpc.Status.NOT_FOUND;
@@ -26,46 +42,73 @@ import static io.grpc.Status.ALREADY_EXISTS;
 import static io.grpc.Status.PERMISSION_DENIED;
 import static io.grpc.Status.UNAVAILABLE;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static io.grpc.Status.FAILED_PRECONDITION;
 
 public class UserServiceImpl extends UserServiceGrpc.UserServiceImplBase {
+
+    // how long a balance read may wait for this replica to catch up with the client
+    private static final long BALANCE_DEADLINE_MILLIS = Long.getLong("balance.deadline", 30000);
+
+    // largest batch applied under a single lock acquisition
+    private static final int MAX_BATCH_SIZE = Integer.getInteger("transfer.maxBatch", 1000);
         
     private ServerState serverState;
+
+    // null when every call enters the state on its own
+    private final RequestBatcher batcher;
     
     public UserServiceImpl(ServerState serverState) {
+        this(serverState, null);
+    }
+
+    public UserServiceImpl(ServerState serverState, RequestBatcher batcher) {
         this.serverState = serverState;
+        this.batcher = batcher;
     }
 
     @Override
     public void balance(BalanceRequest request, StreamObserver<BalanceResponse> responseObserver) {
-        try {
-            List<Integer> res = serverState.balance(request.getUserId(), request.getPrevTSList());
-            BalanceResponse response = BalanceResponse.newBuilder()
-                                                      .setValue(res.get(3))
-                                                      .addValueTS(res.get(0))
-                                                      .addValueTS(res.get(1))
-                                                      .addValueTS(res.get(2))
-                                                      .build();
-            responseObserver.onNext(response);
-		    responseObserver.onCompleted();
-        } catch (ServerNotActiveException e) {
-            responseObserver.onError(UNAVAILABLE.withDescription(e.getMessage()).asRuntimeException());
-        } catch (NoSuchAccountException e) {
-            responseObserver.onError(NOT_FOUND.withDescription(e.getMessage()).asRuntimeException());
-        } catch(BalanceNotUpdatedException e) {
-            responseObserver.onError(UNAVAILABLE.withDescription(e.getMessage()).asRuntimeException());
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+        // a read ahead of this replica completes once gossip catches it up, no thread waits for it
+        serverState.balance(request.getUserId(), VectorClock.fromList(request.getPrevTSList()))
+                   .orTimeout(BALANCE_DEADLINE_MILLIS, TimeUnit.MILLISECONDS)
+                   .whenComplete((res, error) -> {
+            if (error == null) {
+                BalanceResponse response = BalanceResponse.newBuilder()
+                                                          .setValue(res.getValue())
+                                                          .addAllValueTS(res.getValueTS().toList())
+                                                          .build();
+                responseObserver.onNext(response);
+                responseObserver.onCompleted();
+                return;
+            }
+            responseObserver.onError(failure(error));
+        });
     }
 
     @Override
     public void createAccount(CreateAccountRequest request, StreamObserver<CreateAccountResponse> responseObserver) {
+        if (batcher != null) {
+            QueuedWrite write = QueuedWrite.createAccount(request.getUserId(), VectorClock.fromList(request.getPrevTSList()));
+            write.getResult().whenComplete((TS, error) -> {
+                if (error == null) {
+                    responseObserver.onNext(CreateAccountResponse.newBuilder().addAllTS(TS.toList()).build());
+                    responseObserver.onCompleted();
+                    return;
+                }
+                responseObserver.onError(failureStatus(error).asRuntimeException());
+            });
+            batcher.submit(write);
+            return;
+        }
         try {
-            List<Integer> TS = serverState.createAccount(request.getUserId(), request.getPrevTSList());
-            CreateAccountResponse response = CreateAccountResponse.newBuilder().addAllTS(TS).build();
+            VectorClock TS = serverState.createAccount(request.getUserId(), VectorClock.fromList(request.getPrevTSList()));
+            CreateAccountResponse response = CreateAccountResponse.newBuilder().addAllTS(TS.toList()).build();
             responseObserver.onNext(response);
 		    responseObserver.onCompleted();
         } catch (ServerNotActiveException e) {
@@ -74,14 +117,31 @@ public class UserServiceImpl extends UserServiceGrpc.UserServiceImplBase {
             responseObserver.onError(PERMISSION_DENIED.withDescription(e.getMessage()).asRuntimeException());
         } catch (AccountAlreadyExistsException e) {
             responseObserver.onError(ALREADY_EXISTS.withDescription(e.getMessage()).asRuntimeException());   
+        } catch (WrongShardException e) {
+            responseObserver.onError(FAILED_PRECONDITION.withDescription(e.getMessage()).asRuntimeException());
         }
     }
 
     @Override
     public void transferTo(TransferToRequest request, StreamObserver<TransferToResponse> responseObserver) {
+        // transfers to another shard wait for it outside of any batch
+        if (batcher != null && serverState.ownsAccount(request.getAccountTo())) {
+            QueuedWrite write = QueuedWrite.transferTo(request.getAccountFrom(), request.getAccountTo(), request.getAmount(),
+                    VectorClock.fromList(request.getPrevTSList()));
+            write.getResult().whenComplete((TS, error) -> {
+                if (error == null) {
+                    responseObserver.onNext(TransferToResponse.newBuilder().addAllTS(TS.toList()).build());
+                    responseObserver.onCompleted();
+                    return;
+                }
+                responseObserver.onError(failureStatus(error).asRuntimeException());
+            });
+            batcher.submit(write);
+            return;
+        }
         try {
-            List<Integer> TS = serverState.transferTo(request.getAccountFrom(), request.getAccountTo(), request.getAmount(), request.getPrevTSList());
-            TransferToResponse response = TransferToResponse.newBuilder().addAllTS(TS).build();
+            VectorClock TS = serverState.transferTo(request.getAccountFrom(), request.getAccountTo(), request.getAmount(), VectorClock.fromList(request.getPrevTSList()));
+            TransferToResponse response = TransferToResponse.newBuilder().addAllTS(TS.toList()).build();
             responseObserver.onNext(response);
 		    responseObserver.onCompleted();
         } catch (ServerNotActiveException e) {
@@ -96,6 +156,78 @@ public class UserServiceImpl extends UserServiceGrpc.UserServiceImplBase {
             responseObserver.onError(INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException());
         } catch (NotEnoughCoinsException e) {
             responseObserver.onError(FAILED_PRECONDITION.withDescription(e.getMessage()).asRuntimeException());
+        } catch (WrongShardException e) {
+            responseObserver.onError(FAILED_PRECONDITION.withDescription(e.getMessage()).asRuntimeException());
+        } catch (ShardUnavailableException e) {
+            responseObserver.onError(UNAVAILABLE.withDescription(e.getMessage()).asRuntimeException());
+        } catch (TransferNotStableException e) {
+            responseObserver.onError(UNAVAILABLE.withDescription(e.getMessage()).asRuntimeException());
+        }
+    }
+
+    @Override
+    public void transferBatch(TransferBatchRequest request, StreamObserver<TransferBatchResponse> responseObserver) {
+        if (request.getTransfersCount() > MAX_BATCH_SIZE) {
+            responseObserver.onError(INVALID_ARGUMENT.withDescription("Batches can have at most " + MAX_BATCH_SIZE + " transfers.\n").asRuntimeException());
+            return;
+        }
+        List<BatchTransfer> transfers = new ArrayList<>(request.getTransfersCount());
+        for (Transfer transfer : request.getTransfersList()) {
+            transfers.add(new BatchTransfer(transfer.getAccountFrom(), transfer.getAccountTo(), transfer.getAmount()));
+        }
+        try {
+            VectorClock TS = serverState.transferBatch(transfers, VectorClock.fromList(request.getPrevTSList()));
+            TransferBatchResponse.Builder response = TransferBatchResponse.newBuilder().addAllTS(TS.toList());
+            for (BatchTransfer transfer : transfers) {
+                if (transfer.isApplied()) {
+                    response.addResults(TransferResult.newBuilder().setCode(Status.Code.OK.value()));
+                } else {
+                    Status status = failureStatus(transfer.getError());
+                    response.addResults(TransferResult.newBuilder()
+                                                      .setCode(status.getCode().value())
+                                                      .setDescription(status.getDescription()));
+                }
+            }
+            responseObserver.onNext(response.build());
+            responseObserver.onCompleted();
+        } catch (ServerNotActiveException e) {
+            responseObserver.onError(UNAVAILABLE.withDescription(e.getMessage()).asRuntimeException());
+        }
+    }
+
+    @Override
+    public StreamObserver<SessionRequest> session(StreamObserver<SessionResponse> responseObserver) {
+        return new UserSession(serverState, responseObserver, BALANCE_DEADLINE_MILLIS);
+    }
+
+    // a read that timed out waiting for gossip is marked in the trailers, so clients do not take it for a replica that is down
+    private static StatusRuntimeException failure(Throwable error) {
+        Throwable cause = (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+        return cause instanceof TimeoutException
+                ? failureStatus(error).asRuntimeException(FailureTrailers.staleRead())
+                : failureStatus(error).asRuntimeException();
+    }
+
+    // status (and description) a failed request is reported with, the same the unary calls fail with
+    static Status failureStatus(Throwable error) {
+        Throwable cause = (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+        if (cause instanceof TimeoutException) {
+            return UNAVAILABLE.withDescription(new BalanceNotUpdatedException().getMessage());
+        }
+        Status status;
+        if (cause instanceof NoSuchAccountException || cause instanceof NoSuchDestinationAccountException) {
+            status = NOT_FOUND;
+        } else if (cause instanceof CannotModifyBrokerException || cause instanceof CannotTransferToSelfException) {
+            status = PERMISSION_DENIED;
+        } else if (cause instanceof AccountAlreadyExistsException) {
+            status = ALREADY_EXISTS;
+        } else if (cause instanceof InvalidArgumentsException) {
+            status = INVALID_ARGUMENT;
+        } else if (cause instanceof NotEnoughCoinsException || cause instanceof WrongShardException) {
+            status = FAILED_PRECONDITION;
+        } else {
+            status = UNAVAILABLE;
         }
+        return status.withDescription(cause.getMessage());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,201 @@
+package pt.tecnico.distledger.server.grpc;
+
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+
+import pt.tecnico.distledger.server.domain.ServerState;
+import pt.tecnico.distledger.server.exception.AccountAlreadyExistsException;
+import pt.tecnico.distledger.server.exception.CannotModifyBrokerException;
+import pt.tecnico.distledger.server.exception.CannotTransferToSelfException;
+import pt.tecnico.distledger.server.exception.InvalidArgumentsException;
+import pt.tecnico.distledger.server.exception.NoSuchAccountException;
+import pt.tecnico.distledger.server.exception.NoSuchDestinationAccountException;
+import pt.tecnico.distledger.server.exception.NotEnoughCoinsException;
+import pt.tecnico.distledger.server.exception.ShardUnavailableException;
+import pt.tecnico.distledger.server.exception.TransferNotStableException;
+import pt.tecnico.distledger.server.exception.WrongShardException;
+import pt.tecnico.distledger.server.exception.ServerNotActiveException;
+import pt.tecnico.distledger.server.gossip.VectorClock;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.BalanceRequest;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.BalanceResponse;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.CreateAccountRequest;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.CreateAccountResponse;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.SessionRequest;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.SessionResponse;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.TransferToRequest;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.TransferToResponse;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Server side of a user session. Requests are handled in the order they arrive and each one uses
+ * the session's TS as prevTS, which advances with every TS and valueTS handed back, so clients do
+ * not need to echo timestamps. Writes are answered in order; a balance read that waits for gossip
+ * is answered when it completes, which is why responses carry the id of their request.
+ */
+public class UserSession implements StreamObserver<SessionRequest> {
+
+    private static final boolean DEBUG_FLAG = (System.getProperty("debug") != null);
+    private static void debug(String debugMessage) { if (DEBUG_FLAG) System.err.println("UserSession: " + debugMessage); }
+
+    private final ServerState serverState;
+
+    private final StreamObserver<SessionResponse> responseObserver;
+
+    private final long balanceDeadlineMillis;
+
+    // the fields below and the response stream are guarded by this session
+
+    private final VectorClock sessionTS = new VectorClock(0);
+
+    private int pendingBalances = 0;
+
+    private boolean requestsCompleted = false;
+
+    private boolean closed = false;
+
+    public UserSession(ServerState serverState, StreamObserver<SessionResponse> responseObserver, long balanceDeadlineMillis) {
+        this.serverState = serverState;
+        this.responseObserver = responseObserver;
+        this.balanceDeadlineMillis = balanceDeadlineMillis;
+    }
+
+    @Override
+    public void onNext(SessionRequest request) {
+        switch (request.getRequestCase()) {
+            case BALANCE:
+                balance(request.getId(), request.getBalance());
+                break;
+            case CREATEACCOUNT:
+                createAccount(request.getId(), request.getCreateAccount());
+                break;
+            case TRANSFERTO:
+                transferTo(request.getId(), request.getTransferTo());
+                break;
+            default:
+                send(failure(request.getId(), Status.INVALID_ARGUMENT.withDescription("Empty session request.\n")));
+                break;
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        synchronized (this) {
+            closed = true;
+        }
+        debug("session aborted: " + t.getMessage());
+    }
+
+    @Override
+    public void onCompleted() {
+        synchronized (this) {
+            requestsCompleted = true;
+            if (pendingBalances == 0) {
+                finish();
+            }
+        }
+    }
+
+    // requests
+
+    private void balance(long id, BalanceRequest request) {
+        VectorClock prevTS;
+        synchronized (this) {
+            prevTS = advance(request.getPrevTSList());
+            pendingBalances++;
+        }
+        serverState.balance(request.getUserId(), prevTS)
+                   .orTimeout(balanceDeadlineMillis, TimeUnit.MILLISECONDS)
+                   .whenComplete((balance, error) -> {
+            SessionResponse response;
+            if (error == null) {
+                response = SessionResponse.newBuilder()
+                                          .setId(id)
+                                          .setBalance(BalanceResponse.newBuilder()
+                                                                     .setValue(balance.getValue())
+                                                                     .addAllValueTS(balance.getValueTS().toList()))
+                                          .build();
+            } else {
+                response = failure(id, UserServiceImpl.failureStatus(error));
+            }
+            synchronized (this) {
+                if (error == null) {
+                    sessionTS.merge(balance.getValueTS());
+                }
+                pendingBalances--;
+                send(response);
+                if (requestsCompleted && pendingBalances == 0) {
+                    finish();
+                }
+            }
+        });
+    }
+
+    private void createAccount(long id, CreateAccountRequest request) {
+        try {
+            VectorClock TS = serverState.createAccount(request.getUserId(), prevTS(request.getPrevTSList()));
+            reply(TS, SessionResponse.newBuilder()
+                                     .setId(id)
+                                     .setCreateAccount(CreateAccountResponse.newBuilder().addAllTS(TS.toList()))
+                                     .build());
+        } catch (ServerNotActiveException | WrongShardException | CannotModifyBrokerException | AccountAlreadyExistsException e) {
+            send(failure(id, UserServiceImpl.failureStatus(e)));
+        }
+    }
+
+    private void transferTo(long id, TransferToRequest request) {
+        try {
+            VectorClock TS = serverState.transferTo(request.getAccountFrom(), request.getAccountTo(), request.getAmount(),
+                    prevTS(request.getPrevTSList()));
+            reply(TS, SessionResponse.newBuilder()
+                                     .setId(id)
+                                     .setTransferTo(TransferToResponse.newBuilder().addAllTS(TS.toList()))
+                                     .build());
+        } catch (ServerNotActiveException | NoSuchAccountException | NoSuchDestinationAccountException
+                | CannotTransferToSelfException | InvalidArgumentsException | NotEnoughCoinsException
+                | WrongShardException | ShardUnavailableException | TransferNotStableException e) {
+            send(failure(id, UserServiceImpl.failureStatus(e)));
+        }
+    }
+
+    // auxiliary
+
+    private synchronized VectorClock prevTS(List<Integer> requestPrevTS) {
+        return advance(requestPrevTS);
+    }
+
+    // a timestamp sent along with a request only moves the session forward
+    private VectorClock advance(List<Integer> requestPrevTS) {
+        if (!requestPrevTS.isEmpty()) {
+            sessionTS.merge(VectorClock.fromList(requestPrevTS));
+        }
+        return sessionTS.copy();
+    }
+
+    private synchronized void reply(VectorClock TS, SessionResponse response) {
+        sessionTS.merge(TS);
+        send(response);
+    }
+
+    private static SessionResponse failure(long id, Status status) {
+        return SessionResponse.newBuilder()
+                              .setId(id)
+                              .setCode(status.getCode().value())
+                              .setDescription(status.getDescription() != null ? status.getDescription() : "")
+                              .build();
+    }
+
+    private synchronized void send(SessionResponse response) {
+        if (!closed) {
+            responseObserver.onNext(response);
+        }
+    }
+
+    private void finish() {
+        if (!closed) {
+            closed = true;
+            responseObserver.onCompleted();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package pt.tecnico.distledger.server.persistence;
+
+import pt.tecnico.distledger.server.domain.CreditedTransfers;
+import pt.tecnico.distledger.server.domain.OperationId;
+import pt.tecnico.distledger.server.domain.operation.Operation;
+import pt.tecnico.distledger.server.gossip.VectorClock;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Checkpoint of a replica: the balances and timestamps it had reached, how much of the ledger
+ * was compacted away, and the operations it still keeps. Operations accepted afterwards are in
+ * the write-ahead logs of the snapshot's epoch and later.
+ */
+public class Snapshot {
+
+    private final int replicaId;
+
+    private final long epoch;
+
+    private final long compactedOperations;
+
+    private final VectorClock compactedTS;
+
+    private final VectorClock valueTS;
+
+    private final VectorClock replicaTS;
+
+    private final Map<String, Integer> balances;
+
+    private final List<Operation> ledger;
+
+    // identities of the kept operations that were already executed
+    private final Set<OperationId> executedIds;
+
+    // credits from other shards already applied
+    private final CreditedTransfers creditedTransfers;
+
+    // by destination shard, what its replicas answered for the credits this replica sent
+    private final Map<Integer, VectorClock> creditedTS;
+
+    public Snapshot(int replicaId, long epoch, long compactedOperations, VectorClock compactedTS, VectorClock valueTS,
+            VectorClock replicaTS, Map<String, Integer> balances, List<Operation> ledger, Set<OperationId> executedIds,
+            CreditedTransfers creditedTransfers, Map<Integer, VectorClock> creditedTS) {
+        this.replicaId = replicaId;
+        this.epoch = epoch;
+        this.compactedOperations = compactedOperations;
+        this.compactedTS = compactedTS;
+        this.valueTS = valueTS;
+        this.replicaTS = replicaTS;
+        this.balances = balances;
+        this.ledger = ledger;
+        this.executedIds = executedIds;
+        this.creditedTransfers = creditedTransfers;
+        this.creditedTS = creditedTS;
+    }
+
+    public int getReplicaId() {
+        return replicaId;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public long getCompactedOperations() {
+        return compactedOperations;
+    }
+
+    public VectorClock getCompactedTS() {
+        return compactedTS;
+    }
+
+    public VectorClock getValueTS() {
+        return valueTS;
+    }
+
+    public VectorClock getReplicaTS() {
+        return replicaTS;
+    }
+
+    public Map<String, Integer> getBalances() {
+        return balances;
+    }
+
+    public List<Operation> getLedger() {
+        return ledger;
+    }
+
+    public CreditedTransfers getCreditedTransfers() {
+        return creditedTransfers;
+    }
+
+    public Map<Integer, VectorClock> getCreditedTS() {
+        return creditedTS;
+    }
+
+    public boolean isExecuted(Operation operation) {
+        return executedIds.contains(OperationId.of(operation));
+    }
+
+    @Override
+    public String toString() {
+        return "Snapshot [epoch=" + epoch + ", compactedOperations=" + compactedOperations + ", valueTS=" + valueTS
+                + ", replicaTS=" + replicaTS + ", accounts=" + balances.size() + ", ledger=" + ledger.size() + "]";
+    }
+}
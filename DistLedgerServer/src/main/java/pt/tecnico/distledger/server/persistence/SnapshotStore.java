@@ -0,0 +1,224 @@
+package pt.tecnico.distledger.server.persistence;
+
+import pt.tecnico.distledger.server.domain.CreditedTransfers;
+import pt.tecnico.distledger.server.domain.OperationId;
+import pt.tecnico.distledger.server.domain.operation.Operation;
+import pt.tecnico.distledger.server.gossip.VectorClock;
+import pt.tecnico.distledger.server.grpc.ServerGrpcUtilities;
+import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Files a replica persists its state in, inside the log directory:
+ *   <qualifier>.snapshot         latest checkpoint, replaced atomically
+ *   <qualifier>.<epoch>.wal      write-ahead logs, a checkpoint starts a new epoch
+ * Recovery loads the snapshot and replays the logs of its epoch and later, in order.
+ */
+public class SnapshotStore {
+
+    private static final boolean DEBUG_FLAG = (System.getProperty("debug") != null);
+    private static void debug(String debugMessage) { if (DEBUG_FLAG) System.err.println("SnapshotStore: " + debugMessage); }
+
+    private static final int MAGIC = 0x444c5333;
+
+    private final Path directory;
+
+    private final String qualifier;
+
+    public SnapshotStore(Path directory, String qualifier) {
+        this.directory = directory;
+        this.qualifier = qualifier;
+    }
+
+    // paths
+
+    public Path snapshotPath() {
+        return directory.resolve(qualifier + ".snapshot");
+    }
+
+    public Path walPath(long epoch) {
+        return directory.resolve(qualifier + "." + epoch + ".wal");
+    }
+
+    // epochs of the logs on disk, oldest first
+    public List<Long> walEpochs() throws IOException {
+        List<Long> epochs = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return epochs;
+        }
+        String prefix = qualifier + ".";
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*.wal")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String epoch = name.substring(prefix.length(), name.length() - ".wal".length());
+                try {
+                    epochs.add(Long.parseLong(epoch));
+                } catch (NumberFormatException e) {
+                    debug("ignoring '" + name + "'");
+                }
+            }
+        }
+        epochs.sort(null);
+        return epochs;
+    }
+
+    public void deleteWalsBefore(long epoch) throws IOException {
+        for (long walEpoch : walEpochs()) {
+            if (walEpoch < epoch) {
+                Files.deleteIfExists(walPath(walEpoch));
+                debug("deleted log of epoch " + walEpoch);
+            }
+        }
+    }
+
+    // replica id the persisted state was written with, -1 when there is none
+    public int readReplicaId() throws IOException {
+        Snapshot snapshot = load();
+        if (snapshot != null) {
+            return snapshot.getReplicaId();
+        }
+        List<Long> epochs = walEpochs();
+        return epochs.isEmpty() ? -1 : WriteAheadLog.readReplicaId(walPath(epochs.get(epochs.size() - 1)));
+    }
+
+    // snapshots
+
+    public Snapshot load() throws IOException {
+        Path path = snapshotPath();
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("'" + path + "' is not a snapshot written by this version");
+            }
+            int replicaId = in.readInt();
+            long epoch = in.readLong();
+            long compactedOperations = in.readLong();
+            VectorClock compactedTS = readClock(in);
+            VectorClock valueTS = readClock(in);
+            VectorClock replicaTS = readClock(in);
+            int accounts = in.readInt();
+            Map<String, Integer> balances = new HashMap<>();
+            for (int i = 0; i < accounts; i++) {
+                balances.put(in.readUTF(), in.readInt());
+            }
+            int operations = in.readInt();
+            List<Operation> ledger = new ArrayList<>(operations);
+            Set<OperationId> executedIds = new HashSet<>();
+            for (int i = 0; i < operations; i++) {
+                boolean executed = in.readBoolean();
+                byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+                Operation operation = ServerGrpcUtilities.buildOperation(DistLedgerCommonDefinitions.Operation.parseFrom(payload));
+                ledger.add(operation);
+                if (executed) {
+                    executedIds.add(OperationId.of(operation));
+                }
+            }
+            CreditedTransfers creditedTransfers = new CreditedTransfers();
+            int sources = in.readInt();
+            for (int i = 0; i < sources; i++) {
+                String source = in.readUTF();
+                long acknowledged = in.readLong();
+                int credited = in.readInt();
+                for (int j = 0; j < credited; j++) {
+                    creditedTransfers.add(source + "-" + in.readLong());
+                }
+                creditedTransfers.acknowledge(source, acknowledged);
+            }
+            int shards = in.readInt();
+            Map<Integer, VectorClock> creditedTS = new HashMap<>();
+            for (int i = 0; i < shards; i++) {
+                creditedTS.put(in.readInt(), readClock(in));
+            }
+            return new Snapshot(replicaId, epoch, compactedOperations, compactedTS, valueTS, replicaTS, balances, ledger,
+                    executedIds, creditedTransfers, creditedTS);
+        }
+    }
+
+    // written next to the current snapshot and moved over it once it is on disk
+    public void save(Snapshot snapshot) throws IOException {
+        Files.createDirectories(directory);
+        Path path = snapshotPath();
+        Path temporary = directory.resolve(qualifier + ".snapshot.tmp");
+        try (FileOutputStream file = new FileOutputStream(temporary.toFile());
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(MAGIC);
+            out.writeInt(snapshot.getReplicaId());
+            out.writeLong(snapshot.getEpoch());
+            out.writeLong(snapshot.getCompactedOperations());
+            writeClock(out, snapshot.getCompactedTS());
+            writeClock(out, snapshot.getValueTS());
+            writeClock(out, snapshot.getReplicaTS());
+            out.writeInt(snapshot.getBalances().size());
+            for (Map.Entry<String, Integer> balance : snapshot.getBalances().entrySet()) {
+                out.writeUTF(balance.getKey());
+                out.writeInt(balance.getValue());
+            }
+            out.writeInt(snapshot.getLedger().size());
+            for (Operation operation : snapshot.getLedger()) {
+                byte[] payload = ServerGrpcUtilities.buildDistLedgerCommonDefinitionsOperation(operation).toByteArray();
+                out.writeBoolean(snapshot.isExecuted(operation));
+                out.writeInt(payload.length);
+                out.write(payload);
+            }
+            CreditedTransfers creditedTransfers = snapshot.getCreditedTransfers();
+            Set<String> sources = new HashSet<>(creditedTransfers.getAcknowledged().keySet());
+            sources.addAll(creditedTransfers.getCredited().keySet());
+            out.writeInt(sources.size());
+            for (String source : sources) {
+                Set<Long> credited = creditedTransfers.getCredited().getOrDefault(source, Collections.emptyNavigableSet());
+                out.writeUTF(source);
+                out.writeLong(creditedTransfers.getAcknowledged().getOrDefault(source, 0L));
+                out.writeInt(credited.size());
+                for (long sequence : credited) {
+                    out.writeLong(sequence);
+                }
+            }
+            out.writeInt(snapshot.getCreditedTS().size());
+            for (Map.Entry<Integer, VectorClock> shard : snapshot.getCreditedTS().entrySet()) {
+                out.writeInt(shard.getKey());
+                writeClock(out, shard.getValue());
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        debug("saved " + snapshot);
+    }
+
+    // auxiliary
+
+    private static VectorClock readClock(DataInputStream in) throws IOException {
+        VectorClock clock = new VectorClock(in.readInt());
+        for (int i = 0; i < clock.size(); i++) {
+            clock.set(i, in.readInt());
+        }
+        return clock;
+    }
+
+    private static void writeClock(DataOutputStream out, VectorClock clock) throws IOException {
+        out.writeInt(clock.size());
+        for (int i = 0; i < clock.size(); i++) {
+            out.writeInt(clock.get(i));
+        }
+    }
+}
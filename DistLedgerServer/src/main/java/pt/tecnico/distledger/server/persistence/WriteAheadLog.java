@@ -0,0 +1,374 @@
+package pt.tecnico.distledger.server.persistence;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import pt.tecnico.distledger.server.domain.operation.Operation;
+import pt.tecnico.distledger.server.grpc.ServerGrpcUtilities;
+import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/*
+ * Append-only log of the operations a replica accepted into its ledger. The file is mapped in
+ * fixed-size regions and every record is [length][crc32][Operation message]; a record that does
+ * not fit in what is left of a region is preceded by a skip marker and starts at the next one.
+ * Appends only copy into the mapping. A background thread forces the written regions to disk in
+ * groups, either when the sync interval elapses or when enough records are waiting, and writers
+ * that need durability wait for the group that covers them.
+ */
+public class WriteAheadLog implements AutoCloseable {
+
+    private static final boolean DEBUG_FLAG = (System.getProperty("debug") != null);
+    private static void debug(String debugMessage) { if (DEBUG_FLAG) System.err.println("WriteAheadLog: " + debugMessage); }
+
+    private static final int MAGIC = 0x444c574c;
+
+    // magic, region size and the replica id the records were written with
+    private static final int HEADER_SIZE = 12;
+
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static final int SKIP_MARKER = -1;
+
+    private static final int REGION_SIZE = 64 * 1024 * 1024;
+
+    // attributes
+
+    private final Path path;
+
+    private final FileChannel channel;
+
+    private final long syncIntervalMillis;
+
+    private final int syncBatch;
+
+    private final CRC32 crc = new CRC32();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition hasUnsynced = lock.newCondition();
+
+    private final Condition synced = lock.newCondition();
+
+    private MappedByteBuffer region;
+
+    private long regionStart;
+
+    // regions left behind by the writer that still have to be forced once
+    private final List<MappedByteBuffer> retiredRegions = new ArrayList<>();
+
+    private long writtenPosition;
+
+    private long syncedPosition;
+
+    private int unsyncedRecords = 0;
+
+    private boolean closed = false;
+
+    private final Thread syncThread;
+
+    // constructors
+
+    private WriteAheadLog(Path path, FileChannel channel, long tail, long syncIntervalMillis, int syncBatch) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.syncBatch = Math.max(1, syncBatch);
+        this.writtenPosition = tail;
+        this.syncedPosition = tail;
+        mapRegion(regionStartOf(tail));
+        this.syncThread = new Thread(this::syncLoop, "wal-sync");
+        this.syncThread.setDaemon(true);
+        if (syncIntervalMillis > 0) {
+            this.syncThread.start();
+        }
+    }
+
+    // replica id stored in an existing log, -1 when there is none
+    public static int readReplicaId(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return -1;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (channel.read(header, 0) < HEADER_SIZE) {
+                return -1;
+            }
+            header.flip();
+            return header.getInt() == MAGIC && header.getInt() == REGION_SIZE ? header.getInt() : -1;
+        }
+    }
+
+    // opens (or creates) the log and hands every intact record to the consumer, in append order
+    public static WriteAheadLog open(Path path, int replicaId, long syncIntervalMillis, int syncBatch, Consumer<Operation> replay) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long tail;
+        if (channel.size() < HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(REGION_SIZE).putInt(replicaId);
+            header.flip();
+            channel.write(header, 0);
+            channel.force(true);
+            tail = HEADER_SIZE;
+        } else {
+            tail = replay(channel, replicaId, replay);
+            // anything past the last intact record is dropped so it is never mistaken for a newer one
+            channel.truncate(tail);
+        }
+        debug("opened '" + path + "' at position " + tail);
+        return new WriteAheadLog(path, channel, tail, syncIntervalMillis, syncBatch);
+    }
+
+    // hands the records of a log that is no longer appended to to the consumer, leaving the file as it is
+    public static void replayReadOnly(Path path, int replicaId, Consumer<Operation> replay) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() >= HEADER_SIZE) {
+                replay(channel, replicaId, replay);
+            }
+        }
+        debug("replayed '" + path + "'");
+    }
+
+    // appending
+
+    // returns the position right after the record, to be handed to awaitDurable
+    public long append(Operation operation) {
+        byte[] payload = ServerGrpcUtilities.buildDistLedgerCommonDefinitionsOperation(operation).toByteArray();
+        if (payload.length > REGION_SIZE - HEADER_SIZE - RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("operation too large for the write-ahead log");
+        }
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("write-ahead log is closed");
+            }
+            if (region.remaining() < RECORD_HEADER_SIZE + payload.length) {
+                nextRegion();
+            }
+            crc.reset();
+            crc.update(payload, 0, payload.length);
+            region.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+            writtenPosition = regionStart + region.position();
+            // wake the sync thread when a group starts and again when it is full
+            if (++unsyncedRecords == 1 || unsyncedRecords >= syncBatch) {
+                hasUnsynced.signal();
+            }
+            return writtenPosition;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // group commit: blocks until a sync covers the given position
+    public void awaitDurable(long position) {
+        if (syncIntervalMillis <= 0) {
+            syncNow(position);
+            return;
+        }
+        lock.lock();
+        try {
+            while (syncedPosition < position && !closed) {
+                synced.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    // bytes written to the file so far, header included
+    public long size() {
+        lock.lock();
+        try {
+            return writtenPosition;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // syncing
+
+    private void syncLoop() {
+        while (true) {
+            long target;
+            List<MappedByteBuffer> toForce;
+            MappedByteBuffer current;
+            lock.lock();
+            try {
+                while (!closed && writtenPosition == syncedPosition) {
+                    hasUnsynced.awaitUninterruptibly();
+                }
+                if (closed) {
+                    return;
+                }
+                // let the group fill up for one interval unless it is already big enough
+                if (unsyncedRecords < syncBatch) {
+                    try {
+                        hasUnsynced.await(syncIntervalMillis, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                target = writtenPosition;
+                toForce = new ArrayList<>(retiredRegions);
+                retiredRegions.clear();
+                current = region;
+                unsyncedRecords = 0;
+            } finally {
+                lock.unlock();
+            }
+            force(toForce, current);
+            lock.lock();
+            try {
+                syncedPosition = Math.max(syncedPosition, target);
+                synced.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void syncNow(long position) {
+        lock.lock();
+        try {
+            if (syncedPosition >= position) {
+                return;
+            }
+            force(retiredRegions, region);
+            retiredRegions.clear();
+            unsyncedRecords = 0;
+            syncedPosition = writtenPosition;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void force(List<MappedByteBuffer> retired, MappedByteBuffer current) {
+        for (MappedByteBuffer buffer : retired) {
+            buffer.force();
+        }
+        current.force();
+    }
+
+    // regions
+
+    private static long regionStartOf(long position) {
+        return position < REGION_SIZE ? 0 : (position / REGION_SIZE) * REGION_SIZE;
+    }
+
+    private void mapRegion(long start) throws IOException {
+        region = channel.map(FileChannel.MapMode.READ_WRITE, start, REGION_SIZE);
+        regionStart = start;
+        region.position((int) (Math.max(writtenPosition, HEADER_SIZE) - start));
+    }
+
+    private void nextRegion() {
+        if (region.remaining() >= 4) {
+            region.putInt(SKIP_MARKER);
+        }
+        retiredRegions.add(region);
+        try {
+            long start = regionStart + REGION_SIZE;
+            writtenPosition = start;
+            mapRegion(start);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // recovery
+
+    private static long replay(FileChannel channel, int replicaId, Consumer<Operation> replay) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC || header.getInt() != REGION_SIZE) {
+            throw new IOException("not a write-ahead log written by this version");
+        }
+        int logReplicaId = header.getInt();
+        if (logReplicaId != replicaId) {
+            // its timestamps would clash with the replica that now holds that id
+            throw new IOException("log written as replica " + logReplicaId + " cannot be replayed as replica " + replicaId);
+        }
+        long size = channel.size();
+        long position = HEADER_SIZE;
+        int records = 0;
+        CRC32 checksum = new CRC32();
+        ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        while (position + RECORD_HEADER_SIZE <= size) {
+            long regionEnd = regionStartOf(position) + REGION_SIZE;
+            if (regionEnd - position < RECORD_HEADER_SIZE) {
+                position = regionEnd;
+                continue;
+            }
+            recordHeader.clear();
+            channel.read(recordHeader, position);
+            recordHeader.flip();
+            int length = recordHeader.getInt();
+            if (length == SKIP_MARKER) {
+                position = regionEnd;
+                continue;
+            }
+            if (length <= 0 || position + RECORD_HEADER_SIZE + length > Math.min(size, regionEnd)) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            channel.read(payload, position + RECORD_HEADER_SIZE);
+            checksum.reset();
+            checksum.update(payload.array(), 0, length);
+            if ((int) checksum.getValue() != recordHeader.getInt()) {
+                break;
+            }
+            try {
+                replay.accept(ServerGrpcUtilities.buildOperation(DistLedgerCommonDefinitions.Operation.parseFrom(payload.array())));
+            } catch (InvalidProtocolBufferException e) {
+                break;
+            }
+            position += RECORD_HEADER_SIZE + length;
+            records++;
+        }
+        debug("replayed " + records + " records");
+        return position;
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            force(retiredRegions, region);
+            retiredRegions.clear();
+            syncedPosition = writtenPosition;
+            closed = true;
+            hasUnsynced.signalAll();
+            synced.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            debug("failed to close '" + path + "': " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package pt.tecnico.distledger.server.domain;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CreditedTransfersTest {
+
+    @Test
+    public void transferIdsSplitIntoSourceAndSequence() {
+        assertEquals("1-0", CreditedTransfers.sourceOf("1-0-42"));
+        assertEquals(42, CreditedTransfers.sequenceOf("1-0-42"));
+    }
+
+    @Test
+    public void creditIsAddedOnce() {
+        CreditedTransfers credited = new CreditedTransfers();
+
+        assertTrue(credited.add("1-0-1"));
+        assertFalse(credited.add("1-0-1"));
+        assertTrue(credited.contains("1-0-1"));
+        assertFalse(credited.contains("1-0-2"));
+        // the same sequence from another replica of the source shard is another transfer
+        assertFalse(credited.contains("1-1-1"));
+    }
+
+    @Test
+    public void acknowledgedSequencesNeedNoEntry() {
+        CreditedTransfers credited = new CreditedTransfers();
+        credited.add("1-0-1");
+        credited.add("1-0-2");
+        credited.add("1-0-4");
+
+        credited.acknowledge("1-0", 2);
+
+        assertEquals(1, credited.size());
+        assertEquals(Map.of("1-0", Set.of(4L)), credited.getCredited());
+        assertTrue(credited.contains("1-0-1"));
+        assertTrue(credited.contains("1-0-2"));
+        // covered by the acknowledgement even though it was never seen here
+        assertFalse(credited.add("1-0-2"));
+        assertFalse(credited.contains("1-0-3"));
+    }
+
+    @Test
+    public void acknowledgementsNeverGoBack() {
+        CreditedTransfers credited = new CreditedTransfers();
+        credited.acknowledge("1-0", 5);
+
+        credited.acknowledge("1-0", 3);
+
+        assertEquals(Map.of("1-0", 5L), credited.getAcknowledged());
+        assertTrue(credited.contains("1-0-4"));
+    }
+
+    @Test
+    public void sourcesAreAcknowledgedSeparately() {
+        CreditedTransfers credited = new CreditedTransfers();
+        credited.add("1-0-1");
+        credited.add("1-1-1");
+
+        credited.acknowledge("1-0", 1);
+
+        assertEquals(Map.of("1-1", Set.of(1L)), credited.getCredited());
+        assertFalse(credited.contains("2-0-1"));
+    }
+
+    @Test
+    public void copyIsIndependent() {
+        CreditedTransfers credited = new CreditedTransfers();
+        credited.add("1-0-3");
+        credited.acknowledge("1-0", 1);
+
+        CreditedTransfers copy = credited.copy();
+        copy.add("1-0-4");
+        copy.acknowledge("1-0", 3);
+
+        assertEquals(Map.of("1-0", 1L), credited.getAcknowledged());
+        assertEquals(Map.of("1-0", Set.of(3L)), credited.getCredited());
+        assertEquals(Map.of("1-0", Set.of(4L)), copy.getCredited());
+    }
+}
@@ -0,0 +1,37 @@
+package pt.tecnico.distledger.server.domain;
+
+import pt.tecnico.distledger.server.domain.operation.Operation;
+import pt.tecnico.distledger.server.grpc.CrossServerService;
+import pt.tecnico.distledger.server.gossip.VectorClock;
+
+import java.util.List;
+
+// peers that are never contacted, standing for replicas that acknowledged up to a given replicaTS
+class FakeCrossServerService extends CrossServerService {
+
+    // null while some replica has not acknowledged anything
+    private volatile VectorClock acknowledged;
+
+    FakeCrossServerService() {
+        super("localhost:0", "DistLedger", null);
+    }
+
+    void acknowledge(VectorClock replicaTS) {
+        acknowledged = replicaTS;
+    }
+
+    @Override
+    public void propagateState(List<Operation> ledger, VectorClock replicaTS) {
+    }
+
+    @Override
+    public VectorClock acknowledgedByAllReplicas(VectorClock bound, int replicaId) {
+        VectorClock replicaTS = acknowledged;
+        if (replicaTS == null) {
+            return null;
+        }
+        VectorClock result = bound.copy();
+        result.retainMin(replicaTS);
+        return result;
+    }
+}
@@ -0,0 +1,75 @@
+package pt.tecnico.distledger.server.domain;
+
+import org.junit.Before;
+import org.junit.Test;
+import pt.tecnico.distledger.server.domain.operation.Operation;
+import pt.tecnico.distledger.server.gossip.VectorClock;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ServerStateCompactionTest {
+
+    private FakeCrossServerService peers;
+    private ServerState state;
+    private VectorClock createTS;
+    private VectorClock transferTS;
+
+    @Before
+    public void setUp() throws Exception {
+        peers = new FakeCrossServerService();
+        state = new ServerState("A", 0, peers);
+        createTS = state.createAccount("alice", new VectorClock(0));
+        transferTS = state.transferTo("broker", "alice", 10, createTS);
+    }
+
+    @Test
+    public void nothingIsCompactedWhileAPeerDidNotAcknowledge() {
+        state.gossip();
+
+        assertEquals(2, state.getLedgerSize());
+        assertEquals(0, state.getCompactedOperations());
+        assertEquals(new VectorClock(0), state.getLedgerView().getCompactedTS());
+    }
+
+    @Test
+    public void onlyTheAcknowledgedPrefixIsCompacted() throws Exception {
+        peers.acknowledge(createTS);
+
+        state.gossip();
+
+        List<Operation> kept = state.getLedgerView().getOperations();
+        assertEquals(1, kept.size());
+        assertEquals(transferTS, kept.get(0).getTS());
+        assertEquals(1, state.getCompactedOperations());
+        assertEquals(createTS, state.getLedgerView().getCompactedTS());
+        assertEquals(10, state.balance("alice", transferTS).get().getValue());
+    }
+
+    @Test
+    public void balancesAreKeptOnceEverythingIsCompacted() throws Exception {
+        peers.acknowledge(transferTS);
+
+        state.gossip();
+
+        assertEquals(0, state.getLedgerSize());
+        assertEquals(2, state.getCompactedOperations());
+        assertEquals(10, state.balance("alice", transferTS).get().getValue());
+        assertEquals(990, state.balance("broker", transferTS).get().getValue());
+    }
+
+    // a peer that has not seen the compaction yet may still send the operation back
+    @Test
+    public void lateCopiesOfCompactedOperationsAreIgnored() throws Exception {
+        List<Operation> gossiped = state.getLedgerView().getOperations();
+        peers.acknowledge(transferTS);
+        state.gossip();
+
+        state.update(gossiped, transferTS);
+
+        assertEquals(0, state.getLedgerSize());
+        assertEquals(10, state.balance("alice", transferTS).get().getValue());
+        assertEquals(transferTS, state.getValueTS());
+    }
+}
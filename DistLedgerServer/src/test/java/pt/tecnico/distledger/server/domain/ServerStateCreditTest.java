@@ -0,0 +1,108 @@
+package pt.tecnico.distledger.server.domain;
+
+import org.junit.Before;
+import org.junit.Test;
+import pt.tecnico.distledger.server.exception.NoSuchAccountException;
+import pt.tecnico.distledger.server.exception.TransferNotStableException;
+import pt.tecnico.distledger.server.gossip.VectorClock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// the destination shard's side of a transfer between shards
+public class ServerStateCreditTest {
+
+    private ServerState first;
+    private ServerState second;
+
+    @Before
+    public void setUp() throws Exception {
+        first = new ServerState("B", 0, new FakeCrossServerService());
+        second = new ServerState("B", 1, new FakeCrossServerService());
+        first.createAccount("alice", new VectorClock(0));
+        gossip(first, second);
+    }
+
+    private static void gossip(ServerState from, ServerState to) throws Exception {
+        to.update(from.getLedgerView().getOperations(), from.getReplicaTS());
+    }
+
+    private static int balance(ServerState state, String account) throws Exception {
+        return state.balance(account, state.getValueTS()).get().getValue();
+    }
+
+    @Test(expected = NoSuchAccountException.class)
+    public void creditIsOnlyPreparedForAnExistingAccount() throws Exception {
+        first.prepareCredit("bob");
+    }
+
+    @Test
+    public void repeatedCreditIsAppliedOnce() throws Exception {
+        first.prepareCredit("alice");
+        VectorClock TS = first.credit("1-0-1", "carol", "alice", 5, first.getValueTS(), 0);
+
+        VectorClock again = first.credit("1-0-1", "carol", "alice", 5, first.getValueTS(), 0);
+
+        assertEquals(5, balance(first, "alice"));
+        assertEquals(2, first.getLedgerSize());
+        assertTrue(TS.lessOrEqual(again));
+    }
+
+    // each replica accepts the credit before gossip brings it the other's
+    @Test
+    public void creditAcceptedByTwoReplicasIsAppliedOnce() throws Exception {
+        first.credit("1-0-1", "carol", "alice", 5, first.getValueTS(), 0);
+        second.credit("1-0-1", "carol", "alice", 5, second.getValueTS(), 0);
+
+        gossip(first, second);
+        gossip(second, first);
+
+        assertEquals(first.getValueTS(), second.getValueTS());
+        assertEquals(5, balance(first, "alice"));
+        assertEquals(5, balance(second, "alice"));
+    }
+
+    @Test(expected = TransferNotStableException.class)
+    public void creditAheadOfTheReplicaIsRejected() throws Exception {
+        VectorClock ahead = first.getValueTS().copy();
+        ahead.increment(1);
+
+        first.credit("1-0-1", "carol", "alice", 5, ahead, 0);
+    }
+
+    // accepted by the first replica, the second one only knows it from gossip and waits to execute it
+    @Test(expected = TransferNotStableException.class)
+    public void creditAcceptedElsewhereIsRejectedUntilExecuted() throws Exception {
+        VectorClock ahead = first.createAccount("bob", first.getValueTS());
+        first.credit("1-0-1", "carol", "alice", 5, ahead, 0);
+        // the credit without the account creation it depends on
+        second.update(first.getLedgerView().getOperations().subList(2, 3), first.getReplicaTS());
+
+        second.credit("1-0-1", "carol", "alice", 5, second.getValueTS(), 0);
+    }
+
+    @Test
+    public void acknowledgedCreditsAreForgotten() throws Exception {
+        VectorClock TS = first.credit("1-0-1", "carol", "alice", 1, first.getValueTS(), 0);
+        TS = first.credit("1-0-2", "carol", "alice", 1, TS, 0);
+        assertEquals(2, first.getCreditedTransfersCount());
+
+        TS = first.credit("1-0-3", "carol", "alice", 1, TS, 2);
+        assertEquals(1, first.getCreditedTransfersCount());
+
+        // still filtered once forgotten, the acknowledgement covers them
+        first.credit("1-0-1", "carol", "alice", 1, TS, 2);
+        assertEquals(3, balance(first, "alice"));
+    }
+
+    @Test
+    public void acknowledgementsReachTheOtherReplicas() throws Exception {
+        VectorClock TS = first.credit("1-0-1", "carol", "alice", 1, first.getValueTS(), 0);
+        first.credit("1-0-2", "carol", "alice", 1, TS, 1);
+
+        gossip(first, second);
+
+        assertEquals(1, second.getCreditedTransfersCount());
+        assertEquals(2, balance(second, "alice"));
+    }
+}
@@ -0,0 +1,106 @@
+package pt.tecnico.distledger.server.domain;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import pt.tecnico.distledger.server.domain.operation.Operation;
+import pt.tecnico.distledger.server.gossip.VectorClock;
+import pt.tecnico.distledger.server.grpc.ServerGrpcUtilities;
+import pt.tecnico.distledger.server.persistence.SnapshotStore;
+import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+// run with snapshot.walBytes small enough for a few hundred operations to outgrow the log
+public class ServerStateSnapshotTest {
+
+    private static final long SNAPSHOT_TIMEOUT_MILLIS = 10_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // a replica whose peers never acknowledge, so nothing is compacted
+    private static ServerState replica(int replicaId) {
+        return new ServerState("A", replicaId, new FakeCrossServerService());
+    }
+
+    private SnapshotStore store() {
+        return new SnapshotStore(folder.getRoot().toPath(), "A");
+    }
+
+    private static List<DistLedgerCommonDefinitions.Operation> messages(List<Operation> operations) {
+        List<DistLedgerCommonDefinitions.Operation> messages = new ArrayList<>();
+        for (Operation operation : operations) {
+            messages.add(ServerGrpcUtilities.buildDistLedgerCommonDefinitionsOperation(operation));
+        }
+        return messages;
+    }
+
+    // transfers until the log is replaced by a snapshot and a new epoch
+    private static VectorClock transferUntilSnapshot(ServerState state, SnapshotStore store, VectorClock prevTS)
+            throws Exception {
+        long deadline = System.currentTimeMillis() + SNAPSHOT_TIMEOUT_MILLIS;
+        while (!store.walEpochs().equals(List.of(1L))) {
+            assertTrue("no snapshot was taken", System.currentTimeMillis() < deadline);
+            prevTS = state.transferTo("broker", "alice", 1, prevTS);
+        }
+        return prevTS;
+    }
+
+    @Test
+    public void restoresTheSnapshotAndTheLogWrittenAfterIt() throws Exception {
+        SnapshotStore store = store();
+        ServerState state = replica(0);
+        state.openPersistence(store, 0, 1);
+        VectorClock TS = state.createAccount("alice", new VectorClock(0));
+        TS = transferUntilSnapshot(state, store, TS);
+        assertNotNull(store.load());
+        TS = state.createAccount("bob", TS);
+        TS = state.transferTo("alice", "bob", 3, TS);
+        state.closeWriteAheadLog();
+
+        ServerState recovered = replica(0);
+        recovered.openPersistence(store(), 0, 1);
+
+        assertEquals(TS, recovered.getValueTS());
+        assertEquals(TS, recovered.getReplicaTS());
+        assertEquals(messages(state.getLedgerView().getOperations()), messages(recovered.getLedgerView().getOperations()));
+        for (String account : List.of("broker", "alice", "bob")) {
+            assertEquals(state.balance(account, TS).get().getValue(), recovered.balance(account, TS).get().getValue());
+        }
+        recovered.closeWriteAheadLog();
+    }
+
+    @Test
+    public void recoveredReplicaKeepsNumberingItsOperations() throws Exception {
+        SnapshotStore store = store();
+        ServerState state = replica(0);
+        state.openPersistence(store, 0, 1);
+        VectorClock TS = transferUntilSnapshot(state, store, state.createAccount("alice", new VectorClock(0)));
+        state.closeWriteAheadLog();
+
+        ServerState recovered = replica(0);
+        recovered.openPersistence(store(), 0, 1);
+        VectorClock next = recovered.createAccount("bob", TS);
+
+        assertEquals(TS.get(0) + 1, next.get(0));
+        recovered.closeWriteAheadLog();
+    }
+
+    @Test(expected = IOException.class)
+    public void refusesASnapshotTakenAsAnotherReplica() throws Exception {
+        SnapshotStore store = store();
+        ServerState state = replica(0);
+        state.openPersistence(store, 0, 1);
+        transferUntilSnapshot(state, store, state.createAccount("alice", new VectorClock(0)));
+        state.closeWriteAheadLog();
+
+        replica(1).openPersistence(store(), 0, 1);
+    }
+}
@@ -0,0 +1,113 @@
+package pt.tecnico.distledger.server.domain;
+
+import org.junit.Test;
+import pt.tecnico.distledger.server.domain.operation.CreateAccountOp;
+import pt.tecnico.distledger.server.domain.operation.Operation;
+import pt.tecnico.distledger.server.gossip.VectorClock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class StableOperationSchedulerTest {
+
+    private static Operation operation(String account, VectorClock prevTS) {
+        return new CreateAccountOp(account, prevTS, prevTS);
+    }
+
+    private static List<Operation> pollAll(StableOperationScheduler scheduler) {
+        List<Operation> operations = new ArrayList<>();
+        for (Operation operation = scheduler.pollReady(); operation != null; operation = scheduler.pollReady()) {
+            operations.add(operation);
+        }
+        return operations;
+    }
+
+    @Test
+    public void stableOperationIsReadyAtOnce() {
+        StableOperationScheduler scheduler = new StableOperationScheduler();
+        Operation operation = operation("alice", VectorClock.of(1, 0));
+
+        scheduler.submit(operation, VectorClock.of(1, 0));
+
+        assertEquals(1, scheduler.pendingCount());
+        assertSame(operation, scheduler.pollReady());
+        assertNull(scheduler.pollReady());
+        assertEquals(0, scheduler.pendingCount());
+    }
+
+    @Test
+    public void unstableOperationWaitsForValueTS() {
+        StableOperationScheduler scheduler = new StableOperationScheduler();
+        Operation operation = operation("alice", VectorClock.of(0, 2));
+
+        scheduler.submit(operation, VectorClock.of(0, 0));
+        assertNull(scheduler.pollReady());
+
+        scheduler.valueTSAdvanced(VectorClock.of(0, 1));
+        assertNull(scheduler.pollReady());
+
+        scheduler.valueTSAdvanced(VectorClock.of(0, 2));
+        assertSame(operation, scheduler.pollReady());
+    }
+
+    // released by the entry it waits on, then re-checked against the entries after it
+    @Test
+    public void operationWaitsOnEveryEntryItIsAheadOn() {
+        StableOperationScheduler scheduler = new StableOperationScheduler();
+        Operation operation = operation("alice", VectorClock.of(1, 1));
+
+        scheduler.submit(operation, VectorClock.of(0, 0));
+        scheduler.valueTSAdvanced(VectorClock.of(1, 0));
+        assertNull(scheduler.pollReady());
+        assertEquals(1, scheduler.pendingCount());
+
+        scheduler.valueTSAdvanced(VectorClock.of(1, 1));
+        assertSame(operation, scheduler.pollReady());
+    }
+
+    @Test
+    public void readyOperationsFollowThePrevTSOrder() {
+        StableOperationScheduler scheduler = new StableOperationScheduler();
+        Operation third = operation("c", VectorClock.of(2, 1));
+        Operation first = operation("a", VectorClock.of(0, 0));
+        Operation second = operation("b", VectorClock.of(1, 0));
+
+        scheduler.submit(third, VectorClock.of(0, 0));
+        scheduler.submit(first, VectorClock.of(0, 0));
+        scheduler.submit(second, VectorClock.of(0, 0));
+        scheduler.valueTSAdvanced(VectorClock.of(2, 1));
+
+        assertEquals(List.of(first, second, third), pollAll(scheduler));
+    }
+
+    @Test
+    public void orderIsALinearExtensionOfThePrevTSPartialOrder() {
+        VectorClock smaller = VectorClock.of(1, 0, 0);
+        VectorClock larger = VectorClock.of(1, 0, 1);
+        VectorClock concurrent = VectorClock.of(0, 1, 0);
+
+        assertTrue(StableOperationScheduler.PREV_TS_ORDER.compare(operation("a", smaller), operation("b", larger)) < 0);
+        assertTrue(StableOperationScheduler.PREV_TS_ORDER.compare(operation("b", larger), operation("a", smaller)) > 0);
+        // concurrent clocks are still ordered, the same way every time
+        int order = StableOperationScheduler.PREV_TS_ORDER.compare(operation("a", smaller), operation("c", concurrent));
+        assertTrue(order != 0);
+        assertEquals(-order, StableOperationScheduler.PREV_TS_ORDER.compare(operation("c", concurrent), operation("a", smaller)));
+    }
+
+    @Test
+    public void releasesOnOnlyWhenTheValueReachesAWaiter() {
+        StableOperationScheduler scheduler = new StableOperationScheduler();
+        scheduler.submit(operation("alice", VectorClock.of(0, 3)), VectorClock.of(0, 0));
+
+        assertFalse(scheduler.releasesOn(0, 10));
+        assertFalse(scheduler.releasesOn(1, 2));
+        assertTrue(scheduler.releasesOn(1, 3));
+        assertFalse(scheduler.releasesOn(5, 3));
+    }
+}
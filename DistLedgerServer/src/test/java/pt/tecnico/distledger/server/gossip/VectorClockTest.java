@@ -0,0 +1,111 @@
+package pt.tecnico.distledger.server.gossip;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VectorClockTest {
+
+    @Test
+    public void trailingZerosDoNotMatterForEquality() {
+        VectorClock shorter = VectorClock.of(1, 2);
+        VectorClock longer = VectorClock.of(1, 2, 0, 0);
+
+        assertEquals(shorter, longer);
+        assertEquals(longer, shorter);
+        assertEquals(shorter.hashCode(), longer.hashCode());
+        assertEquals(new VectorClock(0), new VectorClock(3));
+    }
+
+    @Test
+    public void differentEntriesAreNotEqual() {
+        assertNotEquals(VectorClock.of(1, 2), VectorClock.of(2, 1));
+        assertNotEquals(VectorClock.of(1, 2), VectorClock.of(1, 2, 1));
+    }
+
+    @Test
+    public void mergeKeepsTheLargerEntryAndGrows() {
+        VectorClock clock = VectorClock.of(3, 0);
+
+        clock.merge(VectorClock.of(1, 4, 2));
+
+        assertEquals(VectorClock.of(3, 4, 2), clock);
+        assertEquals(3, clock.size());
+    }
+
+    @Test
+    public void mergeIsIdempotentAndCommutative() {
+        VectorClock first = VectorClock.of(1, 5, 0);
+        VectorClock second = VectorClock.of(2, 3);
+
+        VectorClock left = first.copy();
+        left.merge(second);
+        VectorClock right = second.copy();
+        right.merge(first);
+        assertEquals(left, right);
+
+        VectorClock again = left.copy();
+        again.merge(second);
+        assertEquals(left, again);
+    }
+
+    @Test
+    public void copyIsIndependent() {
+        VectorClock clock = VectorClock.of(1, 1);
+        VectorClock copy = clock.copy();
+
+        copy.increment(0);
+        copy.set(3, 7);
+
+        assertEquals(VectorClock.of(1, 1), clock);
+        assertEquals(VectorClock.of(2, 1, 0, 7), copy);
+    }
+
+    @Test
+    public void missingEntriesCompareAsZero() {
+        assertTrue(VectorClock.of(1).lessOrEqual(VectorClock.of(1, 0, 0)));
+        assertTrue(VectorClock.of(1, 0, 0).lessOrEqual(VectorClock.of(1)));
+        assertFalse(VectorClock.of(1, 0, 1).lessOrEqual(VectorClock.of(1)));
+        assertEquals(0, VectorClock.of(4).get(9));
+    }
+
+    @Test
+    public void concurrentClocksAreNotOrdered() {
+        VectorClock first = VectorClock.of(1, 0);
+        VectorClock second = VectorClock.of(0, 1);
+
+        assertFalse(first.lessOrEqual(second));
+        assertFalse(second.lessOrEqual(first));
+        assertEquals(0, first.firstExceeding(second));
+        assertEquals(1, second.firstExceeding(first));
+    }
+
+    @Test
+    public void lessExcludesEqualClocks() {
+        assertTrue(VectorClock.of(1, 0).less(VectorClock.of(1, 1)));
+        assertFalse(VectorClock.of(1, 1).less(VectorClock.of(1, 1, 0)));
+        assertTrue(VectorClock.of(1, 1).dominates(VectorClock.of(1)));
+    }
+
+    @Test
+    public void retainMinKeepsTheSmallerEntry() {
+        VectorClock clock = VectorClock.of(3, 1, 2);
+
+        clock.retainMin(VectorClock.of(2, 5));
+
+        assertEquals(VectorClock.of(2, 1, 0), clock);
+    }
+
+    @Test
+    public void listRoundTrip() {
+        VectorClock clock = VectorClock.of(0, 3, 1);
+
+        assertEquals(List.of(0, 3, 1), clock.toList());
+        assertEquals(clock, VectorClock.fromList(clock.toList()));
+    }
+}
@@ -0,0 +1,62 @@
+package pt.tecnico.distledger.server.persistence;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import pt.tecnico.distledger.server.domain.CreditedTransfers;
+import pt.tecnico.distledger.server.domain.OperationId;
+import pt.tecnico.distledger.server.domain.operation.CreateAccountOp;
+import pt.tecnico.distledger.server.domain.operation.Operation;
+import pt.tecnico.distledger.server.domain.operation.TransferInOp;
+import pt.tecnico.distledger.server.gossip.VectorClock;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SnapshotStore store() {
+        return new SnapshotStore(folder.getRoot().toPath(), "B");
+    }
+
+    @Test
+    public void nothingIsLoadedBeforeTheFirstSave() throws IOException {
+        assertNull(store().load());
+    }
+
+    @Test
+    public void creditsFromOtherShardsSurviveARestart() throws IOException {
+        Operation executed = new CreateAccountOp("alice", VectorClock.of(0), VectorClock.of(1));
+        Operation pending = new TransferInOp("alice", "carol", 5, "1-0-4", 2, VectorClock.of(1, 1), VectorClock.of(2, 1));
+        CreditedTransfers credited = new CreditedTransfers();
+        credited.add("1-0-3");
+        credited.add("1-0-4");
+        credited.add("2-1-7");
+        credited.acknowledge("1-0", 3);
+        Map<Integer, VectorClock> creditedTS = Map.of(1, VectorClock.of(2, 1), 2, VectorClock.of(0, 4));
+        store().save(new Snapshot(0, 3, 1, VectorClock.of(0), VectorClock.of(1), VectorClock.of(2, 1),
+                Map.of("broker", 1000, "alice", 0), List.of(executed, pending), Set.of(OperationId.of(executed)),
+                credited, creditedTS));
+
+        Snapshot snapshot = store().load();
+
+        assertEquals(3, snapshot.getEpoch());
+        assertEquals(VectorClock.of(2, 1), snapshot.getReplicaTS());
+        assertTrue(snapshot.isExecuted(snapshot.getLedger().get(0)));
+        assertFalse(snapshot.isExecuted(snapshot.getLedger().get(1)));
+        assertEquals(2, ((TransferInOp) snapshot.getLedger().get(1)).getAcknowledgedSequence());
+        assertEquals(credited.getAcknowledged(), snapshot.getCreditedTransfers().getAcknowledged());
+        assertEquals(credited.getCredited(), snapshot.getCreditedTransfers().getCredited());
+        assertEquals(creditedTS, snapshot.getCreditedTS());
+    }
+}
@@ -0,0 +1,142 @@
+package pt.tecnico.distledger.server.persistence;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import pt.tecnico.distledger.server.domain.operation.CreateAccountOp;
+import pt.tecnico.distledger.server.domain.operation.Operation;
+import pt.tecnico.distledger.server.domain.operation.TransferInOp;
+import pt.tecnico.distledger.server.domain.operation.TransferOp;
+import pt.tecnico.distledger.server.gossip.VectorClock;
+import pt.tecnico.distledger.server.grpc.ServerGrpcUtilities;
+import pt.ulisboa.tecnico.distledger.contract.DistLedgerCommonDefinitions;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class WriteAheadLogTest {
+
+    private static final int REPLICA_ID = 0;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final List<Operation> OPERATIONS = List.of(
+            new CreateAccountOp("alice", VectorClock.of(0), VectorClock.of(1)),
+            new TransferOp("broker", "alice", 10, VectorClock.of(1), VectorClock.of(2)),
+            new TransferInOp("alice", "bob", 5, "1-0-7", 6, VectorClock.of(2), VectorClock.of(3)));
+
+    private Path path() {
+        return folder.getRoot().toPath().resolve("A.0.wal");
+    }
+
+    // synced on every append, so each test sees what a crash right after it would leave
+    private static WriteAheadLog open(Path path, List<Operation> replayed) throws IOException {
+        return WriteAheadLog.open(path, REPLICA_ID, 0, 1, replayed::add);
+    }
+
+    private static List<DistLedgerCommonDefinitions.Operation> messages(List<Operation> operations) {
+        List<DistLedgerCommonDefinitions.Operation> messages = new ArrayList<>();
+        for (Operation operation : operations) {
+            messages.add(ServerGrpcUtilities.buildDistLedgerCommonDefinitionsOperation(operation));
+        }
+        return messages;
+    }
+
+    // ends of the records, in append order
+    private List<Long> appendAll(List<Operation> operations) throws IOException {
+        List<Long> positions = new ArrayList<>();
+        try (WriteAheadLog log = open(path(), new ArrayList<>())) {
+            for (Operation operation : operations) {
+                long position = log.append(operation);
+                log.awaitDurable(position);
+                positions.add(position);
+            }
+        }
+        return positions;
+    }
+
+    private void flipByte(long position) throws IOException {
+        try (FileChannel channel = FileChannel.open(path(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1);
+            channel.read(buffer, position);
+            buffer.flip();
+            byte value = buffer.get();
+            channel.write(ByteBuffer.wrap(new byte[] {(byte) ~value}), position);
+        }
+    }
+
+    @Test
+    public void replaysEveryRecordInAppendOrder() throws IOException {
+        appendAll(OPERATIONS);
+
+        List<Operation> replayed = new ArrayList<>();
+        open(path(), replayed).close();
+
+        assertEquals(messages(OPERATIONS), messages(replayed));
+    }
+
+    @Test
+    public void replayStopsAtARecordWhoseChecksumDoesNotMatch() throws IOException {
+        List<Long> positions = appendAll(OPERATIONS);
+        // first payload byte of the second record, right after its length and crc
+        flipByte(positions.get(0) + 8);
+
+        List<Operation> replayed = new ArrayList<>();
+        open(path(), replayed).close();
+
+        assertEquals(messages(OPERATIONS.subList(0, 1)), messages(replayed));
+    }
+
+    @Test
+    public void appendsAfterACorruptRecordReplaceIt() throws IOException {
+        List<Long> positions = appendAll(OPERATIONS);
+        flipByte(positions.get(1) + 8);
+        Operation later = new CreateAccountOp("carol", VectorClock.of(2), VectorClock.of(4));
+
+        try (WriteAheadLog log = open(path(), new ArrayList<>())) {
+            log.awaitDurable(log.append(later));
+        }
+        List<Operation> replayed = new ArrayList<>();
+        open(path(), replayed).close();
+
+        assertEquals(messages(List.of(OPERATIONS.get(0), OPERATIONS.get(1), later)), messages(replayed));
+    }
+
+    @Test
+    public void readOnlyReplayLeavesTheFileAsItIs() throws IOException {
+        List<Long> positions = appendAll(OPERATIONS);
+        flipByte(positions.get(1) + 8);
+
+        List<Operation> replayed = new ArrayList<>();
+        WriteAheadLog.replayReadOnly(path(), REPLICA_ID, replayed::add);
+        assertEquals(2, replayed.size());
+
+        // the damaged record is still there to be read again
+        flipByte(positions.get(1) + 8);
+        replayed.clear();
+        WriteAheadLog.replayReadOnly(path(), REPLICA_ID, replayed::add);
+        assertEquals(messages(OPERATIONS), messages(replayed));
+    }
+
+    @Test
+    public void keepsTheReplicaIdItWasWrittenWith() throws IOException {
+        appendAll(OPERATIONS);
+
+        assertEquals(REPLICA_ID, WriteAheadLog.readReplicaId(path()));
+    }
+
+    @Test(expected = IOException.class)
+    public void refusesToReplayAsAnotherReplica() throws IOException {
+        appendAll(OPERATIONS);
+
+        WriteAheadLog.open(path(), REPLICA_ID + 1, 0, 1, operation -> { }).close();
+    }
+}
@@ -1,10 +1,16 @@
 package pt.tecnico.distledger.namingserver;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
 import io.grpc.BindableService;
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
 
+import pt.tecnico.distledger.common.grpc.AdmissionInterceptor;
+import pt.tecnico.distledger.common.grpc.ServerExecutors;
+import pt.tecnico.distledger.common.metrics.MetricsHttpServer;
+import pt.tecnico.distledger.common.metrics.MetricsInterceptor;
+import pt.tecnico.distledger.common.metrics.MetricsRegistry;
 import pt.tecnico.distledger.namingserver.domain.NamingServerState;
 import pt.tecnico.distledger.namingserver.grpc.NamingServerServiceImpl;
 
@@ -20,11 +26,28 @@ public class NamingServerMain {
         final int port = 5001;
         final BindableService namingServerImpl = new NamingServerServiceImpl(namingServerState);
 
-        Server namingServer = ServerBuilder.forPort(port).addService(namingServerImpl).build();
+        // handlers run on the gRPC pool and calls are not limited unless asked, e.g. -Dgrpc.executor=virtual -Dgrpc.maxInFlight=1000
+        final ExecutorService executor = ServerExecutors.fromProperties();
+        final int maxInFlight = Integer.getInteger("grpc.maxInFlight", 0);
+        ServerBuilder<?> builder = ServerBuilder.forPort(port).addService(namingServerImpl);
+        if (executor != null) {
+            builder.executor(executor);
+        }
+        if (maxInFlight > 0) {
+            builder.intercept(new AdmissionInterceptor(maxInFlight));
+        }
+        // added last so it runs first, and also times the calls refused for admission
+        Server namingServer = builder.intercept(new MetricsInterceptor(MetricsRegistry.getDefault())).build();
 
         namingServer.start();
         System.out.println("Naming Server started");
         debug("port " + port);
+        // metrics are only served over HTTP when a port is given, e.g. -Dmetrics.port=9001
+        final int metricsPort = Integer.getInteger("metrics.port", 0);
+        if (metricsPort > 0) {
+            new MetricsHttpServer(metricsPort, MetricsRegistry.getDefault());
+            debug("metrics on port " + metricsPort);
+        }
         namingServer.awaitTermination();
     }
 
@@ -0,0 +1,8 @@
+package pt.tecnico.distledger.namingserver.domain;
+
+public interface NamingServerListener {
+
+    void serverRegistered(String service, ServerEntry serverEntry);
+
+    void serverDeleted(String service, ServerEntry serverEntry);
+}
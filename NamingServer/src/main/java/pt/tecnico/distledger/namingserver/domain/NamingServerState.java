@@ -4,10 +4,13 @@ import pt.tecnico.distledger.namingserver.exception.ServerAlreadyDeletedExceptio
 import pt.tecnico.distledger.namingserver.exception.ServerEntryAlreadyExistsOnServiceException;
 import pt.tecnico.distledger.namingserver.exception.AddressAlreadyInUseException;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 
 
@@ -20,6 +23,8 @@ public class NamingServerState {
 
     Map<String, ServiceEntry> serviceEntries = new HashMap<>();
 
+    private final List<NamingServerListener> listeners = new CopyOnWriteArrayList<>();
+
     // constructors
 
     public NamingServerState() {
@@ -30,28 +35,36 @@ public class NamingServerState {
         return serviceEntries.get(service);
     }
 
+    public void addListener(NamingServerListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(NamingServerListener listener) {
+        listeners.remove(listener);
+    }
+
     // naming server interface
 
-    public synchronized void register(String service, String qualifier, String address) throws ServerEntryAlreadyExistsOnServiceException, AddressAlreadyInUseException {
-        ServerEntry serverEntry = new ServerEntry(address,qualifier);
-        if (serviceEntries.containsKey(service)) {
-            if (serviceEntries.get(service).serverAlreadyRegisterForService(address, qualifier)) {
-                throw new ServerEntryAlreadyExistsOnServiceException();
-            } else if (serviceEntries.get(service).addressAlreadyRegistered(address)) {
-                throw new AddressAlreadyInUseException();
-            } else {
-                ServiceEntry serviceEntry = serviceEntries.get(service);
-                serviceEntry.addServerEntry(serverEntry);
-                serviceEntries.put(service, serviceEntry);
-                debug("registered '" + qualifier + " " + address + "' " + "for service '" + service + "'" );
-            }  
-        } else {
-            ServiceEntry serviceEntry = new ServiceEntry(service);
-            serviceEntry.addServerEntry(serverEntry);
+    // returns the replica id of the qualifier, the position of its entry in the service's timestamps
+    public synchronized int register(String service, String qualifier, String address) throws ServerEntryAlreadyExistsOnServiceException, AddressAlreadyInUseException {
+        return register(service, qualifier, address, -1);
+    }
+
+    public synchronized int register(String service, String qualifier, String address, int preferredReplicaId) throws ServerEntryAlreadyExistsOnServiceException, AddressAlreadyInUseException {
+        ServiceEntry serviceEntry = serviceEntries.get(service);
+        if (serviceEntry == null) {
+            serviceEntry = new ServiceEntry(service);
             serviceEntries.put(service, serviceEntry);
-            debug("registered '" + qualifier + " " + address + "' " + "for new service '" + service + "'" );
+        } else if (serviceEntry.serverAlreadyRegisterForService(address, qualifier)) {
+            throw new ServerEntryAlreadyExistsOnServiceException();
+        } else if (serviceEntry.addressAlreadyRegistered(address)) {
+            throw new AddressAlreadyInUseException();
         }
-        
+        ServerEntry serverEntry = new ServerEntry(address, qualifier, serviceEntry.replicaIdOf(qualifier, preferredReplicaId));
+        serviceEntry.addServerEntry(serverEntry);
+        debug("registered '" + qualifier + " " + address + "' " + "for service '" + service + "' with replica id " + serverEntry.getReplicaId());
+        notifyRegistered(service, serverEntry);
+        return serverEntry.getReplicaId();
     }
 
     public synchronized Set<ServerEntry> lookup(String service, String qualifier) {
@@ -78,14 +91,24 @@ public class NamingServerState {
         return serverList;
     }
 
+    // every id the service ever assigned, a deleted server keeps its id for when it comes back
+    public synchronized Set<Integer> replicaIds(String service) {
+        ServiceEntry serviceEntry = serviceEntries.get(service);
+        return serviceEntry == null ? new HashSet<>() : serviceEntry.getReplicaIds();
+    }
+
     public synchronized void delete(String service, String address) throws ServerAlreadyDeletedException {
         if (serviceEntries.containsKey(service)) {
-            Set<ServerEntry> servers = serviceEntries.get(service).getServerEntries();
-            for (ServerEntry serverEntry : servers) {
+            List<ServerEntry> deleted = new ArrayList<>();
+            for (ServerEntry serverEntry : serviceEntries.get(service).getServerEntries()) {
                 if (serverEntry.getAddress().equals(address)) {
-                    serviceEntries.get(service).removeServerEntry(serverEntry);
+                    deleted.add(serverEntry);
                 }
             }
+            for (ServerEntry serverEntry : deleted) {
+                serviceEntries.get(service).removeServerEntry(serverEntry);
+                notifyDeleted(service, serverEntry);
+            }
         } else {
             throw new ServerAlreadyDeletedException();
         }
@@ -94,6 +117,18 @@ public class NamingServerState {
 
     // other methods
 
+    private void notifyRegistered(String service, ServerEntry serverEntry) {
+        for (NamingServerListener listener : listeners) {
+            listener.serverRegistered(service, serverEntry);
+        }
+    }
+
+    private void notifyDeleted(String service, ServerEntry serverEntry) {
+        for (NamingServerListener listener : listeners) {
+            listener.serverDeleted(service, serverEntry);
+        }
+    }
+
     public boolean hasService(String service) {
         return serviceEntries.containsKey(service);
     }
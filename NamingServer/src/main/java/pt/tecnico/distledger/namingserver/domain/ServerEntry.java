@@ -6,9 +6,16 @@ public class ServerEntry {
 
     String qualifier;
 
+    int replicaId;
+
     public ServerEntry(String address, String qualifier) {
+        this(address, qualifier, 0);
+    }
+
+    public ServerEntry(String address, String qualifier, int replicaId) {
         this.address = address; 
         this.qualifier = qualifier;
+        this.replicaId = replicaId;
     }
 
     public String getAddress() {
@@ -27,8 +34,12 @@ public class ServerEntry {
         this.qualifier = qualifier;
     }
 
+    public int getReplicaId() {
+        return replicaId;
+    }
+
     @Override
     public String toString() {
-        return "ServerEntry {address: '" + address + "', qualifier: '" + qualifier + "'}\n";
+        return "ServerEntry {address: '" + address + "', qualifier: '" + qualifier + "', replicaId: " + replicaId + "}\n";
     }
 }
@@ -8,6 +8,9 @@ public class ServiceEntry {
 
     Set<ServerEntry> serverEntries = new HashSet<>();
 
+    // replica ids by qualifier, kept after a server is deleted so it gets the same id when it comes back
+    Map<String, Integer> replicaIds = new HashMap<>();
+
     public ServiceEntry(String service) {
 
         this.service = service;
@@ -17,6 +20,35 @@ public class ServiceEntry {
         return serverEntries;
     }
 
+    public int replicaIdOf(String qualifier) {
+        return replicaIdOf(qualifier, -1);
+    }
+
+    // the preferred id is honoured when the qualifier has none yet and no other qualifier holds it
+    public int replicaIdOf(String qualifier, int preferredReplicaId) {
+        Integer replicaId = replicaIds.get(qualifier);
+        if (replicaId == null) {
+            if (preferredReplicaId >= 0 && !replicaIds.containsValue(preferredReplicaId)) {
+                replicaId = preferredReplicaId;
+            } else {
+                replicaId = 0;
+                while (replicaIds.containsValue(replicaId)) {
+                    replicaId++;
+                }
+            }
+            replicaIds.put(qualifier, replicaId);
+        }
+        return replicaId;
+    }
+
+    public int getReplicaCount() {
+        return replicaIds.size();
+    }
+
+    public Set<Integer> getReplicaIds() {
+        return new HashSet<>(replicaIds.values());
+    }
+
     public void addServerEntry(ServerEntry serverEntry) {
         serverEntries.add(serverEntry);
     }
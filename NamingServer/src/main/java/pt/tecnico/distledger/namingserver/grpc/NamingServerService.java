@@ -1,54 +1,163 @@
 package pt.tecnico.distledger.namingserver.grpc;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.google.protobuf.Int32Value;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
+import io.grpc.stub.StreamObserver;
 import pt.ulisboa.tecnico.distledger.contract.namingserver.NamingServerDistLedger.DeleteRequest;
 import pt.tecnico.distledger.namingserver.other.NamingServerUtilities;
 import pt.ulisboa.tecnico.distledger.contract.namingserver.NamingServerServiceGrpc;
 import pt.ulisboa.tecnico.distledger.contract.namingserver.NamingServerDistLedger.LookupRequest;
 import pt.ulisboa.tecnico.distledger.contract.namingserver.NamingServerDistLedger.RegisterRequest;
+import pt.ulisboa.tecnico.distledger.contract.namingserver.NamingServerDistLedger.ReplicaIdsRequest;
+import pt.ulisboa.tecnico.distledger.contract.namingserver.NamingServerDistLedger.WatchEvent;
+import pt.ulisboa.tecnico.distledger.contract.namingserver.NamingServerDistLedger.WatchRequest;
 
 public class NamingServerService implements AutoCloseable {
 
     private static final boolean DEBUG_FLAG = (System.getProperty("debug") != null);
     private static void debug(String debugMessage) { if (DEBUG_FLAG) System.err.println("NamingServerService: " + debugMessage); }
 
+    // how long a lookup is reused when its service is not being watched
+    private static final long CACHE_TTL_MILLIS = Long.getLong("namingserver.cacheTTL", 5000);
+
+    private static class CachedLookup {
+
+        private final List<String> addresses;
+
+        private final long expiresAt;
+
+        private CachedLookup(List<String> addresses, long expiresAt) {
+            this.addresses = addresses;
+            this.expiresAt = expiresAt;
+        }
+    }
+
     private final ManagedChannel channel;
     private final NamingServerServiceGrpc.NamingServerServiceBlockingStub stub;
+    private final NamingServerServiceGrpc.NamingServerServiceStub asyncStub;
+
+    private final Map<String, CachedLookup> cache = new ConcurrentHashMap<>();
+
+    // services whose changes are pushed by the naming server, their cached lookups never expire
+    private final Set<String> watchedServices = ConcurrentHashMap.newKeySet();
+
+    // bumped on every invalidation so a lookup that raced with it is not cached
+    private final AtomicLong generation = new AtomicLong();
 
     public NamingServerService(String host, int port) {
         this.channel = ManagedChannelBuilder.forAddress(host, port).usePlaintext().build();
         this.stub = NamingServerServiceGrpc.newBlockingStub(channel);
+        this.asyncStub = NamingServerServiceGrpc.newStub(channel);
     }
-    
+
     // register
 
-    public void register(String qualifier, String address) {
+    // returns the replica id the naming server assigned to the qualifier
+    public int register(String qualifier, String address) {
+        return register(qualifier, address, -1);
+    }
+
+    // a server recovering its state asks for the replica id it used before (-1 when it has none)
+    public int register(String qualifier, String address, int preferredReplicaId) {
+        return register(NamingServerUtilities.DISTLEDGER_SERVICE, qualifier, address, preferredReplicaId);
+    }
+
+    // replica ids are assigned per service, so every shard numbers its replicas from 0
+    public int register(String service, String qualifier, String address, int preferredReplicaId) {
         debug("requested register");
-        stub.register(RegisterRequest.newBuilder().setService(NamingServerUtilities.DISTLEDGER_SERVICE).setAddress(address).setQualifier(qualifier).build());
+        RegisterRequest.Builder request = RegisterRequest.newBuilder().setService(service).setAddress(address).setQualifier(qualifier);
+        if (preferredReplicaId >= 0) {
+            request.setReplicaId(Int32Value.of(preferredReplicaId));
+        }
+        int replicaId = stub.register(request.build()).getReplicaId();
+        invalidate(service);
+        return replicaId;
     }
 
     // lookup
 
     public List<String> lookup(String service) {
-        debug("requested lookup without specified qualifier");
-        return stub.lookup(LookupRequest.newBuilder().setService(service).build()).getAddressList();
+        return lookup(service, "");
     }
 
     public List<String> lookup(String service, String qualifier) {
-        debug("requested lookup with specified qualifier");
-        return stub.lookup(LookupRequest.newBuilder().setService(service).setQualifier(qualifier).build()).getAddressList();
+        String key = service + "/" + qualifier;
+        CachedLookup cached = cache.get(key);
+        if (cached != null && (watchedServices.contains(service) || System.currentTimeMillis() < cached.expiresAt)) {
+            return cached.addresses;
+        }
+        debug("requested lookup " + (qualifier.isEmpty() ? "without" : "with") + " specified qualifier");
+        long lookupGeneration = generation.get();
+        List<String> addresses = stub.lookup(LookupRequest.newBuilder().setService(service).setQualifier(qualifier).build()).getAddressList();
+        if (generation.get() == lookupGeneration) {
+            cache.put(key, new CachedLookup(addresses, System.currentTimeMillis() + CACHE_TTL_MILLIS));
+        }
+        return addresses;
+    }
+
+    // not cached, ids are only added but the caller must see every one assigned so far
+    public List<Integer> replicaIds(String service) {
+        debug("requested replica ids");
+        return stub.replicaIds(ReplicaIdsRequest.newBuilder().setService(service).build()).getReplicaIdList();
     }
 
     public void delete(String address) {
+        delete(NamingServerUtilities.DISTLEDGER_SERVICE, address);
+    }
+
+    public void delete(String service, String address) {
         debug("requested delete");
-        stub.delete(DeleteRequest.newBuilder().setService("DistLedger").setAddress(address).build());
+        stub.delete(DeleteRequest.newBuilder().setService(service).setAddress(address).build());
+        invalidate(service);
+    }
+
+    // watch
+
+    // keeps the cached lookups of the service up to date with the changes pushed by the naming server
+    public void watch(String service) {
+        if (!watchedServices.add(service)) {
+            return;
+        }
+        debug("requested watch of service '" + service + "'");
+        asyncStub.watch(WatchRequest.newBuilder().setService(service).build(), new StreamObserver<WatchEvent>() {
+
+            @Override
+            public void onNext(WatchEvent event) {
+                debug("received " + event.getType() + " of '" + event.getAddress() + "' for service '" + service + "'");
+                invalidate(service);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                // back to expiring lookups, watch can be called again to resubscribe
+                watchedServices.remove(service);
+                invalidate(service);
+                debug("stopped watching service '" + service + "': " + t.getMessage());
+            }
+
+            @Override
+            public void onCompleted() {
+                watchedServices.remove(service);
+                invalidate(service);
+            }
+        });
+    }
+
+    // drops the cached lookups of the service, e.g. after one of its servers stopped answering
+    public void invalidate(String service) {
+        generation.incrementAndGet();
+        cache.keySet().removeIf(key -> key.startsWith(service + "/"));
     }
 
     @Override
     public final void close() {
-        channel.shutdown();
+        channel.shutdownNow();
     }
-}   
+}
@@ -1,7 +1,10 @@
 package pt.tecnico.distledger.namingserver.grpc;
 
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import pt.tecnico.distledger.namingserver.exception.ServerEntryAlreadyExistsOnServiceException;
+import pt.tecnico.distledger.namingserver.domain.NamingServerListener;
 import pt.tecnico.distledger.namingserver.domain.NamingServerState;
 import pt.tecnico.distledger.namingserver.domain.ServerEntry;
 import pt.ulisboa.tecnico.distledger.contract.namingserver.NamingServerServiceGrpc;
@@ -11,8 +14,13 @@ import pt.ulisboa.tecnico.distledger.contract.namingserver.NamingServerDistLedge
 import pt.ulisboa.tecnico.distledger.contract.namingserver.NamingServerDistLedger.LookupResponse;
 import pt.ulisboa.tecnico.distledger.contract.namingserver.NamingServerDistLedger.RegisterRequest;
 import pt.ulisboa.tecnico.distledger.contract.namingserver.NamingServerDistLedger.RegisterResponse;
+import pt.ulisboa.tecnico.distledger.contract.namingserver.NamingServerDistLedger.ReplicaIdsRequest;
+import pt.ulisboa.tecnico.distledger.contract.namingserver.NamingServerDistLedger.ReplicaIdsResponse;
 import pt.ulisboa.tecnico.distledger.contract.namingserver.NamingServerDistLedger.DeleteRequest;
 import pt.ulisboa.tecnico.distledger.contract.namingserver.NamingServerDistLedger.DeleteResponse;
+import pt.ulisboa.tecnico.distledger.contract.namingserver.NamingServerDistLedger.WatchEvent;
+import pt.ulisboa.tecnico.distledger.contract.namingserver.NamingServerDistLedger.WatchEventType;
+import pt.ulisboa.tecnico.distledger.contract.namingserver.NamingServerDistLedger.WatchRequest;
 
 
 import static io.grpc.Status.ALREADY_EXISTS;
@@ -33,8 +41,9 @@ public class NamingServerServiceImpl extends NamingServerServiceGrpc.NamingServe
     @Override
     public void register(RegisterRequest request, StreamObserver<RegisterResponse> responseObserver) {
         try {
-            namingServerState.register(request.getService(), request.getQualifier(), request.getAddress());
-            RegisterResponse response = RegisterResponse.newBuilder().build();
+            int preferredReplicaId = request.hasReplicaId() ? request.getReplicaId().getValue() : -1;
+            int replicaId = namingServerState.register(request.getService(), request.getQualifier(), request.getAddress(), preferredReplicaId);
+            RegisterResponse response = RegisterResponse.newBuilder().setReplicaId(replicaId).build();
             responseObserver.onNext(response);
 		    responseObserver.onCompleted();
         } catch (ServerEntryAlreadyExistsOnServiceException e) {
@@ -45,7 +54,7 @@ public class NamingServerServiceImpl extends NamingServerServiceGrpc.NamingServe
     }
 
     @Override
-    public synchronized void lookup(LookupRequest request, StreamObserver<LookupResponse> responseObserver) {
+    public void lookup(LookupRequest request, StreamObserver<LookupResponse> responseObserver) {
         String service = request.getService();
         String qualifier = request.getQualifier();
         LookupResponse.Builder responseBuilder = LookupResponse.newBuilder();
@@ -57,6 +66,15 @@ public class NamingServerServiceImpl extends NamingServerServiceGrpc.NamingServe
 		responseObserver.onCompleted();
     }
 
+    @Override
+    public void replicaIds(ReplicaIdsRequest request, StreamObserver<ReplicaIdsResponse> responseObserver) {
+        ReplicaIdsResponse response = ReplicaIdsResponse.newBuilder()
+                                                        .addAllReplicaId(namingServerState.replicaIds(request.getService()))
+                                                        .build();
+        responseObserver.onNext(response);
+        responseObserver.onCompleted();
+    }
+
     @Override
     public void delete(DeleteRequest request, StreamObserver<DeleteResponse> responseObserver) {
         try {
@@ -68,6 +86,54 @@ public class NamingServerServiceImpl extends NamingServerServiceGrpc.NamingServe
             responseObserver.onError(NOT_FOUND.withDescription(e.getMessage()).asRuntimeException());
         } 
     }
+
+    @Override
+    public void watch(WatchRequest request, StreamObserver<WatchEvent> responseObserver) {
+        String service = request.getService();
+        ServerCallStreamObserver<WatchEvent> serverObserver = (ServerCallStreamObserver<WatchEvent>) responseObserver;
+        NamingServerListener listener = new NamingServerListener() {
+
+            @Override
+            public void serverRegistered(String eventService, ServerEntry serverEntry) {
+                if (service.equals(eventService)) {
+                    send(this, WatchEventType.EVENT_REGISTER, serverEntry);
+                }
+            }
+
+            @Override
+            public void serverDeleted(String eventService, ServerEntry serverEntry) {
+                if (service.equals(eventService)) {
+                    send(this, WatchEventType.EVENT_DELETE, serverEntry);
+                }
+            }
+
+            private void send(NamingServerListener listener, WatchEventType type, ServerEntry serverEntry) {
+                try {
+                    serverObserver.onNext(WatchEvent.newBuilder()
+                                                    .setType(type)
+                                                    .setService(service)
+                                                    .setQualifier(serverEntry.getQualifier())
+                                                    .setAddress(serverEntry.getAddress())
+                                                    .setReplicaId(serverEntry.getReplicaId())
+                                                    .build());
+                } catch (StatusRuntimeException e) {
+                    namingServerState.removeListener(listener);
+                }
+            }
+        };
+        serverObserver.setOnCancelHandler(() -> {
+            namingServerState.removeListener(listener);
+            debug("stopped watching service '" + service + "'");
+        });
+        // the current servers are sent first, holding the state so no event is missed in between
+        synchronized (namingServerState) {
+            for (ServerEntry serverEntry : namingServerState.lookup(service, "")) {
+                listener.serverRegistered(service, serverEntry);
+            }
+            namingServerState.addListener(listener);
+        }
+        debug("watching service '" + service + "'");
+    }
 }
 
 
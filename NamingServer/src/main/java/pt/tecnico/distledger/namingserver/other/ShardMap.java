@@ -0,0 +1,60 @@
+package pt.tecnico.distledger.namingserver.other;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Splits the accounts among shard.count groups of replicas, each registered in the naming server
+ * under its own service. Servers and clients must be started with the same count; with a single
+ * shard the service is the plain DistLedger one.
+ */
+public class ShardMap {
+
+    private final int count;
+
+    public ShardMap(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("shard count must be positive");
+        }
+        this.count = count;
+    }
+
+    public static ShardMap fromProperties() {
+        return new ShardMap(Integer.getInteger("shard.count", 1));
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int shardOf(String account) {
+        return Math.floorMod(account.hashCode(), count);
+    }
+
+    public String service(int shard) {
+        return count == 1 ? NamingServerUtilities.DISTLEDGER_SERVICE : NamingServerUtilities.DISTLEDGER_SERVICE + "-" + shard;
+    }
+
+    public String serviceOf(String account) {
+        return service(shardOf(account));
+    }
+
+    public List<String> services() {
+        List<String> services = new ArrayList<>(count);
+        for (int shard = 0; shard < count; shard++) {
+            services.add(service(shard));
+        }
+        return services;
+    }
+
+    // qualifiers name a replica within a shard, "B@1" is replica B of shard 1 and "B" the one of shard 0
+    public static int parseShard(String qualifier) {
+        int separator = qualifier.indexOf('@');
+        return separator < 0 ? 0 : Integer.parseInt(qualifier.substring(separator + 1));
+    }
+
+    public static String parseReplica(String qualifier) {
+        int separator = qualifier.indexOf('@');
+        return separator < 0 ? qualifier : qualifier.substring(0, separator);
+    }
+}
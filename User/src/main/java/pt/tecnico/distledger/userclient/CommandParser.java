@@ -3,6 +3,10 @@ package pt.tecnico.distledger.userclient;
 import pt.tecnico.distledger.server.exception.NoSuchQualifierException;
 import pt.tecnico.distledger.userclient.grpc.UserService;
 
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.Transfer;
+
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
 public class CommandParser {
@@ -10,6 +14,7 @@ public class CommandParser {
     private static final String SPACE = " ";
     private static final String CREATE_ACCOUNT = "createAccount";
     private static final String TRANSFER_TO = "transferTo";
+    private static final String TRANSFER_BATCH = "transferBatch";
     private static final String BALANCE = "balance";
     private static final String HELP = "help";
     private static final String EXIT = "exit";
@@ -40,6 +45,10 @@ public class CommandParser {
                         this.transferTo(line);
                         break;
 
+                    case TRANSFER_BATCH:
+                        this.transferBatch(line);
+                        break;
+
                     case BALANCE:
                         this.balance(line);
                         break;
@@ -68,7 +77,7 @@ public class CommandParser {
     }
 
     private boolean serverIsValid(String server) {
-        return server.equals("A") || server.equals("B") || server.equals("C");
+        return userService.hasServer(server);
     }
 
     private void createAccount(String line) throws NoSuchQualifierException {
@@ -118,6 +127,29 @@ public class CommandParser {
         userService.transferTo(server, from, dest,amount);
     }
 
+    private void transferBatch(String line) throws NoSuchQualifierException {
+        String[] split = line.split(SPACE);
+
+        if (split.length < 5 || split.length % 2 == 0) {
+            this.printUsage();
+            return;
+        }
+
+        String server = split[1];
+        if (!serverIsValid(server)) { throw new NoSuchQualifierException(); }
+        String from = split[2];
+        List<Transfer> transfers = new ArrayList<>();
+        for (int i = 3; i < split.length; i += 2) {
+            transfers.add(Transfer.newBuilder()
+                                  .setAccountFrom(from)
+                                  .setAccountTo(split[i])
+                                  .setAmount(Integer.valueOf(split[i + 1]))
+                                  .build());
+        }
+
+        userService.transferBatch(server, transfers);
+    }
+
     private void exit(String line) {
         String[] split = line.split(SPACE);
 
@@ -134,6 +166,7 @@ public class CommandParser {
                         "- createAccount <server> <username>\n" +
                         "- balance <server> <username>\n" +
                         "- transferTo <server> <username_from> <username_to> <amount>\n" +
+                        "- transferBatch <server> <username_from> <username_to> <amount> [<username_to> <amount> ...]\n" +
                         "- exit\n");
     }
 
@@ -142,6 +175,7 @@ public class CommandParser {
                         "- createAccount <server> <username>\n" +
                         "- balance <server> <username>\n" +
                         "- transferTo <server> <username_from> <username_to> <amount>\n" +
+                        "- transferBatch <server> <username_from> <username_to> <amount> [<username_to> <amount> ...]\n" +
                         "- exit\n");
     }
 }
@@ -0,0 +1,347 @@
+package pt.tecnico.distledger.userclient.grpc;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import pt.tecnico.distledger.namingserver.grpc.NamingServerService;
+import pt.tecnico.distledger.namingserver.other.NamingServerUtilities;
+import pt.tecnico.distledger.namingserver.other.ShardMap;
+import pt.tecnico.distledger.server.exception.NoSuchQualifierException;
+import pt.tecnico.distledger.server.gossip.VectorClock;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.BalanceRequest;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.CreateAccountRequest;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.Transfer;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.TransferBatchRequest;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.TransferResult;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.TransferToRequest;
+import pt.ulisboa.tecnico.distledger.contract.user.UserServiceGrpc;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/*
+ * Non-blocking user client meant to be embedded, nothing is printed. Calls return as soon as the
+ * request is sent and complete with the result, or with the StatusRuntimeException the server
+ * answered. At most maxInFlight requests are outstanding: further calls are queued and started, in
+ * order, as earlier ones complete. Naming server lookups that are not cached run on a thread of the
+ * client, so no call blocks the thread that makes it. The causal prevTS of each shard is shared by every call made through the same instance. Requests
+ * go to the shard owning the account; reads are sent to the replica of that shard chosen by its
+ * ReplicaSelector and move on to the next one when a replica is unavailable.
+ */
+public class AsyncUserService implements AutoCloseable {
+
+	private static final boolean DEBUG_FLAG = (System.getProperty("debug") != null);
+	private static void debug(String debugMessage) { if (DEBUG_FLAG) System.err.println("AsyncUserService: " + debugMessage); }
+
+    private final NamingServerService namingServerService;
+
+    private final int maxInFlight;
+
+    // calls started and not completed yet, and the calls waiting for one of them to complete; guarded by queued
+    private int inFlight = 0;
+    private final Deque<Runnable> queued = new ArrayDeque<>();
+
+    private final ExecutorService lookupExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "naming-lookup");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ShardMap shards;
+
+    // channels and stubs by service and qualifier, opened the first time each server is used
+    private final Map<String, ManagedChannel> channels = new ConcurrentHashMap<>();
+    private final Map<String, UserServiceGrpc.UserServiceFutureStub> stubs = new ConcurrentHashMap<>();
+
+    // one per shard, each guarded by itself
+    private final VectorClock[] prevTS;
+
+    private final ReplicaSelector[] replicaSelectors;
+
+    public AsyncUserService(NamingServerService namingServerService, int maxInFlight) {
+        this(namingServerService, maxInFlight, ShardMap.fromProperties());
+    }
+
+    public AsyncUserService(NamingServerService namingServerService, int maxInFlight, ShardMap shards) {
+        this.namingServerService = namingServerService;
+        this.maxInFlight = maxInFlight;
+        this.shards = shards;
+        this.prevTS = new VectorClock[shards.getCount()];
+        this.replicaSelectors = new ReplicaSelector[shards.getCount()];
+        for (int shard = 0; shard < shards.getCount(); shard++) {
+            prevTS[shard] = new VectorClock(0);
+            replicaSelectors[shard] = new ReplicaSelector(namingServerService, shards.service(shard));
+        }
+    }
+
+    // services
+
+    // read from whichever replica the selector ranks best
+    public CompletableFuture<Integer> balance(String username) {
+        return read(shards.shardOf(username), null, username);
+    }
+
+    // read from the given server, or from another one while it is unavailable
+    public CompletableFuture<Integer> balance(String qualifier, String username) {
+        return read(shards.shardOf(username), qualifier, username);
+    }
+
+    public CompletableFuture<Void> createAccount(String qualifier, String username) {
+        int shard = shards.shardOf(username);
+        return call(shard, qualifier, stub -> stub.createAccount(CreateAccountRequest.newBuilder()
+                                                                                     .setUserId(username)
+                                                                                     .addAllPrevTS(currentPrevTS(shard))
+                                                                                     .build()),
+                response -> {
+                    advance(shard, response.getTSList());
+                    return null;
+                });
+    }
+
+    // a transfer to another shard is forwarded by the shard of the source account
+    public CompletableFuture<Void> transferTo(String qualifier, String usernameFrom, String usernameDest, int amount) {
+        int shard = shards.shardOf(usernameFrom);
+        return call(shard, qualifier, stub -> stub.transferTo(TransferToRequest.newBuilder()
+                                                                               .setAccountFrom(usernameFrom)
+                                                                               .setAccountTo(usernameDest)
+                                                                               .setAmount(amount)
+                                                                               .addAllPrevTS(currentPrevTS(shard))
+                                                                               .build()),
+                response -> {
+                    advance(shard, response.getTSList());
+                    return null;
+                });
+    }
+
+    // one result per transfer, in the order they were given; sent to the shard of the first source account
+    public CompletableFuture<List<TransferResult>> transferBatch(String qualifier, List<Transfer> transfers) {
+        int shard = transfers.isEmpty() ? 0 : shards.shardOf(transfers.get(0).getAccountFrom());
+        return call(shard, qualifier, stub -> stub.transferBatch(TransferBatchRequest.newBuilder()
+                                                                                     .addAllTransfers(transfers)
+                                                                                     .addAllPrevTS(currentPrevTS(shard))
+                                                                                     .build()),
+                response -> {
+                    advance(shard, response.getTSList());
+                    return response.getResultsList();
+                });
+    }
+
+    public List<Integer> getPrevTS(int shard) {
+        return currentPrevTS(shard);
+    }
+
+    // auxiliary
+
+    private <R, T> CompletableFuture<T> call(int shard, String qualifier,
+            Function<UserServiceGrpc.UserServiceFutureStub, ListenableFuture<R>> request, Function<R, T> onResponse) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        inWindow(result, () -> selectStub(shard, qualifier).whenComplete((stub, error) -> {
+            if (error != null) {
+                result.completeExceptionally(causeOf(error));
+            } else if (stub == null) {
+                result.completeExceptionally(noSuchQualifier());
+            } else {
+                send(stub, request, onResponse).whenComplete((value, failure) -> {
+                    if (failure == null) {
+                        result.complete(value);
+                    } else {
+                        result.completeExceptionally(failure);
+                    }
+                });
+            }
+        }));
+        return result;
+    }
+
+    // a read keeps its place in the window while it moves from replica to replica; the qualifier may be null
+    private CompletableFuture<Integer> read(int shard, String qualifier, String username) {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        inWindow(result, () -> CompletableFuture.supplyAsync(() -> {
+            String preferredAddress = null;
+            if (qualifier != null) {
+                List<String> preferred = namingServerService.lookup(shards.service(shard), qualifier);
+                if (preferred.isEmpty()) {
+                    throw noSuchQualifier();
+                }
+                preferredAddress = preferred.get(0);
+            }
+            return replicaSelectors[shard].candidates(preferredAddress);
+        }, lookupExecutor).whenComplete((candidates, error) -> {
+            if (error != null) {
+                result.completeExceptionally(causeOf(error));
+            } else {
+                readFrom(shard, candidates, 0, username, result, null);
+            }
+        }));
+        return result;
+    }
+
+    // starts the call now if the window has room, otherwise once an earlier call completes and hands over its place
+    private void inWindow(CompletableFuture<?> result, Runnable start) {
+        Runnable started = () -> {
+            result.whenComplete((value, error) -> leaveWindow());
+            if (!result.isDone()) {
+                start.run();
+            }
+        };
+        synchronized (queued) {
+            if (inFlight >= maxInFlight) {
+                queued.add(started);
+                return;
+            }
+            inFlight++;
+        }
+        started.run();
+    }
+
+    private void leaveWindow() {
+        Runnable next;
+        synchronized (queued) {
+            next = queued.poll();
+            if (next == null) {
+                inFlight--;
+                return;
+            }
+        }
+        next.run();
+    }
+
+    private void readFrom(int shard, List<String> candidates, int index, String username, CompletableFuture<Integer> result,
+            Throwable lastFailure) {
+        ReplicaSelector replicaSelector = replicaSelectors[shard];
+        if (index >= candidates.size()) {
+            result.completeExceptionally(lastFailure != null ? lastFailure : noSuchQualifier());
+            return;
+        }
+        String address = candidates.get(index);
+        long start = replicaSelector.begin(address);
+        send(UserServiceGrpc.newFutureStub(replicaSelector.channel(address)),
+                stub -> stub.balance(BalanceRequest.newBuilder()
+                                                   .setUserId(username)
+                                                   .addAllPrevTS(currentPrevTS(shard))
+                                                   .build()),
+                response -> {
+                    advance(shard, response.getValueTSList());
+                    return response.getValue();
+                }).whenComplete((value, error) -> {
+            boolean unavailable = error != null && ReplicaSelector.isUnavailable(error);
+            replicaSelector.end(address, start, !unavailable);
+            if (error == null) {
+                result.complete(value);
+            } else if (unavailable) {
+                debug("server with address '" + address + "' is unavailable, trying another one");
+                readFrom(shard, candidates, index + 1, username, result, error);
+            } else {
+                result.completeExceptionally(error);
+            }
+        });
+    }
+
+    private static <R, T> CompletableFuture<T> send(UserServiceGrpc.UserServiceFutureStub stub,
+            Function<UserServiceGrpc.UserServiceFutureStub, ListenableFuture<R>> request, Function<R, T> onResponse) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        ListenableFuture<R> call;
+        try {
+            call = request.apply(stub);
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        Futures.addCallback(call, new FutureCallback<R>() {
+
+            @Override
+            public void onSuccess(R response) {
+                try {
+                    result.complete(onResponse.apply(response));
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                result.completeExceptionally(t);
+            }
+        }, MoreExecutors.directExecutor());
+        return result;
+    }
+
+    private static Throwable causeOf(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private static StatusRuntimeException noSuchQualifier() {
+        return Status.NOT_FOUND.withDescription(new NoSuchQualifierException().getMessage()).asRuntimeException();
+    }
+
+    private List<Integer> currentPrevTS(int shard) {
+        synchronized (prevTS[shard]) {
+            return prevTS[shard].toList();
+        }
+    }
+
+    private void advance(int shard, List<Integer> TS) {
+        synchronized (prevTS[shard]) {
+            prevTS[shard].merge(VectorClock.fromList(TS));
+            debug("prevTS of shard " + shard + " is now " + prevTS[shard]);
+        }
+    }
+
+    // completes with null when the naming server knows no such server
+    private CompletableFuture<UserServiceGrpc.UserServiceFutureStub> selectStub(int shard, String qualifier) {
+        String key = shards.service(shard) + "/" + qualifier;
+        UserServiceGrpc.UserServiceFutureStub stub = stubs.get(key);
+        if (stub != null) {
+            return CompletableFuture.completedFuture(stub);
+        }
+        return CompletableFuture.supplyAsync(() -> openStub(key, shard, qualifier), lookupExecutor);
+    }
+
+    private UserServiceGrpc.UserServiceFutureStub openStub(String key, int shard, String qualifier) {
+        synchronized (channels) {
+            UserServiceGrpc.UserServiceFutureStub stub = stubs.get(key);
+            if (stub != null) {
+                return stub;
+            }
+            List<String> lookupList = namingServerService.lookup(shards.service(shard), qualifier);
+            if (lookupList.isEmpty()) {
+                return null;
+            }
+            String address = lookupList.get(0);
+            ManagedChannel channel = ManagedChannelBuilder.forAddress(NamingServerUtilities.parseServerHost(address),
+                    NamingServerUtilities.parseServerPort(address)).usePlaintext().build();
+            channels.put(key, channel);
+            stub = UserServiceGrpc.newFutureStub(channel);
+            stubs.put(key, stub);
+            debug("opened channel to server '" + qualifier + "' with address: " + address);
+            return stub;
+        }
+    }
+
+    // other
+
+    @Override
+    public final void close() {
+        lookupExecutor.shutdownNow();
+        for (ManagedChannel channel : channels.values()) {
+            channel.shutdown();
+        }
+        for (ReplicaSelector replicaSelector : replicaSelectors) {
+            replicaSelector.close();
+        }
+    }
+}
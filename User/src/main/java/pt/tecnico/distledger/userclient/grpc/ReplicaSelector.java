@@ -0,0 +1,138 @@
+package pt.tecnico.distledger.userclient.grpc;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import pt.tecnico.distledger.common.grpc.FailureTrailers;
+import pt.tecnico.distledger.namingserver.grpc.NamingServerService;
+import pt.tecnico.distledger.namingserver.other.NamingServerUtilities;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Chooses the replica a read goes to. Any replica can answer a read, since it waits until it covers
+ * the client's prevTS, so replicas are ranked by EWMA latency weighted by the requests still
+ * outstanding on them. A replica that answered UNAVAILABLE is tried last for a while, and the
+ * naming server is asked again in case it left. Each selector ranks the replicas of one shard.
+ */
+public class ReplicaSelector implements AutoCloseable {
+
+	private static final boolean DEBUG_FLAG = (System.getProperty("debug") != null);
+	private static void debug(String debugMessage) { if (DEBUG_FLAG) System.err.println("ReplicaSelector: " + debugMessage); }
+
+    // weight of the newest sample in the latency average and how long an unavailable replica is avoided
+    private static final double EWMA_WEIGHT = 0.2;
+    private static final long DOWN_MILLIS = Long.getLong("replica.downPeriod", 2000);
+
+    private static class ReplicaStats {
+
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        private volatile double latencyNanos = 0;
+
+        private volatile long downUntil = 0;
+
+        private boolean isDown(long now) {
+            return now < downUntil;
+        }
+
+        // replicas never measured come first so every one gets a sample
+        private double score() {
+            return latencyNanos * (outstanding.get() + 1);
+        }
+    }
+
+    private final NamingServerService namingServerService;
+
+    private final String service;
+
+    private final Map<String, ReplicaStats> stats = new ConcurrentHashMap<>();
+
+    private final Map<String, ManagedChannel> channels = new ConcurrentHashMap<>();
+
+    public ReplicaSelector(NamingServerService namingServerService, String service) {
+        this.namingServerService = namingServerService;
+        this.service = service;
+    }
+
+    // replicas to try, best first; the preferred one (may be null) leads unless it is down
+    public List<String> candidates(String preferredAddress) {
+        List<String> addresses = new ArrayList<>(namingServerService.lookup(service));
+        stats.keySet().retainAll(addresses);
+        for (String address : new ArrayList<>(channels.keySet())) {
+            if (!addresses.contains(address)) {
+                ManagedChannel channel = channels.remove(address);
+                if (channel != null) {
+                    channel.shutdown();
+                }
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        Map<String, ReplicaStats> current = new HashMap<>();
+        for (String address : addresses) {
+            current.put(address, statsOf(address));
+        }
+        addresses.sort(Comparator.<String>comparingInt(address -> current.get(address).isDown(now) ? 1 : 0)
+                .thenComparing(address -> address.equals(preferredAddress) ? 0 : 1)
+                .thenComparingDouble(address -> current.get(address).score()));
+        return addresses;
+    }
+
+    public ManagedChannel channel(String address) {
+        return channels.computeIfAbsent(address, key -> ManagedChannelBuilder.forAddress(NamingServerUtilities.parseServerHost(key),
+                NamingServerUtilities.parseServerPort(key)).usePlaintext().build());
+    }
+
+    // bookkeeping around each request, begin returns the start time to hand to end
+
+    public long begin(String address) {
+        statsOf(address).outstanding.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    public void end(String address, long start, boolean available) {
+        ReplicaStats replica = statsOf(address);
+        replica.outstanding.decrementAndGet();
+        if (available) {
+            double sample = System.nanoTime() - start;
+            replica.latencyNanos = replica.latencyNanos == 0 ? sample : (1 - EWMA_WEIGHT) * replica.latencyNanos + EWMA_WEIGHT * sample;
+        } else {
+            replica.downUntil = System.currentTimeMillis() + DOWN_MILLIS;
+            namingServerService.invalidate(service);
+            debug("replica with address '" + address + "' is unavailable");
+        }
+    }
+
+    // a read that timed out waiting for gossip is not the replica's fault, its trailers mark it and it is not retried elsewhere
+    public static boolean isUnavailable(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (!(cause instanceof StatusRuntimeException)) {
+            return false;
+        }
+        StatusRuntimeException failure = (StatusRuntimeException) cause;
+        Metadata trailers = failure.getTrailers();
+        return failure.getStatus().getCode() == Status.Code.UNAVAILABLE
+                && (trailers == null || !trailers.containsKey(FailureTrailers.STALE_READ));
+    }
+
+    private ReplicaStats statsOf(String address) {
+        return stats.computeIfAbsent(address, key -> new ReplicaStats());
+    }
+
+    @Override
+    public final void close() {
+        for (ManagedChannel channel : channels.values()) {
+            channel.shutdown();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package pt.tecnico.distledger.userclient.grpc;
+
+import io.grpc.Channel;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.BalanceRequest;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.BalanceResponse;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.CreateAccountRequest;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.CreateAccountResponse;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.SessionRequest;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.SessionResponse;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.TransferToRequest;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.TransferToResponse;
+import pt.ulisboa.tecnico.distledger.contract.user.UserServiceGrpc;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Client side of a user session. Requests are pipelined over a single stream and the server keeps
+ * the causal prevTS of the stream, so a call only waits for its own response. Failed requests
+ * complete with the StatusRuntimeException the unary call would have thrown.
+ */
+public class SessionClient implements AutoCloseable {
+
+	private static final boolean DEBUG_FLAG = (System.getProperty("debug") != null);
+	private static void debug(String debugMessage) { if (DEBUG_FLAG) System.err.println("SessionClient: " + debugMessage); }
+
+    private final StreamObserver<SessionRequest> requests;
+
+    private final Map<Long, CompletableFuture<SessionResponse>> pending = new ConcurrentHashMap<>();
+
+    private long nextId = 0;
+
+    private boolean closed = false;
+
+    public SessionClient(Channel channel) {
+        this.requests = UserServiceGrpc.newStub(channel).session(new StreamObserver<SessionResponse>() {
+
+            @Override
+            public void onNext(SessionResponse response) {
+                CompletableFuture<SessionResponse> future = pending.remove(response.getId());
+                if (future == null) {
+                    return;
+                }
+                if (response.getCode() == Status.Code.OK.value()) {
+                    future.complete(response);
+                } else {
+                    future.completeExceptionally(Status.fromCodeValue(response.getCode())
+                                                       .withDescription(response.getDescription())
+                                                       .asRuntimeException());
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                debug("session failed: " + t.getMessage());
+                failPending(t);
+            }
+
+            @Override
+            public void onCompleted() {
+                failPending(Status.UNAVAILABLE.withDescription("Session closed.\n").asRuntimeException());
+            }
+        });
+    }
+
+    // services
+
+    public CompletableFuture<BalanceResponse> balance(String username) {
+        return send(SessionRequest.newBuilder().setBalance(BalanceRequest.newBuilder().setUserId(username)))
+                .thenApply(SessionResponse::getBalance);
+    }
+
+    public CompletableFuture<CreateAccountResponse> createAccount(String username) {
+        return send(SessionRequest.newBuilder().setCreateAccount(CreateAccountRequest.newBuilder().setUserId(username)))
+                .thenApply(SessionResponse::getCreateAccount);
+    }
+
+    public CompletableFuture<TransferToResponse> transferTo(String usernameFrom, String usernameDest, int amount) {
+        return send(SessionRequest.newBuilder().setTransferTo(TransferToRequest.newBuilder()
+                                                                               .setAccountFrom(usernameFrom)
+                                                                               .setAccountTo(usernameDest)
+                                                                               .setAmount(amount)))
+                .thenApply(SessionResponse::getTransferTo);
+    }
+
+    // auxiliary
+
+    // the request stream does not take concurrent writers
+    private synchronized CompletableFuture<SessionResponse> send(SessionRequest.Builder request) {
+        CompletableFuture<SessionResponse> future = new CompletableFuture<>();
+        if (closed) {
+            future.completeExceptionally(Status.UNAVAILABLE.withDescription("Session closed.\n").asRuntimeException());
+            return future;
+        }
+        long id = ++nextId;
+        pending.put(id, future);
+        requests.onNext(request.setId(id).build());
+        return future;
+    }
+
+    private void failPending(Throwable error) {
+        for (Long id : pending.keySet()) {
+            CompletableFuture<SessionResponse> future = pending.remove(id);
+            if (future != null) {
+                future.completeExceptionally(error);
+            }
+        }
+    }
+
+    // requests already sent are still answered, the server ends the stream after the last one
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            closed = true;
+            requests.onCompleted();
+        }
+    }
+}
@@ -1,15 +1,17 @@
 package pt.tecnico.distledger.userclient.grpc;
 
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
 import io.grpc.StatusRuntimeException;
 import pt.tecnico.distledger.namingserver.grpc.NamingServerService;
 import pt.tecnico.distledger.namingserver.other.NamingServerUtilities;
-import pt.tecnico.distledger.server.gossip.GossipUtilities;
+import pt.tecnico.distledger.namingserver.other.ShardMap;
+import pt.tecnico.distledger.server.exception.NoSuchQualifierException;
+import pt.tecnico.distledger.server.gossip.VectorClock;
 import pt.ulisboa.tecnico.distledger.contract.namingserver.NamingServerDistLedger.LookupResponse;
 import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.BalanceRequest;
 import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.BalanceResponse;
@@ -17,6 +19,10 @@ import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.CreateAccountR
 import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.CreateAccountResponse;
 import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.TransferToRequest;
 import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.TransferToResponse;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.Transfer;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.TransferBatchRequest;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.TransferBatchResponse;
+import pt.ulisboa.tecnico.distledger.contract.user.UserDistLedger.TransferResult;
 import pt.ulisboa.tecnico.distledger.contract.user.UserServiceGrpc;
 
 public class UserService implements AutoCloseable {
@@ -26,48 +32,79 @@ public class UserService implements AutoCloseable {
 
     private final NamingServerService namingServerService;
 
-    private ManagedChannel primaryServerChannel;
-    private UserServiceGrpc.UserServiceBlockingStub primaryServerStub;
+    // requests about an account go to the replicas of the shard that owns it
+    private final ShardMap shards;
 
-    private ManagedChannel secondaryServerChannel;
-    private UserServiceGrpc.UserServiceBlockingStub secondaryServerStub;
+    // channels and stubs by service and qualifier, opened the first time each server is used
+    private final Map<String, ManagedChannel> channels = new HashMap<>();
+    private final Map<String, UserServiceGrpc.UserServiceBlockingStub> stubs = new HashMap<>();
 
-    private ManagedChannel terciaryServerChannel;
-    private UserServiceGrpc.UserServiceBlockingStub terciaryServerStub;
+    // every shard has timestamps of its own, so the causal dependencies are kept per shard
+    private final VectorClock[] prevTS;
 
-    private List<Integer> prevTS = new ArrayList<>(Arrays.asList(0,0,0));
+    // reads go to the typed server of the shard while it answers, otherwise to the best of the others
+    private final ReplicaSelector[] replicaSelectors;
 
     public UserService(NamingServerService namingServerService) {
+        this(namingServerService, ShardMap.fromProperties());
+    }
+
+    public UserService(NamingServerService namingServerService, ShardMap shards) {
         this.namingServerService = namingServerService;
-        swapServerOfType("A");
-        swapServerOfType("B");
-        swapServerOfType("C");
+        this.shards = shards;
+        this.prevTS = new VectorClock[shards.getCount()];
+        this.replicaSelectors = new ReplicaSelector[shards.getCount()];
+        for (int shard = 0; shard < shards.getCount(); shard++) {
+            prevTS[shard] = new VectorClock(0);
+            replicaSelectors[shard] = new ReplicaSelector(namingServerService, shards.service(shard));
+        }
     }
 
     // services
 
     public void balance(String qualifier, String username) {
         debug("Request user balance");
-        try {
-            BalanceResponse response = selectStub(qualifier).balance(BalanceRequest.newBuilder()
-                                                                                   .setUserId(username)
-                                                                                   .addAllPrevTS(prevTS)                                            
-                                                                                   .build());
-            GossipUtilities.mergeTS(prevTS, response.getValueTSList());
-            System.out.println("OK\n" + response.getValue() + "\n");
-        } catch (StatusRuntimeException e) {
-            System.out.println(e.getStatus().getDescription());
+        int shard = shards.shardOf(username);
+        VectorClock prevTS = this.prevTS[shard];
+        ReplicaSelector replicaSelector = replicaSelectors[shard];
+        List<String> preferred = namingServerService.lookup(shards.service(shard), qualifier);
+        StatusRuntimeException failure = null;
+        for (String address : replicaSelector.candidates(preferred.isEmpty() ? null : preferred.get(0))) {
+            long start = replicaSelector.begin(address);
+            try {
+                BalanceResponse response = UserServiceGrpc.newBlockingStub(replicaSelector.channel(address))
+                                                          .balance(BalanceRequest.newBuilder()
+                                                                                 .setUserId(username)
+                                                                                 .addAllPrevTS(prevTS.toList())
+                                                                                 .build());
+                replicaSelector.end(address, start, true);
+                prevTS.merge(VectorClock.fromList(response.getValueTSList()));
+                System.out.println("OK\n" + response.getValue() + "\n");
+                return;
+            } catch (StatusRuntimeException e) {
+                boolean unavailable = ReplicaSelector.isUnavailable(e);
+                replicaSelector.end(address, start, !unavailable);
+                if (!unavailable) {
+                    System.out.println(e.getStatus().getDescription());
+                    return;
+                }
+                failure = e;
+                debug("server with address '" + address + "' is unavailable, trying another one");
+            }
         }
+        System.out.println(failure != null ? failure.getStatus().getDescription() : new NoSuchQualifierException().getMessage());
     }
 
     public void createAccount(String qualifier, String username) {
         debug("request for '" + username + "'s account creation on server '" + qualifier + "'");
+        int shard = shards.shardOf(username);
+        VectorClock prevTS = this.prevTS[shard];
         try {
-            CreateAccountResponse response = selectStub(qualifier).createAccount(CreateAccountRequest.newBuilder()
+            CreateAccountResponse response = selectStub(shard, qualifier).createAccount(CreateAccountRequest.newBuilder()
                                                                                                      .setUserId(username)
-                                                                                                     .addAllPrevTS(prevTS)
+                                                                                                     .addAllPrevTS(prevTS.toList())
                                                                                                      .build());
-            GossipUtilities.mergeTS(prevTS, response.getTSList());
+            prevTS.merge(VectorClock.fromList(response.getTSList()));
             System.out.println("OK");
             debug("prevTS is now " + prevTS);
             System.out.println();
@@ -78,14 +115,17 @@ public class UserService implements AutoCloseable {
 
     public void transferTo(String qualifier, String usernameFrom, String usernameDest, int amount) {
         debug("Transfer Request");
+        // a transfer to another shard is forwarded by the shard of the source account
+        int shard = shards.shardOf(usernameFrom);
+        VectorClock prevTS = this.prevTS[shard];
         try {
-            TransferToResponse response = selectStub(qualifier).transferTo(TransferToRequest.newBuilder()
+            TransferToResponse response = selectStub(shard, qualifier).transferTo(TransferToRequest.newBuilder()
                                                                                             .setAccountFrom(usernameFrom)
                                                                                             .setAccountTo(usernameDest)
                                                                                             .setAmount(amount)
-                                                                                            .addAllPrevTS(prevTS)
+                                                                                            .addAllPrevTS(prevTS.toList())
                                                                                             .build());
-            GossipUtilities.mergeTS(prevTS, response.getTSList());
+            prevTS.merge(VectorClock.fromList(response.getTSList()));
             System.out.println("OK");
             debug("prevTS is now " + prevTS);
             System.out.println();
@@ -93,51 +133,89 @@ public class UserService implements AutoCloseable {
             System.out.println(e.getStatus().getDescription());
         }
     }
-    
+
+    // one round trip for all the transfers, each result is printed in the order they were given
+    // the batch goes to the shard of the first source account, the transfers it does not own fail
+    public void transferBatch(String qualifier, List<Transfer> transfers) {
+        debug("Transfer Batch Request with " + transfers.size() + " transfers");
+        int shard = transfers.isEmpty() ? 0 : shards.shardOf(transfers.get(0).getAccountFrom());
+        VectorClock prevTS = this.prevTS[shard];
+        try {
+            TransferBatchResponse response = selectStub(shard, qualifier).transferBatch(TransferBatchRequest.newBuilder()
+                                                                                                     .addAllTransfers(transfers)
+                                                                                                     .addAllPrevTS(prevTS.toList())
+                                                                                                     .build());
+            prevTS.merge(VectorClock.fromList(response.getTSList()));
+            System.out.println("OK");
+            for (TransferResult result : response.getResultsList()) {
+                System.out.print(result.getCode() == 0 ? "- OK\n" : "- " + result.getDescription());
+            }
+            debug("prevTS is now " + prevTS);
+            System.out.println();
+        } catch (StatusRuntimeException e) {
+            System.out.println(e.getStatus().getDescription());
+        }
+    }
+
+    // pipelined requests over one stream, the server tracks their prevTS; closed by the caller
+    // a session stays with one replica, so only the accounts of its shard can be used, e.g. "B@1"
+    public SessionClient openSession(String qualifier) {
+        int shard = ShardMap.parseShard(qualifier);
+        String replica = ShardMap.parseReplica(qualifier);
+        if (shard >= shards.getCount() || selectStub(shard, replica) == null) {
+            return null;
+        }
+        return new SessionClient(channels.get(shards.service(shard) + "/" + replica));
+    }
+
     // auxiliary
 
-    private void swapServerOfType(String qualifier) {
-        List<String> lookupList = namingServerService.lookup(NamingServerUtilities.DISTLEDGER_SERVICE, qualifier);
+    // qualifiers are reused by every shard, a command can name any of them
+    public boolean hasServer(String qualifier) {
+        for (String service : shards.services()) {
+            if (!namingServerService.lookup(service, qualifier).isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private UserServiceGrpc.UserServiceBlockingStub swapServerOfType(int shard, String qualifier) {
+        String key = shards.service(shard) + "/" + qualifier;
+        List<String> lookupList = namingServerService.lookup(shards.service(shard), qualifier);
 
         if(lookupList.size() == 0) {
-            return;
+            return null;
         }
         String address = lookupList.get(0);
         String host = NamingServerUtilities.parseServerHost(address);
         int port = NamingServerUtilities.parseServerPort(address);
-        if (qualifier.equals("A")) {
-            this.primaryServerChannel = ManagedChannelBuilder.forAddress(host, port).usePlaintext().build();
-            this.primaryServerStub = UserServiceGrpc.newBlockingStub(primaryServerChannel);
-            debug("user swapped it's primary server with address: " + address);
-        } else if (qualifier.equals("B")) {
-            this.secondaryServerChannel = ManagedChannelBuilder.forAddress(host, port).usePlaintext().build();
-            this.secondaryServerStub = UserServiceGrpc.newBlockingStub(secondaryServerChannel);
-            debug("user swapped it's secondary server with address: " + address);
-        }
-        else {
-            this.terciaryServerChannel = ManagedChannelBuilder.forAddress(host, port).usePlaintext().build();
-            this.terciaryServerStub = UserServiceGrpc.newBlockingStub(terciaryServerChannel);
-            debug("user swapped it's terciary server with address: " + address);
+        ManagedChannel channel = ManagedChannelBuilder.forAddress(host, port).usePlaintext().build();
+        ManagedChannel previousChannel = channels.put(key, channel);
+        if (previousChannel != null) {
+            previousChannel.shutdown();
         }
+        UserServiceGrpc.UserServiceBlockingStub stub = UserServiceGrpc.newBlockingStub(channel);
+        stubs.put(key, stub);
+        debug("user swapped it's server '" + qualifier + "' of shard " + shard + " with address: " + address);
+        return stub;
     }
-    
-    private UserServiceGrpc.UserServiceBlockingStub selectStub(String qualifier) {
-        if (qualifier.equals("A")) { 
-            return primaryServerStub;
-        } else if (qualifier.equals("B")) {
-            return secondaryServerStub;
-        }
-        else {
-            return terciaryServerStub;
-        }
+
+    // the typed server of the given shard
+    private UserServiceGrpc.UserServiceBlockingStub selectStub(int shard, String qualifier) {
+        UserServiceGrpc.UserServiceBlockingStub stub = stubs.get(shards.service(shard) + "/" + qualifier);
+        return stub != null ? stub : swapServerOfType(shard, qualifier);
     }
 
     // other
 
     @Override
     public final void close() {
-        primaryServerChannel.shutdown();
-        secondaryServerChannel.shutdown();
-        terciaryServerChannel.shutdown();
+        for (ManagedChannel channel : channels.values()) {
+            channel.shutdown();
+        }
+        for (ReplicaSelector replicaSelector : replicaSelectors) {
+            replicaSelector.close();
+        }
     }
 }